@@ -1,12 +1,24 @@
 ﻿using System;
 using System.Collections;
 using System.Collections.Generic;
+using System.IO;
+using System.IO.MemoryMappedFiles;
 using NetMQ.Sockets;
 using UnityEngine;
 
 public class MotionData {
 	private const int OrientationStart = 2 + 4 * 17;
 	private const int TimestampStart = 2 + 4 * 21;
+	private const int PayloadsStart = TimestampStart + 8 + 1;
+
+	// the header of a frame followed by the payloads of the other devices in fan-in
+	public const byte HeaderWithPayloads = 0xA1;
+	public const int PayloadBiosignal = 1;
+	public const int PayloadInertia = 2;
+	public const int PayloadBiosignalHeld = 3;
+	public const int PayloadAux = 4;
+	// the device of the fixed frame, whose biosignal payload carries all of its channels when it has more than 8
+	public const int PrimaryDevice = 255;
 
 	public static Quaternion GetOrientation(byte[] data) {
 		byte[] bytes = new byte[4 * 4];
@@ -75,6 +87,111 @@ public class MotionData {
         Buffer.BlockCopy(bytes, 0, data, TimestampStart, bytes.Length);
     }
 
+	// readers of a motion data at offset in data, in the native byte order as returned by getMotionDataBatch().
+	// they neither swap bytes nor allocate.
+	public static Quaternion GetNativeOrientation(byte[] data, int offset) {
+		Quaternion result = Quaternion.identity;
+		for (int i = 0; i < 4; i++) {
+			// convert OpenGL to Unity
+			result[i] = (i == 0 || i == 1 ? -1.0f : 1.0f) * BitConverter.ToSingle(data, offset + OrientationStart + i * 4);
+		}
+		return result;
+	}
+
+	public static long GetNativeTimestamp(byte[] data, int offset) {
+		return BitConverter.ToInt64(data, offset + TimestampStart);
+	}
+
+	public static float GetNativeFloat(byte[] data, int offset, int index) {
+		return BitConverter.ToSingle(data, offset + 2 + index * 4);
+	}
+
+	// the values of the payload of a device in a frame of getNextMotionData(), or null if the frame does not carry it.
+	// device is the index of the device among the devices of its kind.
+	public static float[] GetPayload(byte[] data, int kind, int device) {
+		int offset = FindPayload(data, kind, device);
+		if (offset < 0) {
+			return null;
+		}
+
+		int valueCount = data[offset + 2];
+		float[] values = new float[valueCount];
+		byte[] bytes = new byte[4];
+		for (int j = 0; j < valueCount; j++) {
+			Buffer.BlockCopy(data, offset + 3 + j * 4, bytes, 0, 4);
+			if (BitConverter.IsLittleEndian) {
+				Array.Reverse(bytes);
+			}
+			values[j] = BitConverter.ToSingle(bytes, 0);
+		}
+		return values;
+	}
+
+	// the offset of the payload in data, or -1
+	private static int FindPayload(byte[] data, int kind, int device) {
+		if (data[0] != HeaderWithPayloads) {
+			return -1;
+		}
+
+		int count = data[PayloadsStart];
+		int offset = PayloadsStart + 1;
+		for (int i = 0; i < count; i++) {
+			if (data[offset] == device && data[offset + 1] == kind) {
+				return offset;
+			}
+			offset += 3 + data[offset + 2] * 4;
+		}
+		return -1;
+	}
+
+	// if the biosignal of a frame of getNextMotionData() repeats the last sample, as no new one arrived by the tick
+	public static bool IsBiosignalHeld(byte[] data) {
+		return FindPayload(data, PayloadBiosignalHeld, PrimaryDevice) >= 0;
+	}
+
+	// every channel of the biosignal in a frame of getNextMotionData(), e.g. 16 with a Daisy
+	public static float[] GetBiosignal(byte[] data) {
+		float[] values = GetPayload(data, PayloadBiosignal, PrimaryDevice);
+		if (values != null) {
+			return values;
+		}
+
+		values = new float[8];
+		byte[] bytes = new byte[4];
+		for (int i = 0; i < values.Length; i++) {
+			Buffer.BlockCopy(data, 2 + i * 4, bytes, 0, 4);
+			if (BitConverter.IsLittleEndian) {
+				Array.Reverse(bytes);
+			}
+			values[i] = BitConverter.ToSingle(bytes, 0);
+		}
+		return values;
+	}
+
+	// the aux values of the biosignal device in a frame of getNextMotionData(): the accelerometer in g,
+	// then 3 raw words of the board. null unless setBiosignalAux() enabled them.
+	public static float[] GetAux(byte[] data) {
+		float[] values = GetPayload(data, PayloadAux, PrimaryDevice);
+		if (values == null) {
+			return null;
+		}
+
+		float[] result = new float[6];
+		Array.Copy(values, result, result.Length);
+		return result;
+	}
+
+	// the clock of the biosignal board in milliseconds when the sample was taken, or -1 if the frame has none
+	public static long GetBoardTime(byte[] data) {
+		int offset = FindPayload(data, PayloadAux, PrimaryDevice);
+		if (offset < 0 || data[offset + 2] <= 6) {
+			return -1;
+		}
+
+		int start = offset + 3 + 6 * 4;
+		return ((long)data[start] << 24) | ((long)data[start + 1] << 16) | ((long)data[start + 2] << 8) | data[start + 3];
+	}
+
 	public static string ToString(byte[] data) {
 		int biosignalStart = 2;
 		int accelerationStart = biosignalStart + 4 * 8;
@@ -119,7 +236,15 @@ public class MotionData {
 }
 
 public class SensorDeviceManager : MonoBehaviour {
+	private const int MaxMotionDataPerBatch = 64;
+
 	private AndroidJavaObject _manager;
+	private IntPtr _methodExportMotionData;
+	private jvalue[] _noArgs;
+	private MemoryMappedFile _batchFile;
+	private MemoryMappedViewAccessor _batchView;
+	private byte[] _batchData;
+	private int _motionDataSize;
 
 	void Awake() {
 		AndroidJavaClass clsUnityPlayer = new AndroidJavaClass("com.unity3d.player.UnityPlayer");
@@ -128,6 +253,29 @@ public class SensorDeviceManager : MonoBehaviour {
 		Debug.Assert(activity != null);
 		
 		_manager = new AndroidJavaObject("kr.co.clicked.sensordeviceplugin.SensorDeviceManager", activity, 120.0f);
+		_motionDataSize = _manager.Call<int>("getMotionDataSize");
+
+		// the plugin exports the frames to a file both sides map, so a batch crosses without a java array,
+		// and only the frames exported are copied, into a managed array reused by every batch call.
+		// the frames come in the native byte order, so reading them needs no byte swapping
+		string path = Path.Combine(Application.temporaryCachePath, "MotionDataBatch");
+		_manager.Call("mapMotionDataExportBuffer", path, MaxMotionDataPerBatch);
+		_batchFile = MemoryMappedFile.CreateFromFile(path, FileMode.Open, null, 0, MemoryMappedFileAccess.Read);
+		_batchView = _batchFile.CreateViewAccessor(0, 0, MemoryMappedFileAccess.Read);
+		_batchData = new byte[_motionDataSize * MaxMotionDataPerBatch];
+
+		_methodExportMotionData = AndroidJNIHelper.GetMethodID(_manager.GetRawClass(), "exportMotionData", "()I");
+		_noArgs = new jvalue[0];
+	}
+
+	// samples every available device at once. before Start().
+	public void setFanIn(bool enabled) {
+		_manager.Call("setFanIn", enabled);
+	}
+
+	// the frames carry the accelerometer and the clock of the biosignal board. before Start().
+	public void setBiosignalAux(bool enabled) {
+		_manager.Call("setBiosignalAux", enabled);
 	}
 
 	void Start() {
@@ -136,9 +284,48 @@ public class SensorDeviceManager : MonoBehaviour {
 
 	void OnDestroy() {
 		_manager.Call("shutdown");
+
+		_batchView.Dispose();
+		_batchFile.Dispose();
 	}
 
 	public byte[] getNextMotionData() {
         return (byte[])(Array)_manager.Call<sbyte[]>("getNextMotionData");
 	}
+
+	// 8, or 16 with a Daisy. 0 without a biosignal device.
+	public int getBiosignalChannelCount() {
+		return _manager.Call<int>("getBiosignalChannelCount");
+	}
+
+	public int motionDataSize {
+		get { return _motionDataSize; }
+	}
+
+	// the value of a counter or a gauge of the plugin, e.g. "sampler.droppedMotionData"
+	public long getMetricValue(string name) {
+		return _manager.Call<long>("getMetricValue", name);
+	}
+
+	// e.g. getMetricPercentile("sampler.tickLatenessNanos", 99.0)
+	public long getMetricPercentile(string name, double percentile) {
+		return _manager.Call<long>("getMetricPercentile", name, percentile);
+	}
+
+	// every metric of the plugin as json
+	public string getMetricsSnapshot() {
+		return _manager.Call<string>("getMetricsSnapshot");
+	}
+
+	// returns every pending motion data back to back; each one is motionDataSize bytes long, in the native byte order.
+	// read them with MotionData.GetNative*() at offsets of i * motionDataSize.
+	// data is the same array on every call, and stays valid until the next one.
+	public int getMotionDataBatch(out byte[] data) {
+		int count = AndroidJNI.CallIntMethod(_manager.GetRawObject(), _methodExportMotionData, _noArgs);
+		if (count > 0) {
+			_batchView.ReadArray(0, _batchData, 0, count * _motionDataSize);
+		}
+		data = count > 0 ? _batchData : null;
+		return count;
+	}
 }
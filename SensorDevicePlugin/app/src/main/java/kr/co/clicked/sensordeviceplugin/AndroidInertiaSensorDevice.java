@@ -4,11 +4,9 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.joml.Quaternionf;
-import org.joml.Vector3f;
-
 public class AndroidInertiaSensorDevice extends AndroidSensorDevice implements IInertiaSensorDevice {
     public AndroidInertiaSensorDevice(SensorManager sensorManager, Handler handler, float samplingRate) {
         super(sensorManager, handler, samplingRate);
@@ -17,6 +15,33 @@ public class AndroidInertiaSensorDevice extends AndroidSensorDevice implements I
     }
 
     private InertiaSensorData _lastPolledData;
+    private long _eventTimeOffset;
+    private boolean _eventTimeOffsetValid;
+
+    // SensorEvent.timestamp is SystemClock.elapsedRealtimeNanos() on most devices, but System.nanoTime() on some.
+    // the first event tells which, by the clock it is closer to.
+    private long toNanoTime(long eventTimestamp) {
+        if (_eventTimeOffsetValid == false) {
+            long nanoTime = System.nanoTime();
+            long elapsedRealtime = SystemClock.elapsedRealtimeNanos();
+            if (Math.abs(eventTimestamp - elapsedRealtime) < Math.abs(eventTimestamp - nanoTime)) {
+                _eventTimeOffset = nanoTime - elapsedRealtime;
+            }
+            else {
+                _eventTimeOffset = 0;
+            }
+            _eventTimeOffsetValid = true;
+        }
+        return eventTimestamp + _eventTimeOffset;
+    }
+
+    // implements ISensorDevice
+    @Override
+    public boolean open() {
+        // the clocks drift apart while the device sleeps
+        _eventTimeOffsetValid = false;
+        return super.open();
+    }
 
     // implements AndroidSensorDevice
     @Override
@@ -41,51 +66,24 @@ public class AndroidInertiaSensorDevice extends AndroidSensorDevice implements I
 
     @Override
     public void onSensorChanged(SensorEvent event) {
+        SessionRecorder recorder = getSessionRecorder();
+        if (recorder != null) {
+            recorder.recordSensorEvent(event.sensor.getType(), event.timestamp, event.values);
+        }
+
+        long timestamp = toNanoTime(event.timestamp);
         switch (event.sensor.getType()) {
             case Sensor.TYPE_ACCELEROMETER:
-                _lastPolledData.setAcceleration(
-                    AndroidInertiaSensorTransform.transformSensorValues(
-                        new Vector3f(
-                            event.values[0],
-                            event.values[1],
-                            event.values[2]
-                        )
-                    )
-                );
+                AndroidInertiaSensorTransform.transformAcceleration(event.values, timestamp, _lastPolledData);
                 break;
             case Sensor.TYPE_GYROSCOPE:
-                _lastPolledData.setAngularVelocities(
-                    AndroidInertiaSensorTransform.transformSensorValues(
-                        new Vector3f(
-                                event.values[0],
-                                event.values[1],
-                                event.values[2]
-                        )
-                    )
-                );
+                AndroidInertiaSensorTransform.transformAngularVelocities(event.values, timestamp, _lastPolledData);
                 break;
             case Sensor.TYPE_MAGNETIC_FIELD:
-                _lastPolledData.setMagneticField(
-                    AndroidInertiaSensorTransform.transformSensorValues(
-                        new Vector3f(
-                                event.values[0],
-                                event.values[1],
-                                event.values[2]
-                        )
-                    )
-                );
+                AndroidInertiaSensorTransform.transformMagneticField(event.values, timestamp, _lastPolledData);
                 break;
             case Sensor.TYPE_ROTATION_VECTOR:
-                _lastPolledData.setOrientation(
-                    AndroidInertiaSensorTransform.transformRotationVector(
-                        new Quaternionf(
-                            event.values[0],
-                            event.values[1],
-                            event.values[2],
-                            event.values[3]
-                        )
-                    )
-                );
+                AndroidInertiaSensorTransform.transformRotationVector(event.values, timestamp, _lastPolledData);
                 break;
             default:
                 break;
@@ -1,11 +1,13 @@
 package kr.co.clicked.sensordeviceplugin;
 
-import android.util.Log;
-
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
 
 public class AndroidInertiaSensorTransform {
+    // the rotation of step 2 below, -90 degrees about the local X axis, is constant.
+    // as a quaternion it is (-k, 0, 0, k) with k = cos(PI / 4), so R * Q expands to the products with k only.
+    private static final float HALF_SQRT2 = (float)Math.cos(Math.PI / 4);
+
     public static Quaternionf transformRotationVector(Quaternionf value) {
         // convert coordinate from Android to OpenGL
         // Step 1. change axes
@@ -20,4 +22,35 @@ public class AndroidInertiaSensorTransform {
 
         return new Vector3f(-value.y, value.x, value.z);
     }
+
+    // same as transformRotationVector(), but from SensorEvent.values straight into dst without any allocation
+    public static void transformRotationVector(float[] values, long timestamp, InertiaSensorData dst) {
+        // Step 1. change axes
+        float x = -values[1];
+        float y = values[0];
+        float z = values[2];
+        float w = values[3];
+
+        // Step 2. rotate coordinate as device's Z axis looks forward
+        dst.setOrientation(
+                HALF_SQRT2 * (x - w),
+                HALF_SQRT2 * (y + z),
+                HALF_SQRT2 * (z - y),
+                HALF_SQRT2 * (w + x),
+                timestamp);
+    }
+
+    // same as transformSensorValues(), but from SensorEvent.values straight into dst without any allocation.
+    // timestamp is when the values were taken, in System.nanoTime()
+    public static void transformAcceleration(float[] values, long timestamp, InertiaSensorData dst) {
+        dst.setAcceleration(-values[1], values[0], values[2], timestamp);
+    }
+
+    public static void transformAngularVelocities(float[] values, long timestamp, InertiaSensorData dst) {
+        dst.setAngularVelocities(-values[1], values[0], values[2], timestamp);
+    }
+
+    public static void transformMagneticField(float[] values, long timestamp, InertiaSensorData dst) {
+        dst.setMagneticField(-values[1], values[0], values[2], timestamp);
+    }
 }
@@ -18,6 +18,9 @@ public abstract class AndroidSensorDevice implements ISensorDevice, SensorEventL
     private SensorManager _sensorManager;
     private Handler _handler;
     private int _samplingPeriodUs;
+    private volatile SessionRecorder _recorder;
+
+    protected SessionRecorder getSessionRecorder() { return _recorder; }
 
     protected void registerSensorListener(int sensorType, int samplingPeriodUs) {
         Sensor sensor = _sensorManager.getDefaultSensor(sensorType);
@@ -50,5 +53,13 @@ public abstract class AndroidSensorDevice implements ISensorDevice, SensorEventL
     }
 
     @Override
-    public void updateDeviceStatus() {}
+    public void updateDeviceStatus(UsbDeviceTable usbDevices) {}
+
+    @Override
+    public void setSessionRecorder(SessionRecorder recorder) {
+        _recorder = recorder;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry registry) {}
 }
@@ -2,10 +2,6 @@ package kr.co.clicked.sensordeviceplugin;
 
 import android.hardware.usb.UsbManager;
 
-import com.felhr.usbserial.UsbSerialDevice;
-
-import java.nio.ByteBuffer;
-
 public class ArduinoInertiaSensorDevice extends UsbSensorDevice implements IInertiaSensorDevice {
     public ArduinoInertiaSensorDevice(UsbManager usbManager) {
         super(usbManager);
@@ -25,13 +21,14 @@ public class ArduinoInertiaSensorDevice extends UsbSensorDevice implements IIner
 //    protected byte commandStart() { return 'r'; }
 
     @Override
-    protected void connectionOpened(UsbSerialDevice serialDevice) {}
+    protected void connectionOpened(ISerialTransport transport) {}
 
     @Override
-    protected void connectionWillBeClosed(UsbSerialDevice serialDevice) {}
+    protected void connectionWillBeClosed(ISerialTransport transport) {}
 
     @Override
-    protected boolean parseReceivedData(UsbSerialDevice serialDevice, ByteBuffer data) {
+    protected boolean parseReceivedData(ISerialTransport transport, ByteRing data) {
+        data.skip(data.available());
         return true;
     }
 
@@ -0,0 +1,65 @@
+package kr.co.clicked.sensordeviceplugin;
+
+// resamples the samples of one biosignal device at the ticks of the sampler, on the sampler thread.
+// a sample is interpolated between the last sample which arrived by the tick and the first one after it,
+// or held when the one after has not arrived yet.
+public class BiosignalAligner {
+    public BiosignalAligner() {
+        _previous = new BiosignalSensorData();
+        _next = new BiosignalSensorData();
+        _output = new BiosignalSensorData();
+    }
+
+    private BiosignalSensorData _previous;
+    private BiosignalSensorData _next;      // polled already, but after the last tick
+    private BiosignalSensorData _output;
+    private boolean _hasPrevious;
+    private boolean _hasNext;
+
+    // sampleTime is in System.nanoTime(). null until the device has sent a sample by then.
+    // the result is valid until the next call.
+    public BiosignalSensorData align(IBiosignalSensorDevice device, long sampleTime) {
+        while (true) {
+            if (_hasNext == false) {
+                if (device.pollValue(_next) == false) {
+                    break;
+                }
+                _hasNext = true;
+            }
+            if (_next.getTimestamp() > sampleTime) {
+                break;
+            }
+
+            BiosignalSensorData previous = _previous;
+            _previous = _next;
+            _next = previous;
+            _hasPrevious = true;
+            _hasNext = false;
+        }
+
+        if (_hasPrevious == false) {
+            return null;
+        }
+        int channelCount = _previous.getChannelCount();
+        if (_hasNext == false || _next.getTimestamp() <= _previous.getTimestamp() || _next.getChannelCount() != channelCount) {
+            return _previous;
+        }
+
+        float alpha = (float)(sampleTime - _previous.getTimestamp()) / (_next.getTimestamp() - _previous.getTimestamp());
+        for (int i = 0; i < channelCount; i++) {
+            float value = _previous.getValue(i);
+            _output.setValue(i, value + (_next.getValue(i) - value) * alpha);
+        }
+        _output.setChannelCount(channelCount);
+        _output.copyAuxFrom(_previous);
+        _output.setSampleNumber(_previous.getSampleNumber());
+        _output.setTimestamp(sampleTime);
+        return _output;
+    }
+
+    // when sampling restarts
+    public void clear() {
+        _hasPrevious = false;
+        _hasNext = false;
+    }
+}
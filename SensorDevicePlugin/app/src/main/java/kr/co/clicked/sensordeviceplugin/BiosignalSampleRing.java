@@ -0,0 +1,151 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// lock-free ring of decoded biosignal samples between one parser and one consumer.
+// samples are kept in preallocated primitive arrays, and the newest sample is dropped when the ring is full.
+// each slot holds up to maxChannels values, so samples of different widths may follow each other.
+public class BiosignalSampleRing {
+    private static final int INVALID_SAMPLE_NUMBER = -1;
+
+    public BiosignalSampleRing(int depth, int maxChannels, int sampleNumberModulo) {
+        assert(depth > 0);
+
+        int capacity = Integer.highestOneBit(depth);
+        if (capacity < depth) {
+            capacity <<= 1;
+        }
+
+        _capacity = capacity;
+        _mask = capacity - 1;
+        _maxChannels = maxChannels;
+        _sampleNumberModulo = sampleNumberModulo;
+
+        _values = new float[capacity * maxChannels];
+        _channelCounts = new int[capacity];
+        _auxValues = new float[capacity * BiosignalSensorData.AUX_VALUES];
+        _auxTypes = new int[capacity];
+        _boardTimes = new long[capacity];
+        _sampleNumbers = new int[capacity];
+        _timestamps = new long[capacity];
+
+        _head = new AtomicLong();
+        _tail = new AtomicLong();
+        _droppedCount = new AtomicLong();
+        _lostCount = new AtomicLong();
+        _lastSampleNumber = INVALID_SAMPLE_NUMBER;
+    }
+
+    private int _capacity;
+    private int _mask;
+    private int _maxChannels;
+    private int _sampleNumberModulo;
+    private float[] _values;
+    private int[] _channelCounts;
+    private float[] _auxValues;
+    private int[] _auxTypes;
+    private long[] _boardTimes;
+    private int[] _sampleNumbers;
+    private long[] _timestamps;
+
+    private AtomicLong _head;
+    private AtomicLong _tail;
+    private AtomicLong _droppedCount;
+    private AtomicLong _lostCount;
+    private int _lastSampleNumber;
+
+    public int capacity() { return _capacity; }
+
+    public int size() {
+        long tail = _tail.get();
+        return (int)Math.max(0, _head.get() - tail);
+    }
+
+    // samples which arrived while the ring was full
+    public long getDroppedCount() { return _droppedCount.get(); }
+
+    // samples which never arrived, detected from the gaps of the sample counter
+    public long getLostCount() { return _lostCount.get(); }
+
+    // producer side, a sample of maxChannels values
+    public boolean put(float[] values, int offset, int sampleNumber, long timestamp) {
+        return put(values, offset, _maxChannels, sampleNumber, timestamp);
+    }
+
+    // producer side, a sample without aux data
+    public boolean put(float[] values, int offset, int channelCount, int sampleNumber, long timestamp) {
+        return put(values, offset, channelCount, null, 0, BiosignalSensorData.NO_AUX, BiosignalSensorData.NO_BOARD_TIME,
+                sampleNumber, timestamp);
+    }
+
+    // producer side. auxValues holds BiosignalSensorData.AUX_VALUES values from auxOffset, unless auxType is NO_AUX.
+    public boolean put(float[] values, int offset, int channelCount, float[] auxValues, int auxOffset, int auxType,
+                       long boardTime, int sampleNumber, long timestamp) {
+        assert(channelCount <= _maxChannels);
+
+        if (_lastSampleNumber != INVALID_SAMPLE_NUMBER) {
+            int gap = (sampleNumber - _lastSampleNumber - 1 + _sampleNumberModulo) % _sampleNumberModulo;
+            if (gap > 0) {
+                _lostCount.lazySet(_lostCount.get() + gap);
+            }
+        }
+        _lastSampleNumber = sampleNumber;
+
+        long head = _head.get();
+        if (head - _tail.get() >= _capacity) {
+            _droppedCount.lazySet(_droppedCount.get() + 1);
+            return false;
+        }
+
+        int slot = (int)head & _mask;
+        System.arraycopy(values, offset, _values, slot * _maxChannels, channelCount);
+        _channelCounts[slot] = channelCount;
+        if (auxType != BiosignalSensorData.NO_AUX) {
+            System.arraycopy(auxValues, auxOffset, _auxValues, slot * BiosignalSensorData.AUX_VALUES, BiosignalSensorData.AUX_VALUES);
+        }
+        _auxTypes[slot] = auxType;
+        _boardTimes[slot] = boardTime;
+        _sampleNumbers[slot] = sampleNumber;
+        _timestamps[slot] = timestamp;
+
+        _head.lazySet(head + 1);
+        return true;
+    }
+
+    // producer side, e.g. when the stream restarts
+    public void resetSampleCounter() {
+        _lastSampleNumber = INVALID_SAMPLE_NUMBER;
+    }
+
+    // producer side, when the stream restarts with another counter, e.g. one per pair of packets
+    public void resetSampleCounter(int sampleNumberModulo) {
+        _sampleNumberModulo = sampleNumberModulo;
+        _lastSampleNumber = INVALID_SAMPLE_NUMBER;
+    }
+
+    // consumer side
+    public boolean poll(BiosignalSensorData dst) {
+        long tail = _tail.get();
+        if (tail >= _head.get()) {
+            return false;
+        }
+
+        int slot = (int)tail & _mask;
+        dst.setData(_values, slot * _maxChannels, _channelCounts[slot]);
+        if (_auxTypes[slot] != BiosignalSensorData.NO_AUX) {
+            dst.setAuxData(_auxValues, slot * BiosignalSensorData.AUX_VALUES);
+        }
+        dst.setAuxType(_auxTypes[slot]);
+        dst.setBoardTime(_boardTimes[slot]);
+        dst.setSampleNumber(_sampleNumbers[slot]);
+        dst.setTimestamp(_timestamps[slot]);
+
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    // consumer side
+    public void clear() {
+        _tail.lazySet(_head.get());
+    }
+}
@@ -3,41 +3,134 @@ package kr.co.clicked.sensordeviceplugin;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
+// a sample of up to MAX_CHANNELS channels, e.g. 16 of a Cyton with a Daisy, as wide as the data last set.
+// the fixed frame of MotionData carries the first CHANNELS of them in SIZE bytes.
+// a device may also decode the aux data of its board, e.g. the accelerometer of a Cyton, and the clock of the board.
 public class BiosignalSensorData {
     public static final int CHANNELS = 8;
     public static final int SIZE = 32;
+    public static final int MAX_CHANNELS = 16;
+
+    // the aux values, which hold the latest reading of each
+    public static final int AUX_VALUES = 6;
+    public static final int AUX_ACCEL_X = 0;    // in g
+    public static final int AUX_ACCEL_Y = 1;
+    public static final int AUX_ACCEL_Z = 2;
+    public static final int AUX_RAW = 3;        // 3 unsigned 16-bit words of the board, e.g. analog reads
+
+    public static final int NO_AUX = -1;
+    public static final long NO_BOARD_TIME = -1;
 
     public BiosignalSensorData() {
-        _data = ByteBuffer.allocate(SIZE);
+        _data = ByteBuffer.allocate(MAX_CHANNELS * 4);
         _data.order(ByteOrder.BIG_ENDIAN);
+        _channelCount = CHANNELS;
+        _aux = ByteBuffer.allocate((AUX_VALUES + 1) * 4);
+        _aux.order(ByteOrder.BIG_ENDIAN);
+        _auxType = NO_AUX;
+        _boardTime = NO_BOARD_TIME;
     }
 
     private ByteBuffer _data;
+    private int _channelCount;
+    private ByteBuffer _aux;        // the aux values, then the board time as an unsigned int
+    private int _auxType;
+    private long _boardTime;
+    private int _sampleNumber;
+    private long _timestamp;
 
+    // the values of all channels in the first getChannelCount() * 4 bytes, and at least SIZE bytes
     public byte[] getData() {
         return _data.array();
     }
 
     public void setData(float[] data) {
-        assert(data.length * 4 >= SIZE);
+        setData(data, 0, data.length);
+    }
 
-        _data.clear();
-        for (int i = 0; i < data.length; i++) {
-            _data.putFloat(data[i]);
+    public void setData(float[] data, int offset, int count) {
+        assert(count <= MAX_CHANNELS);
+
+        for (int i = 0; i < count; i++) {
+            _data.putFloat(i * 4, data[offset + i]);
         }
+        setChannelCount(count);
     }
 
+    public int getChannelCount() { return _channelCount; }
+
+    public void setChannelCount(int channelCount) {
+        assert(channelCount <= MAX_CHANNELS);
+
+        _channelCount = channelCount;
+    }
+
+    public float getValue(int channel) {
+        return _data.getFloat(channel * 4);
+    }
+
+    public void setValue(int channel, float value) {
+        _data.putFloat(channel * 4, value);
+    }
+
+    // the type of the packet the aux values came with, e.g. CytonPacketDecoder.PACKET_STANDARD_ACCEL,
+    // or NO_AUX if the device decodes none
+    public int getAuxType() { return _auxType; }
+
+    public void setAuxType(int auxType) { _auxType = auxType; }
+
+    public float getAuxValue(int index) {
+        return _aux.getFloat(index * 4);
+    }
+
+    public void setAuxValue(int index, float value) {
+        _aux.putFloat(index * 4, value);
+    }
+
+    // the AUX_VALUES aux values, followed by the board time as an unsigned int if there is one
+    public byte[] getAuxData() {
+        return _aux.array();
+    }
+
+    public void setAuxData(float[] data, int offset) {
+        for (int i = 0; i < AUX_VALUES; i++) {
+            _aux.putFloat(i * 4, data[offset + i]);
+        }
+    }
+
+    // the clock of the board in milliseconds, an unsigned 32-bit count, or NO_BOARD_TIME if the sample had none
+    public long getBoardTime() { return _boardTime; }
+
+    public void setBoardTime(long boardTime) {
+        _boardTime = boardTime;
+        _aux.putInt(AUX_VALUES * 4, (int)boardTime);
+    }
+
+    public void copyAuxFrom(BiosignalSensorData src) {
+        System.arraycopy(src._aux.array(), 0, _aux.array(), 0, _aux.capacity());
+        _auxType = src._auxType;
+        _boardTime = src._boardTime;
+    }
+
+    // sample counter reported by the device
+    public int getSampleNumber() { return _sampleNumber; }
+
+    public void setSampleNumber(int sampleNumber) { _sampleNumber = sampleNumber; }
+
+    // sample time in System.nanoTime(), e.g. from the arrival and the sample counter of the device
+    public long getTimestamp() { return _timestamp; }
+
+    public void setTimestamp(long timestamp) { _timestamp = timestamp; }
+
     @Override
     public String toString() {
-        return String.format("1:%f, 2:%f, 3:%f, 4:%f, 5:%f, 6:%f, 7:%f, 8:%f",
-                _data.getFloat(0),
-                _data.getFloat(1 * 4),
-                _data.getFloat(2 * 4),
-                _data.getFloat(3 * 4),
-                _data.getFloat(4 * 4),
-                _data.getFloat(5 * 4),
-                _data.getFloat(6 * 4),
-                _data.getFloat(7 * 4)
-                );
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < _channelCount; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(String.format("%d:%f", i + 1, _data.getFloat(i * 4)));
+        }
+        return result.toString();
     }
 }
@@ -0,0 +1,132 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// lock-free byte ring between one writer (usb reader thread) and one reader (parser).
+// the reader parses in place with the index based accessors, which count from the oldest unread byte.
+public class ByteRing {
+    public ByteRing(int capacity) {
+        assert(capacity > 0);
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        _buffer = new byte[size];
+        _mask = size - 1;
+        _head = new AtomicLong();
+        _tail = new AtomicLong();
+        _overflowCount = new AtomicLong();
+    }
+
+    private byte[] _buffer;
+    private int _mask;
+    private AtomicLong _head;     // written by the writer only
+    private AtomicLong _tail;     // written by the reader only
+    private AtomicLong _overflowCount;
+
+    public int capacity() { return _buffer.length; }
+
+    public int available() {
+        long tail = _tail.get();
+        return (int)(_head.get() - tail);
+    }
+
+    // bytes discarded because the reader did not keep up
+    public long getOverflowCount() { return _overflowCount.get(); }
+
+    // writer side. returns the number of bytes written, the rest is discarded and counted as overflow.
+    public int write(ByteBuffer src, int offset, int length) {
+        long head = _head.get();
+        int free = _buffer.length - (int)(head - _tail.get());
+        int count = Math.min(length, free);
+        if (count < length) {
+            _overflowCount.lazySet(_overflowCount.get() + length - count);
+        }
+
+        int start = (int)head & _mask;
+        int first = Math.min(count, _buffer.length - start);
+
+        src.position(offset);
+        src.get(_buffer, start, first);
+        src.get(_buffer, 0, count - first);
+
+        _head.lazySet(head + count);
+        return count;
+    }
+
+    // writer side
+    public int write(byte[] src, int offset, int length) {
+        long head = _head.get();
+        int free = _buffer.length - (int)(head - _tail.get());
+        int count = Math.min(length, free);
+        if (count < length) {
+            _overflowCount.lazySet(_overflowCount.get() + length - count);
+        }
+
+        int start = (int)head & _mask;
+        int first = Math.min(count, _buffer.length - start);
+
+        System.arraycopy(src, offset, _buffer, start, first);
+        System.arraycopy(src, offset + first, _buffer, 0, count - first);
+
+        _head.lazySet(head + count);
+        return count;
+    }
+
+    // reader side
+    public byte get(int index) {
+        return _buffer[(int)(_tail.get() + index) & _mask];
+    }
+
+    // reader side. true when the bytes in [index, index + length) do not wrap around the end of array().
+    public boolean isContiguous(int index, int length) {
+        int start = (int)(_tail.get() + index) & _mask;
+        return start + length <= _buffer.length;
+    }
+
+    // reader side. the backing array, to be accessed from arrayOffset(index) for contiguous ranges only.
+    public byte[] array() { return _buffer; }
+
+    public int arrayOffset(int index) {
+        return (int)(_tail.get() + index) & _mask;
+    }
+
+    // reader side. copies without consuming.
+    public void copy(int index, byte[] dst, int offset, int length) {
+        int start = (int)(_tail.get() + index) & _mask;
+        int first = Math.min(length, _buffer.length - start);
+
+        System.arraycopy(_buffer, start, dst, offset, first);
+        System.arraycopy(_buffer, 0, dst, offset + first, length - first);
+    }
+
+    // reader side
+    public void skip(int count) {
+        assert(count <= available());
+
+        _tail.lazySet(_tail.get() + count);
+    }
+
+    // reader side. returns the number of bytes read.
+    public int read(byte[] dst, int offset, int length) {
+        long tail = _tail.get();
+        int count = Math.min(length, (int)(_head.get() - tail));
+
+        int start = (int)tail & _mask;
+        int first = Math.min(count, _buffer.length - start);
+
+        System.arraycopy(_buffer, start, dst, offset, first);
+        System.arraycopy(_buffer, 0, dst, offset + first, count - first);
+
+        _tail.lazySet(tail + count);
+        return count;
+    }
+
+    // reader side
+    public void clear() {
+        _tail.lazySet(_head.get());
+    }
+}
@@ -0,0 +1,131 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.Arrays;
+
+// decodes 33-byte OpenBCI Cyton packets in place, without any allocation per packet.
+// the footer 0xC0 to 0xC7 tells the type of the packet, which tells what its 6 aux bytes carry.
+public class CytonPacketDecoder {
+    public static final int PACKET_SIZE = 33;
+    public static final int CHANNELS = 8;
+    public static final int DEFAULT_GAIN = 24;
+
+    // types of packets, the low bits of the footer
+    public static final int PACKET_STANDARD_ACCEL = 0;          // the 3 axes of the accelerometer, zeros between its readings
+    public static final int PACKET_STANDARD_RAW_AUX = 1;        // 6 bytes of the board, e.g. analog or digital reads
+    public static final int PACKET_USER_DEFINED = 2;
+    public static final int PACKET_TIME_SYNC_SET_ACCEL = 3;     // an axis of the accelerometer and the board time,
+    public static final int PACKET_TIME_SYNCED_ACCEL = 4;       // the "set" one answering a time sync command
+    public static final int PACKET_TIME_SYNC_SET_RAW_AUX = 5;   // 2 bytes of the board and the board time
+    public static final int PACKET_TIME_SYNCED_RAW_AUX = 6;
+    public static final int PACKET_IMPEDANCE = 7;
+
+    // of the LIS3DH at +-4 g, whose 12-bit readings come left-aligned in 16 bits
+    public static final float ACCEL_SCALE_FACTOR = 0.002f / 16;
+
+    private static final int HEADER = 0xA0;
+    private static final int FOOTER_MASK = 0xF8;
+    private static final int FOOTER = 0xC0;
+    public static final int SAMPLE_NUMBER_OFFSET = 1;
+    private static final int CHANNEL_DATA_OFFSET = 2;
+    private static final int AUX_DATA_OFFSET = 26;
+    private static final int BOARD_TIME_OFFSET = 28;
+    private static final int FOOTER_OFFSET = PACKET_SIZE - 1;
+    private static final int ACCEL_AXIS_X_SAMPLE_NUMBER = 7;    // and Y and Z in the next ones, of every 10 time synced packets
+
+    public static float scaleFactor(int gain) {
+        return 4.5f * 1000000 / gain / ((1 << 23) - 1);
+    }
+
+    public static boolean isValidPacket(byte header, byte footer) {
+        return ((header & 0xFF) == HEADER) && ((footer & FOOTER_MASK) == FOOTER);
+    }
+
+    public static boolean isValidPacket(byte[] src, int offset) {
+        return isValidPacket(src[offset], src[offset + PACKET_SIZE - 1]);
+    }
+
+    public CytonPacketDecoder() {
+        super();
+
+        _scaleFactors = new float[CHANNELS];
+        Arrays.fill(_scaleFactors, scaleFactor(DEFAULT_GAIN));
+    }
+
+    private float[] _scaleFactors;
+
+    public void setGain(int channel, int gain) {
+        _scaleFactors[channel] = scaleFactor(gain);
+    }
+
+    public int sampleNumber(byte[] src, int offset) {
+        return src[offset + SAMPLE_NUMBER_OFFSET] & 0xFF;
+    }
+
+    public static int packetType(byte[] src, int offset) {
+        return src[offset + FOOTER_OFFSET] & ~FOOTER_MASK & 0xFF;
+    }
+
+    private static int readShort(byte[] src, int offset) {
+        return (src[offset] << 8) | (src[offset + 1] & 0xFF);
+    }
+
+    private static int readUnsignedShort(byte[] src, int offset) {
+        return ((src[offset] & 0xFF) << 8) | (src[offset + 1] & 0xFF);
+    }
+
+    private static long readUnsignedInt(byte[] src, int offset) {
+        return ((long)readUnsignedShort(src, offset) << 16) | readUnsignedShort(src, offset + 2);
+    }
+
+    // writes what the aux bytes of the packet carry to the BiosignalSensorData.AUX_VALUES values of dst from dstOffset,
+    // and leaves the values it does not carry as they are, so they hold their latest readings.
+    // returns the board time in milliseconds, or BiosignalSensorData.NO_BOARD_TIME if the packet has none.
+    public long decodeAux(byte[] src, int offset, float[] dst, int dstOffset) {
+        int in = offset + AUX_DATA_OFFSET;
+        switch (packetType(src, offset)) {
+            case PACKET_STANDARD_ACCEL: {
+                int x = readShort(src, in);
+                int y = readShort(src, in + 2);
+                int z = readShort(src, in + 4);
+                if ((x | y | z) != 0) {
+                    dst[dstOffset + BiosignalSensorData.AUX_ACCEL_X] = x * ACCEL_SCALE_FACTOR;
+                    dst[dstOffset + BiosignalSensorData.AUX_ACCEL_Y] = y * ACCEL_SCALE_FACTOR;
+                    dst[dstOffset + BiosignalSensorData.AUX_ACCEL_Z] = z * ACCEL_SCALE_FACTOR;
+                }
+                return BiosignalSensorData.NO_BOARD_TIME;
+            }
+            case PACKET_STANDARD_RAW_AUX:
+                for (int i = 0; i < 3; i++) {
+                    dst[dstOffset + BiosignalSensorData.AUX_RAW + i] = readUnsignedShort(src, in + i * 2);
+                }
+                return BiosignalSensorData.NO_BOARD_TIME;
+            case PACKET_TIME_SYNC_SET_ACCEL:
+            case PACKET_TIME_SYNCED_ACCEL: {
+                int axis = sampleNumber(src, offset) % 10 - ACCEL_AXIS_X_SAMPLE_NUMBER;
+                if (axis >= 0) {
+                    dst[dstOffset + BiosignalSensorData.AUX_ACCEL_X + axis] = readShort(src, in) * ACCEL_SCALE_FACTOR;
+                }
+                return readUnsignedInt(src, offset + BOARD_TIME_OFFSET);
+            }
+            case PACKET_TIME_SYNC_SET_RAW_AUX:
+            case PACKET_TIME_SYNCED_RAW_AUX:
+                dst[dstOffset + BiosignalSensorData.AUX_RAW] = readUnsignedShort(src, in);
+                return readUnsignedInt(src, offset + BOARD_TIME_OFFSET);
+            default:
+                // nothing known in user defined and impedance packets
+                return BiosignalSensorData.NO_BOARD_TIME;
+        }
+    }
+
+    // writes CHANNELS values in microvolts to dst from dstOffset, and returns the sample number of the packet.
+    // the packet must have been validated with isValidPacket().
+    public int decode(byte[] src, int offset, float[] dst, int dstOffset) {
+        int in = offset + CHANNEL_DATA_OFFSET;
+        for (int i = 0; i < CHANNELS; i++, in += 3) {
+            // place the 24-bit big-endian value in the top of an int and shift back to sign-extend without branching
+            int value = ((src[in] << 24) | ((src[in + 1] & 0xFF) << 16) | ((src[in + 2] & 0xFF) << 8)) >> 8;
+            dst[dstOffset + i] = value * _scaleFactors[i];
+        }
+        return sampleNumber(src, offset);
+    }
+}
@@ -0,0 +1,88 @@
+package kr.co.clicked.sensordeviceplugin;
+
+// the decode-and-frame pipeline of a Cyton board, driven by a replay instead of the board,
+// so that it runs and can be measured on any JVM without usb hardware.
+// the samples are stamped with the times their chunks were received, so a replay gives the same frames at any speed.
+public class CytonReplayPipeline {
+    private static final int READ_SIZE = 1024;
+    private static final int READ_TIMEOUT = 1;
+
+    public CytonReplayPipeline(ReplaySerialTransport transport, MotionDataRing output, int receiveBufferSize) {
+        super();
+
+        _transport = transport;
+        _output = output;
+        _recvBuffer = new ByteRing(receiveBufferSize);
+        _readBuffer = new byte[READ_SIZE];
+        _parser = new CytonStreamParser(CytonStreamParser.DEFAULT_SAMPLE_RING_DEPTH);
+        _sample = new BiosignalSensorData();
+    }
+
+    private ReplaySerialTransport _transport;
+    private MotionDataRing _output;
+    private ByteRing _recvBuffer;
+    private byte[] _readBuffer;
+    private CytonStreamParser _parser;
+    private BiosignalSensorData _sample;
+    private byte _sampleNumber;
+    private long _frameCount;
+    private long _droppedFrameCount;
+
+    public CytonStreamParser getParser() { return _parser; }
+
+    public long getFrameCount() { return _frameCount; }
+
+    // frames lost as the pool of MotionData was exhausted or the output was full
+    public long getDroppedFrameCount() { return _droppedFrameCount; }
+
+    // with reset, the stream must start with the answer of the board to a reset at the end of a chunk,
+    // as a session recorded from open() does. otherwise the pipeline syncs to the first valid packet.
+    public void open(boolean reset) {
+        _recvBuffer.clear();
+        if (reset) {
+            _parser.start(_transport, _transport.getTime());
+        }
+        else {
+            _parser.resume(_transport);
+        }
+    }
+
+    // reads the next chunk, and frames every sample decoded from it. returns false at the end of the stream.
+    public boolean step() {
+        int read = _transport.syncRead(_readBuffer, 0, READ_TIMEOUT);
+        if (read < 0) {
+            return false;
+        }
+        if (read > 0) {
+            _recvBuffer.write(_readBuffer, 0, read);
+            while (_parser.parse(_transport, _recvBuffer, _transport.getTime()) == false) {
+                // just repeat until all received data parsed
+            }
+        }
+
+        while (_parser.pollValue(_sample)) {
+            MotionData motionData = MotionData.create(_sampleNumber, MotionData.toFlicks(_sample.getTimestamp()), _sample, null);
+            if (motionData == null) {
+                _droppedFrameCount++;
+                continue;
+            }
+
+            if (_output.offer(motionData)) {
+                _frameCount++;
+            }
+            else {
+                MotionData.dispose(motionData);
+                _droppedFrameCount++;
+            }
+            _sampleNumber++;
+        }
+        return true;
+    }
+
+    // until the end of the stream
+    public void run() {
+        while (step()) {
+            // next chunk
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.Arrays;
+
+// the protocol of an OpenBCI Cyton stream, apart from the transport it arrives through.
+// resets the board, starts the stream, and decodes its packets into a ring of samples, resynchronizing on corrupted packets.
+// a board with a Daisy, as its reset response tells, interleaves the packets of both boards, which are paired into
+// samples of 16 channels.
+// with aux data enabled, the aux bytes are decoded into the samples as well, and the board stamps its packets with its clock.
+// the samples are timed by their counter at the nominal rate, instead of by the chunk they arrived in.
+public class CytonStreamParser {
+    private static final int CYTON_PACKET_SIZE = CytonPacketDecoder.PACKET_SIZE;
+    private static final byte CYTON_COMMAND_RESET = 'v';
+    private static final byte CYTON_COMMAND_START = 'b';
+    private static final byte CYTON_COMMAND_STOP = 's';
+    private static final byte CYTON_COMMAND_TIME_SYNC = '<';
+    private static final int CYTON_SAMPLE_NUMBER_MODULO = 256;
+    private static final int DAISY_SAMPLE_NUMBER_MODULO = CYTON_SAMPLE_NUMBER_MODULO / 2;
+    private static final int DAISY_CHANNELS = CytonPacketDecoder.CHANNELS * 2;
+    private static final byte[] DAISY_RESET_RESPONSE = { 'D', 'a', 'i', 's', 'y' };    // in "On Daisy ADS1299 Device ID: ..."
+    private static final long CYTON_SAMPLE_PERIOD_NANOS = 1000 * 1000 * 1000 / 250;
+    private static final long RESET_RETRY_NANOS = 1000 * 1000 * 1000;
+    private static final int COMMAND_TIMEOUT = 1;
+
+    public static final int DEFAULT_SAMPLE_RING_DEPTH = 256;
+
+    private enum State {
+        Resetting,
+        Normal,
+        Dropping
+    }
+
+    public CytonStreamParser(int sampleRingDepth) {
+        super();
+
+        _commandBuffer = new byte[1];
+        _lastPolledData = new BiosignalSensorData();
+        _decoder = new CytonPacketDecoder();
+        _decodedValues = new float[DAISY_CHANNELS];
+        _auxValues = new float[BiosignalSensorData.AUX_VALUES];
+        _boardTime = BiosignalSensorData.NO_BOARD_TIME;
+        _packetBuffer = new byte[CYTON_PACKET_SIZE];
+        _samples = new BiosignalSampleRing(sampleRingDepth, DAISY_CHANNELS, CYTON_SAMPLE_NUMBER_MODULO);
+        _sampleClock = new SampleClock(CYTON_SAMPLE_NUMBER_MODULO, CYTON_SAMPLE_PERIOD_NANOS);
+
+        _packetCount = new MetricsRegistry.Counter();
+        _invalidPacketCount = new MetricsRegistry.Counter();
+        _resyncCount = new MetricsRegistry.Counter();
+        _skippedByteCount = new MetricsRegistry.Counter();
+        _unpairedPacketCount = new MetricsRegistry.Counter();
+    }
+
+    private State _state;
+    private long _resetTime;
+    private byte[] _commandBuffer;
+    private BiosignalSensorData _lastPolledData;
+    private CytonPacketDecoder _decoder;
+    private float[] _decodedValues;
+    private boolean _auxEnabled;
+    private float[] _auxValues;             // the latest of each, as a packet may carry some of them only
+    private int _auxType;
+    private long _boardTime;                // of the sample being decoded
+    private byte[] _packetBuffer;
+    private BiosignalSampleRing _samples;
+    private volatile boolean _daisy;
+    private int _daisyResponseMatched;      // bytes of DAISY_RESET_RESPONSE matched so far
+    private boolean _daisyPacketPending;    // the first packet of a pair is decoded, and waits for the second
+    private int _daisyPacketSampleNumber;
+    private SampleClock _sampleClock;
+
+    private MetricsRegistry.Counter _packetCount;
+    private MetricsRegistry.Counter _invalidPacketCount;   // a wrong header or footer where a packet should start
+    private MetricsRegistry.Counter _resyncCount;
+    private MetricsRegistry.Counter _skippedByteCount;     // while resynchronizing
+    private MetricsRegistry.Counter _unpairedPacketCount;  // with a Daisy, packets whose other half was lost
+
+    private void sendCommand(ISerialTransport transport, byte command) {
+        _commandBuffer[0] = command;
+        transport.syncWrite(_commandBuffer, COMMAND_TIMEOUT);
+    }
+
+    private boolean nextPacketValid(ByteRing data) {
+        return CytonPacketDecoder.isValidPacket(data.get(0), data.get(CYTON_PACKET_SIZE - 1));
+    }
+
+    private boolean endsWithResetResponse(ByteRing data) {
+        int end = data.available();
+        return end >= 3 && data.get(end - 3) == '$' && data.get(end - 2) == '$' && data.get(end - 1) == '$';
+    }
+
+    private void scanResetResponse(ByteRing data, int count) {
+        for (int i = 0; i < count && _daisyResponseMatched < DAISY_RESET_RESPONSE.length; i++) {
+            byte value = data.get(i);
+            if (value == DAISY_RESET_RESPONSE[_daisyResponseMatched]) {
+                _daisyResponseMatched++;
+            }
+            else {
+                _daisyResponseMatched = value == DAISY_RESET_RESPONSE[0] ? 1 : 0;
+            }
+        }
+    }
+
+    private void startStream(ISerialTransport transport) {
+        _daisyPacketPending = false;
+        _samples.resetSampleCounter(_daisy ? DAISY_SAMPLE_NUMBER_MODULO : CYTON_SAMPLE_NUMBER_MODULO);
+        Arrays.fill(_auxValues, 0);
+        _auxType = _auxEnabled ? CytonPacketDecoder.PACKET_STANDARD_ACCEL : BiosignalSensorData.NO_AUX;
+        _boardTime = BiosignalSensorData.NO_BOARD_TIME;
+        if (_daisy) {
+            _sampleClock.reset(DAISY_SAMPLE_NUMBER_MODULO, CYTON_SAMPLE_PERIOD_NANOS * 2);
+        }
+        else {
+            _sampleClock.reset(CYTON_SAMPLE_NUMBER_MODULO, CYTON_SAMPLE_PERIOD_NANOS);
+        }
+
+        sendCommand(transport, CYTON_COMMAND_START);
+        if (_auxEnabled) {
+            sendCommand(transport, CYTON_COMMAND_TIME_SYNC);
+        }
+    }
+
+    private int decodeNextPacket(ByteRing data, int dstOffset) {
+        byte[] src = _packetBuffer;
+        int offset = 0;
+        if (data.isContiguous(0, CYTON_PACKET_SIZE)) {
+            src = data.array();
+            offset = data.arrayOffset(0);
+        }
+        else {
+            // the packet wraps around the end of the ring
+            data.copy(0, _packetBuffer, 0, CYTON_PACKET_SIZE);
+        }
+
+        if (_auxEnabled) {
+            long boardTime = _decoder.decodeAux(src, offset, _auxValues, 0);
+            if (boardTime != BiosignalSensorData.NO_BOARD_TIME) {
+                _boardTime = boardTime;
+            }
+            _auxType = CytonPacketDecoder.packetType(src, offset);
+        }
+        return _decoder.decode(src, offset, _decodedValues, dstOffset);
+    }
+
+    private void putSample(int channelCount, int sampleNumber, long arrival) {
+        long timestamp = _sampleClock.sampleTime(sampleNumber, arrival);
+        _lastPolledData.setData(_decodedValues, 0, channelCount);
+        _lastPolledData.setAuxData(_auxValues, 0);
+        _lastPolledData.setAuxType(_auxType);
+        _lastPolledData.setBoardTime(_boardTime);
+        _lastPolledData.setSampleNumber(sampleNumber);
+        _lastPolledData.setTimestamp(timestamp);
+        _samples.put(_decodedValues, 0, channelCount, _auxValues, 0, _auxType, _boardTime, sampleNumber, timestamp);
+        _boardTime = BiosignalSensorData.NO_BOARD_TIME;
+    }
+
+    // the Daisy sends its channels in the packets of even sample numbers, and the board its own in the odd packets
+    // following them. a sample is put once both arrived, numbered by the pair, so the ring counts lost pairs.
+    private void decodeNextDaisyPacket(ByteRing data, long now) {
+        int sampleNumber = data.get(CytonPacketDecoder.SAMPLE_NUMBER_OFFSET) & 0xFF;
+        if ((sampleNumber & 1) == 0) {
+            if (_daisyPacketPending) {
+                // the board packet of the previous pair was lost
+                _unpairedPacketCount.increment();
+            }
+            decodeNextPacket(data, CytonPacketDecoder.CHANNELS);
+            _daisyPacketPending = true;
+            _daisyPacketSampleNumber = sampleNumber;
+        }
+        else if (_daisyPacketPending && sampleNumber == _daisyPacketSampleNumber + 1) {
+            decodeNextPacket(data, 0);
+            _daisyPacketPending = false;
+            putSample(DAISY_CHANNELS, sampleNumber / 2, now);
+        }
+        else {
+            // the Daisy packet of this pair was lost
+            _daisyPacketPending = false;
+            _unpairedPacketCount.increment();
+        }
+    }
+
+    // resets the board. the stream starts once it answers. now is in System.nanoTime(), or the clock of a replay.
+    public void start(ISerialTransport transport, long now) {
+        _state = State.Resetting;
+        _resetTime = now;
+        _daisy = false;
+        _daisyResponseMatched = 0;
+        sendCommand(transport, CYTON_COMMAND_RESET);
+    }
+
+    // the board streams already, e.g. when a replay joins a session in the middle. syncs to the next valid packet.
+    // without the reset response, the packets are paired only if setDaisy() said so.
+    public void resume(ISerialTransport transport) {
+        _state = State.Dropping;
+        startStream(transport);
+    }
+
+    public void stop(ISerialTransport transport) {
+        sendCommand(transport, CYTON_COMMAND_STOP);
+    }
+
+    // consumes what it has parsed from data, and returns false to be called again with the rest.
+    // the samples decoded arrived at now, which bounds the times their counter gives them.
+    public boolean parse(ISerialTransport transport, ByteRing data, long now) {
+        if (_state == State.Resetting) {
+            if (endsWithResetResponse(data)) {
+                // TODO parse to check if OpenBCI board is turned on.
+                scanResetResponse(data, data.available());
+                data.skip(data.available());
+
+                _state = State.Normal;
+                _daisy = _daisyResponseMatched == DAISY_RESET_RESPONSE.length;
+                startStream(transport);
+            }
+            else {
+                // keep the tail only, which may be the beginning of "$$$", and scan it with the next chunk
+                int skipped = Math.max(0, data.available() - 2);
+                scanResetResponse(data, skipped);
+                data.skip(skipped);
+
+                if (now - _resetTime > RESET_RETRY_NANOS) {
+                    _resetTime = now;
+                    sendCommand(transport, CYTON_COMMAND_RESET);
+                }
+            }
+        }
+        else if (_state == State.Normal) {
+            int parsed = 0;
+            while (data.available() >= CYTON_PACKET_SIZE) {
+                if (nextPacketValid(data) == false) {
+                    _packetCount.add(parsed);
+                    _invalidPacketCount.increment();
+                    _resyncCount.increment();
+                    _state = State.Dropping;
+                    return false;
+                }
+                if (_daisy) {
+                    decodeNextDaisyPacket(data, now);
+                }
+                else {
+                    putSample(CytonPacketDecoder.CHANNELS, decodeNextPacket(data, 0), now);
+                }
+
+                data.skip(CYTON_PACKET_SIZE);
+                parsed++;
+            }
+            _packetCount.add(parsed);
+        }
+        else if (_state == State.Dropping) {
+            int skipped = 0;
+            while (data.available() >= CYTON_PACKET_SIZE) {
+                if (nextPacketValid(data)) {
+                    _skippedByteCount.add(skipped);
+                    _state = State.Normal;
+                    return false;
+                }
+                data.skip(1);
+                skipped++;
+            }
+            _skippedByteCount.add(skipped);
+        }
+        return true;
+    }
+
+    // packets, invalidPackets, resyncs, skippedBytes and unpairedPackets, after prefix
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.register(prefix + "packets", _packetCount);
+        registry.register(prefix + "invalidPackets", _invalidPacketCount);
+        registry.register(prefix + "resyncs", _resyncCount);
+        registry.register(prefix + "skippedBytes", _skippedByteCount);
+        registry.register(prefix + "unpairedPackets", _unpairedPacketCount);
+    }
+
+    // decodes the accelerometer, the other aux data and the board time into the samples, see BiosignalSensorData.
+    // before start() or resume(), which then start the board time as well.
+    public void setAuxEnabled(boolean enabled) { _auxEnabled = enabled; }
+
+    // if the packets are paired into samples of a Daisy. found from the reset response by start().
+    public boolean isDaisy() { return _daisy; }
+
+    // for a stream joined with resume(), before it
+    public void setDaisy(boolean daisy) { _daisy = daisy; }
+
+    // of the samples, once the stream started
+    public int getChannelCount() {
+        return _daisy ? DAISY_CHANNELS : CytonPacketDecoder.CHANNELS;
+    }
+
+    public BiosignalSensorData getCurrentValue() {
+        return _lastPolledData;
+    }
+
+    // takes the oldest sample not polled yet, in the order of arrival
+    public boolean pollValue(BiosignalSensorData value) {
+        return _samples.poll(value);
+    }
+
+    public long getDroppedSampleCount() { return _samples.getDroppedCount(); }
+
+    public long getLostSampleCount() { return _samples.getLostCount(); }
+}
@@ -0,0 +1,25 @@
+package kr.co.clicked.sensordeviceplugin;
+
+// keeps the times of a stream of frames from running backwards when they come from more than one clock.
+// in the All mode of the sampler, a frame of a biosignal sample is stamped at its sample time, and a frame of a tick
+// without one at the deadline of the tick, which may be later than the samples polled on the next tick.
+public class FrameTimeline {
+    public FrameTimeline() {
+        clear();
+    }
+
+    private long _lastTime;
+
+    // the time to stamp a frame of time with, which is no earlier than the frame stamped before it
+    public long stamp(long time) {
+        if (time < _lastTime) {
+            time = _lastTime;
+        }
+        _lastTime = time;
+        return time;
+    }
+
+    public void clear() {
+        _lastTime = Long.MIN_VALUE;
+    }
+}
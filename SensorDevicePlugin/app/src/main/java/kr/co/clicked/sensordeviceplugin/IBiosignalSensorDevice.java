@@ -2,4 +2,13 @@ package kr.co.clicked.sensordeviceplugin;
 
 public interface IBiosignalSensorDevice extends ISensorDevice {
     BiosignalSensorData getCurrentValue();
+
+    // takes the oldest sample not polled yet, in the order of arrival
+    boolean pollValue(BiosignalSensorData value);
+
+    // of the samples, which may change when the device is opened again
+    int getChannelCount();
+
+    long getDroppedSampleCount();
+    long getLostSampleCount();
 }
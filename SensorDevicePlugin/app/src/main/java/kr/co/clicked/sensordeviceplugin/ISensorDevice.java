@@ -6,5 +6,12 @@ public interface ISensorDevice {
     void update();
     void close();
 
-    void updateDeviceStatus();
+    // usbDevices are the devices attached now
+    void updateDeviceStatus(UsbDeviceTable usbDevices);
+
+    // what the device receives goes to the recorder too, until set to null
+    void setSessionRecorder(SessionRecorder recorder);
+
+    // registers the metrics the device keeps, named after its class
+    void registerMetrics(MetricsRegistry registry);
 }
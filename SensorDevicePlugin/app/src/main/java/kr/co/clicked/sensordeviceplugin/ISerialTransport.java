@@ -0,0 +1,10 @@
+package kr.co.clicked.sensordeviceplugin;
+
+// the synchronous i/o of a serial device as the parsers use it, with the contract of UsbSerialDevice.
+// timeouts are in milliseconds, and a negative count means the transport failed or ended.
+public interface ISerialTransport {
+    int syncWrite(byte[] buffer, int timeout);
+
+    // reads into buffer from offset up to its end
+    int syncRead(byte[] buffer, int offset, int timeout);
+}
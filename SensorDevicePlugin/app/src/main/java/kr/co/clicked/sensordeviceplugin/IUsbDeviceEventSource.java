@@ -0,0 +1,16 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.hardware.usb.UsbDevice;
+
+// tells when usb devices are attached and detached, on a thread of its own
+public interface IUsbDeviceEventSource {
+    interface Listener {
+        // name is unique among the attached devices. device is null when the source has none, as a fake source.
+        void onUsbDeviceAttached(String name, int vendorId, int productId, UsbDevice device);
+        void onUsbDeviceDetached(String name);
+    }
+
+    // reports the devices attached already before any event
+    void start(Listener listener);
+    void stop();
+}
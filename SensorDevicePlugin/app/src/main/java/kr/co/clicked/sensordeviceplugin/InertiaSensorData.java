@@ -6,58 +6,277 @@ import org.joml.Vector3f;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// written by one sensor thread and read by one sampler thread, without blocking either.
+// the writer publishes whole frames through a triple buffer, and the reader copies from the snapshot it took last,
+// so a copied frame never mixes values of two publishes.
+// every field keeps its last two readings with their timestamps, so the reader can resample the frame
+// at the exact time of a sample instead of fusing readings of different ages.
 public class InertiaSensorData {
     public static final int SIZE = 13 * 4;
 
+    // fields, to query the time of their last update
+    public static final int ACCELERATION = 0;
+    public static final int ANGULAR_VELOCITIES = 1;
+    public static final int MAGNETIC_FIELD = 2;
+    public static final int ORIENTATION = 3;
+    public static final int FIELDS = 4;
+
+    // indices of the first value of the fields, in floats
+    public static final int ACCELERATION_INDEX = 0;
+    public static final int ANGULAR_VELOCITIES_INDEX = 3;
+    public static final int MAGNETIC_FIELD_INDEX = 6;
+    public static final int ORIENTATION_INDEX = 9;
+
+    private static final int[] FIELD_OFFSETS = { 0, 3 * 4, 6 * 4, 9 * 4 };
+    private static final int[] FIELD_SIZES = { 3, 3, 3, 4 };
+
+    // above this cosine of the angle between two orientations, slerp falls back to a normalized lerp
+    private static final float SLERP_THRESHOLD = 0.9995f;
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private static class Frame {
+        public Frame() {
+            data = ByteBuffer.allocate(SIZE);
+            data.order(ByteOrder.BIG_ENDIAN);
+            previousData = ByteBuffer.allocate(SIZE);
+            previousData.order(ByteOrder.BIG_ENDIAN);
+            updateTimes = new long[FIELDS];
+            previousUpdateTimes = new long[FIELDS];
+        }
+
+        public ByteBuffer data;
+        public ByteBuffer previousData;
+        public long[] updateTimes;
+        public long[] previousUpdateTimes;
+
+        public void copyFrom(Frame src) {
+            System.arraycopy(src.data.array(), 0, data.array(), 0, SIZE);
+            System.arraycopy(src.previousData.array(), 0, previousData.array(), 0, SIZE);
+            System.arraycopy(src.updateTimes, 0, updateTimes, 0, FIELDS);
+            System.arraycopy(src.previousUpdateTimes, 0, previousUpdateTimes, 0, FIELDS);
+        }
+    }
+
     public InertiaSensorData() {
-        _data = ByteBuffer.allocate(SIZE);
-        _data.order(ByteOrder.BIG_ENDIAN);
+        _working = new Frame();
+        _frames = new Frame[] { new Frame(), new Frame(), new Frame() };
+        _back = 0;
+        _middle = new AtomicInteger(1);
+        _front = 2;
+        _output = ByteBuffer.allocate(SIZE);
+        _output.order(ByteOrder.BIG_ENDIAN);
     }
 
-    private ByteBuffer _data;
+    private Frame _working;         // writer only, the latest values of all fields
+    private Frame[] _frames;
+    private int _back;              // writer only
+    private AtomicInteger _middle;  // the latest published frame, with FRESH set until the reader takes it
+    private int _front;             // reader only
+    private ByteBuffer _output;     // reader only, the current snapshot or its resampled values
+
+    // reader side. takes the latest published frame as the current snapshot, and returns false if nothing was published since.
+    public boolean snapshot() {
+        if ((_middle.get() & FRESH) == 0) {
+            return false;
+        }
+
+        _front = _middle.getAndSet(_front) & INDEX_MASK;
+        System.arraycopy(_frames[_front].data.array(), 0, _output.array(), 0, SIZE);
+        return true;
+    }
 
-    public byte[] getData() { return _data.array(); }
+    // reader side. the current snapshot as is, or as resampled last. stable until the next snapshot() or resample().
+    public byte[] getData() { return _output.array(); }
 
-    private void setValue(Quaternionf value, int offset) {
-        synchronized (this) {
-            _data.position(offset);
-            _data.putFloat(value.x);
-            _data.putFloat(value.y);
-            _data.putFloat(value.z);
-            _data.putFloat(value.w);
+    public void copyTo(ByteBuffer dst) {
+        dst.put(_output.array(), 0, SIZE);
+    }
+
+    // reader side. a value of the current snapshot as copied by copyTo(), e.g. to post-process it
+    public float getOutputValue(int index) {
+        return _output.getFloat(index * 4);
+    }
+
+    public void setOutputValue(int index, float value) {
+        _output.putFloat(index * 4, value);
+    }
+
+    // reader side. System.nanoTime() of the last reading of the field in the current snapshot, 0 if never updated.
+    public long getUpdateTime(int field) {
+        return _frames[_front].updateTimes[field];
+    }
+
+    // reader side. interpolates every field of the current snapshot at sampleTime, in System.nanoTime().
+    // orientations are slerped. a time out of the last two readings of a field takes the nearer one.
+    public void resample(long sampleTime) {
+        Frame frame = _frames[_front];
+        for (int field = 0; field < FIELDS; field++) {
+            long time0 = frame.previousUpdateTimes[field];
+            long time1 = frame.updateTimes[field];
+            int offset = FIELD_OFFSETS[field];
+
+            if (time0 == 0 || sampleTime >= time1) {
+                copyField(frame.data, offset, FIELD_SIZES[field]);
+            }
+            else if (sampleTime <= time0) {
+                copyField(frame.previousData, offset, FIELD_SIZES[field]);
+            }
+            else {
+                float alpha = (float)(sampleTime - time0) / (time1 - time0);
+                if (field == ORIENTATION) {
+                    slerp(frame.previousData, frame.data, offset, alpha);
+                }
+                else {
+                    lerp(frame.previousData, frame.data, offset, FIELD_SIZES[field], alpha);
+                }
+            }
         }
     }
 
-    private void setValue(Vector3f value, int offset) {
-        synchronized (this) {
-            _data.position(offset);
-            _data.putFloat(value.x);
-            _data.putFloat(value.y);
-            _data.putFloat(value.z);
+    private void copyField(ByteBuffer src, int offset, int count) {
+        System.arraycopy(src.array(), offset, _output.array(), offset, count * 4);
+    }
+
+    private void lerp(ByteBuffer from, ByteBuffer to, int offset, int count, float alpha) {
+        for (int i = offset; i < offset + count * 4; i += 4) {
+            float value = from.getFloat(i);
+            _output.putFloat(i, value + (to.getFloat(i) - value) * alpha);
         }
     }
 
-    public void setAcceleration(Vector3f value) {  setValue(value, 0); }
+    private void slerp(ByteBuffer from, ByteBuffer to, int offset, float alpha) {
+        float x0 = from.getFloat(offset), y0 = from.getFloat(offset + 4), z0 = from.getFloat(offset + 8), w0 = from.getFloat(offset + 12);
+        float x1 = to.getFloat(offset), y1 = to.getFloat(offset + 4), z1 = to.getFloat(offset + 8), w1 = to.getFloat(offset + 12);
+
+        // take the shorter arc
+        float cos = x0 * x1 + y0 * y1 + z0 * z1 + w0 * w1;
+        float sign = 1;
+        if (cos < 0) {
+            cos = -cos;
+            sign = -1;
+        }
+
+        float scale0 = 1 - alpha;
+        float scale1 = alpha;
+        if (cos < SLERP_THRESHOLD) {
+            double angle = Math.acos(cos);
+            double sin = Math.sin(angle);
+            scale0 = (float)(Math.sin(scale0 * angle) / sin);
+            scale1 = (float)(Math.sin(scale1 * angle) / sin);
+        }
+        scale1 *= sign;
+
+        float x = scale0 * x0 + scale1 * x1;
+        float y = scale0 * y0 + scale1 * y1;
+        float z = scale0 * z0 + scale1 * z1;
+        float w = scale0 * w0 + scale1 * w1;
+        float inverseLength = (float)(1 / Math.sqrt(x * x + y * y + z * z + w * w));
+
+        _output.putFloat(offset, x * inverseLength);
+        _output.putFloat(offset + 4, y * inverseLength);
+        _output.putFloat(offset + 8, z * inverseLength);
+        _output.putFloat(offset + 12, w * inverseLength);
+    }
+
+    // writer side
+    private void publish() {
+        Frame back = _frames[_back];
+        back.copyFrom(_working);
+        _back = _middle.getAndSet(_back | FRESH) & INDEX_MASK;
+    }
+
+    // keeps the current reading of the field as the previous one
+    private void shiftField(int field, long updateTime) {
+        if (_working.updateTimes[field] != updateTime) {
+            int offset = FIELD_OFFSETS[field];
+            System.arraycopy(_working.data.array(), offset, _working.previousData.array(), offset, FIELD_SIZES[field] * 4);
+            _working.previousUpdateTimes[field] = _working.updateTimes[field];
+        }
+    }
+
+    private void setValue(float x, float y, float z, float w, int field, long updateTime) {
+        shiftField(field, updateTime);
+
+        ByteBuffer data = _working.data;
+        int offset = FIELD_OFFSETS[field];
+        data.putFloat(offset, x);
+        data.putFloat(offset + 4, y);
+        data.putFloat(offset + 8, z);
+        data.putFloat(offset + 12, w);
+        _working.updateTimes[field] = updateTime;
+        publish();
+    }
+
+    private void setValue(float x, float y, float z, int field, long updateTime) {
+        shiftField(field, updateTime);
+
+        ByteBuffer data = _working.data;
+        int offset = FIELD_OFFSETS[field];
+        data.putFloat(offset, x);
+        data.putFloat(offset + 4, y);
+        data.putFloat(offset + 8, z);
+        _working.updateTimes[field] = updateTime;
+        publish();
+    }
+
+    public void setAcceleration(Vector3f value) {  setAcceleration(value.x, value.y, value.z); }
+
+    public void setAcceleration(float x, float y, float z) {
+        setAcceleration(x, y, z, System.nanoTime());
+    }
+
+    // timestamp is when the reading was taken, in System.nanoTime()
+    public void setAcceleration(float x, float y, float z, long timestamp) {
+        setValue(x, y, z, ACCELERATION, timestamp);
+    }
 
     public void setAngularVelocities(Vector3f value) {
-        setValue(value, 3 * 4);
+        setAngularVelocities(value.x, value.y, value.z);
+    }
+
+    public void setAngularVelocities(float x, float y, float z) {
+        setAngularVelocities(x, y, z, System.nanoTime());
+    }
+
+    public void setAngularVelocities(float x, float y, float z, long timestamp) {
+        setValue(x, y, z, ANGULAR_VELOCITIES, timestamp);
     }
 
     public void setMagneticField(Vector3f value) {
-        setValue(value, 6 * 4);
+        setMagneticField(value.x, value.y, value.z);
+    }
+
+    public void setMagneticField(float x, float y, float z) {
+        setMagneticField(x, y, z, System.nanoTime());
+    }
+
+    public void setMagneticField(float x, float y, float z, long timestamp) {
+        setValue(x, y, z, MAGNETIC_FIELD, timestamp);
     }
 
     public void setOrientation(Quaternionf value) {
-        setValue(value, 9 * 4);
+        setOrientation(value.x, value.y, value.z, value.w);
+    }
+
+    public void setOrientation(float x, float y, float z, float w) {
+        setOrientation(x, y, z, w, System.nanoTime());
+    }
+
+    public void setOrientation(float x, float y, float z, float w, long timestamp) {
+        setValue(x, y, z, w, ORIENTATION, timestamp);
     }
 
     @Override
     public String toString() {
+        ByteBuffer data = _frames[_front].data;
         return String.format("Acc:%f %f %f, Gyro:%f %f %f, Mag:%f %f %f, Rot:%f %f %f %f",
-                _data.getFloat(0 * 4), _data.getFloat(1 * 4), _data.getFloat(2 * 4),
-                _data.getFloat(3 * 4), _data.getFloat(4 * 4), _data.getFloat(5 * 4),
-                _data.getFloat(6 * 4), _data.getFloat(7 * 4), _data.getFloat(8 * 4),
-                _data.getFloat(9 * 4), _data.getFloat(10 * 4), _data.getFloat(11 * 4), _data.getFloat(12 * 4));
+                data.getFloat(0 * 4), data.getFloat(1 * 4), data.getFloat(2 * 4),
+                data.getFloat(3 * 4), data.getFloat(4 * 4), data.getFloat(5 * 4),
+                data.getFloat(6 * 4), data.getFloat(7 * 4), data.getFloat(8 * 4),
+                data.getFloat(9 * 4), data.getFloat(10 * 4), data.getFloat(11 * 4), data.getFloat(12 * 4));
     }
 }
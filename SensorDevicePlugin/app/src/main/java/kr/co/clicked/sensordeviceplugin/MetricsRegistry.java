@@ -0,0 +1,257 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// named counters, gauges and histograms, updated from any thread without locks and read at any time.
+// the owner of a metric keeps it and updates it directly, so the registry is only looked up to register, query or export.
+public class MetricsRegistry {
+    public static class Counter {
+        public Counter() {
+            _value = new AtomicLong();
+        }
+
+        private AtomicLong _value;
+
+        public void increment() { _value.incrementAndGet(); }
+
+        public void add(long delta) { _value.addAndGet(delta); }
+
+        public long get() { return _value.get(); }
+
+        public void reset() { _value.set(0); }
+    }
+
+    // a value set by its owner, or read from a source when it is queried
+    public static class Gauge {
+        public interface Source {
+            long value();
+        }
+
+        public Gauge() {
+            this(null);
+        }
+
+        public Gauge(Source source) {
+            _source = source;
+        }
+
+        private Source _source;
+        private volatile long _value;
+
+        public void set(long value) { _value = value; }
+
+        public long get() {
+            return _source != null ? _source.value() : _value;
+        }
+    }
+
+    // log-linear buckets as in HdrHistogram. every power of two is split into 16 sub-buckets, so a value is
+    // known within 1/16 of itself, and a fixed array covers every non-negative long.
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+        // the first 32 values have a bucket each, and every higher bit of the 63 of a value adds 16
+        public static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + (1 << SUB_BUCKET_BITS);
+
+        static int bucketOf(long value) {
+            int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+            return magnitude * SUB_BUCKET_HALF + (int)(value >>> magnitude);
+        }
+
+        // the largest value counted in the bucket
+        static long highestValueOf(int bucket) {
+            int magnitude = Math.max(0, bucket / SUB_BUCKET_HALF - 1);
+            long lowest = (long)(bucket - magnitude * SUB_BUCKET_HALF) << magnitude;
+            return lowest + (1L << magnitude) - 1;
+        }
+
+        public Histogram() {
+            _counts = new AtomicLongArray(BUCKETS);
+            _count = new AtomicLong();
+            _sum = new AtomicLong();
+            _max = new AtomicLong();
+        }
+
+        private AtomicLongArray _counts;
+        private AtomicLong _count;
+        private AtomicLong _sum;
+        private AtomicLong _max;
+
+        // negative values count as 0
+        public void record(long value) {
+            value = Math.max(0, value);
+            _counts.incrementAndGet(bucketOf(value));
+            _count.incrementAndGet();
+            _sum.addAndGet(value);
+
+            long max = _max.get();
+            while (value > max && _max.compareAndSet(max, value) == false) {
+                max = _max.get();
+            }
+        }
+
+        public long getCount() { return _count.get(); }
+
+        public long getMax() { return _max.get(); }
+
+        public double getMean() {
+            long count = _count.get();
+            return count > 0 ? (double)_sum.get() / count : 0;
+        }
+
+        // the value below which percentile % of the recorded values fall, 0 if nothing was recorded
+        public long getValueAtPercentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += _counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long target = Math.max(1, (long)Math.ceil(Math.min(100, percentile) / 100 * total));
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += _counts.get(i);
+                if (count >= target) {
+                    return Math.min(highestValueOf(i), _max.get());
+                }
+            }
+            return _max.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                _counts.set(i, 0);
+            }
+            _count.set(0);
+            _sum.set(0);
+            _max.set(0);
+        }
+    }
+
+    private static final double[] SNAPSHOT_PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] SNAPSHOT_PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    public MetricsRegistry() {
+        super();
+
+        _metrics = new ConcurrentHashMap<>();
+    }
+
+    private ConcurrentHashMap<String, Object> _metrics;
+
+    // registers a metric owned by someone else under name, replacing what was there
+    public void register(String name, Counter counter) { _metrics.put(name, counter); }
+
+    public void register(String name, Gauge gauge) { _metrics.put(name, gauge); }
+
+    public void register(String name, Histogram histogram) { _metrics.put(name, histogram); }
+
+    public void unregister(String name) { _metrics.remove(name); }
+
+    private <T> T getOrCreate(String name, Class<T> type, T created) {
+        Object existing = _metrics.putIfAbsent(name, created);
+        if (existing == null) {
+            return created;
+        }
+        return type.isInstance(existing) ? type.cast(existing) : created;
+    }
+
+    // the metric of name, created and registered if there is none of the type
+    public Counter counter(String name) {
+        return getOrCreate(name, Counter.class, new Counter());
+    }
+
+    public Gauge gauge(String name, Gauge.Source source) {
+        Gauge gauge = new Gauge(source);
+        register(name, gauge);
+        return gauge;
+    }
+
+    public Histogram histogram(String name) {
+        return getOrCreate(name, Histogram.class, new Histogram());
+    }
+
+    // the value of a counter or a gauge, the count of a histogram, or 0 if there is no metric of name
+    public long getValue(String name) {
+        Object metric = _metrics.get(name);
+        if (metric instanceof Counter) {
+            return ((Counter)metric).get();
+        }
+        if (metric instanceof Gauge) {
+            return ((Gauge)metric).get();
+        }
+        if (metric instanceof Histogram) {
+            return ((Histogram)metric).getCount();
+        }
+        return 0;
+    }
+
+    public long getValueAtPercentile(String name, double percentile) {
+        Object metric = _metrics.get(name);
+        return metric instanceof Histogram ? ((Histogram)metric).getValueAtPercentile(percentile) : 0;
+    }
+
+    // zeroes every counter and histogram. gauges keep their values.
+    public void reset() {
+        for (Object metric : _metrics.values()) {
+            if (metric instanceof Counter) {
+                ((Counter)metric).reset();
+            }
+            else if (metric instanceof Histogram) {
+                ((Histogram)metric).reset();
+            }
+        }
+    }
+
+    // every metric as a json object sorted by name, stamped with System.nanoTime().
+    // counters and gauges are numbers, histograms are objects of their count, mean, max and percentiles.
+    public String snapshot() {
+        StringBuilder result = new StringBuilder();
+        result.append("{\"time\":").append(System.nanoTime()).append(",\"metrics\":{");
+
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : new TreeMap<>(_metrics).entrySet()) {
+            if (first == false) {
+                result.append(',');
+            }
+            first = false;
+
+            result.append('"');
+            appendEscaped(result, entry.getKey());
+            result.append("\":");
+
+            Object metric = entry.getValue();
+            if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram)metric;
+                result.append("{\"count\":").append(histogram.getCount())
+                      .append(",\"mean\":").append(histogram.getMean())
+                      .append(",\"max\":").append(histogram.getMax());
+                for (int i = 0; i < SNAPSHOT_PERCENTILES.length; i++) {
+                    result.append(",\"").append(SNAPSHOT_PERCENTILE_NAMES[i]).append("\":")
+                          .append(histogram.getValueAtPercentile(SNAPSHOT_PERCENTILES[i]));
+                }
+                result.append('}');
+            }
+            else {
+                result.append(getValue(entry.getKey()));
+            }
+        }
+        return result.append("}}").toString();
+    }
+
+    private static void appendEscaped(StringBuilder dst, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                dst.append('\\');
+            }
+            dst.append(c);
+        }
+    }
+}
@@ -2,35 +2,94 @@ package kr.co.clicked.sensordeviceplugin;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+// a frame of the sampler. the primary biosignal and inertia devices fill the fixed frame of size() bytes.
+// other devices sampled at the same time follow the footer as payloads, which HEADER_WITH_PAYLOADS announces:
+// their count (byte), then per payload the index of the device among the candidates of its kind (byte), the kind (byte),
+// the value count (byte) and the values (big-endian float).
+// a biosignal sample wider than the fixed frame, e.g. of a Cyton with a Daisy, follows whole as the payload of
+// PRIMARY_DEVICE.
+// the aux data a biosignal device decoded follows as a PAYLOAD_AUX of the same device: BiosignalSensorData.AUX_VALUES
+// floats, then the board time in milliseconds as an unsigned int, if the sample had one.
 public class MotionData {
+    // lock-free pool of reference counted frames. a frame returns to the pool when its count drops to zero.
     private static class Pool {
-        private BlockingQueue<MotionData> _items;
-
         public Pool(int size) {
-            _items = new ArrayBlockingQueue<MotionData>(size);
+            _items = new MotionData[size];
             for (int i = 0; i < size; i++) {
-                _items.add(new MotionData());
+                _items[i] = new MotionData();
             }
-        }
 
-        public MotionData retain() {
-            return _items.remove();
+            _next = new AtomicInteger();
+            _inUseCount = new AtomicInteger();
+            _highWaterMark = new AtomicInteger();
+            _exhaustedCount = new AtomicLong();
         }
 
-        public void release(MotionData item) {
-            item.clear();
+        private MotionData[] _items;
+        private AtomicInteger _next;
+        private AtomicInteger _inUseCount;
+        private AtomicInteger _highWaterMark;
+        private AtomicLong _exhaustedCount;
+
+        public MotionData acquire() {
+            int start = (_next.getAndIncrement() & Integer.MAX_VALUE) % _items.length;
+            for (int i = 0; i < _items.length; i++) {
+                MotionData item = _items[(start + i) % _items.length];
+                if (item._refCount.compareAndSet(0, 1)) {
+                    item._generation++;
+
+                    int inUse = _inUseCount.incrementAndGet();
+                    int highWaterMark = _highWaterMark.get();
+                    while (inUse > highWaterMark && _highWaterMark.compareAndSet(highWaterMark, inUse) == false) {
+                        highWaterMark = _highWaterMark.get();
+                    }
+                    return item;
+                }
+            }
+
+            _exhaustedCount.incrementAndGet();
+            return null;
+        }
 
-            assert(_items.contains(item) == false);
-            _items.add(item);
+        public void returned(MotionData item) {
+            _inUseCount.decrementAndGet();
         }
+
+        public int inUseCount() { return _inUseCount.get(); }
+
+        public int highWaterMark() { return _highWaterMark.get(); }
+
+        public long exhaustedCount() { return _exhaustedCount.get(); }
     }
 
-    private static Pool _pool = new Pool(10);
+    // enough for the deepest MotionDataRing plus the frames held by the producer and the consumer
+    public static final int POOL_SIZE = 128;
+
+    public static final byte HEADER = (byte)0xA0;
+    public static final byte HEADER_WITH_PAYLOADS = (byte)0xA1;
+    public static final byte FOOTER = (byte)0xC7;
+
+    // kinds of payloads
+    public static final byte PAYLOAD_BIOSIGNAL = 1;
+    public static final byte PAYLOAD_INERTIA = 2;
+    public static final byte PAYLOAD_BIOSIGNAL_HELD = 3;    // no values. the biosignal repeats a sample already sent
+    public static final byte PAYLOAD_AUX = 4;
+
+    // the device of the fixed frame, as the index of a payload
+    public static final int PRIMARY_DEVICE = 255;
+
+    public static final int PAYLOAD_HEADER_SIZE = 3;
+    public static final int MAX_PAYLOADS = 255;
+    public static final int MAX_PAYLOAD_VALUES = 255;
+
+    private static final byte[] NO_VALUES = new byte[0];
 
-    private static int size() {
+    private static Pool _pool = new Pool(POOL_SIZE);
+
+    public static int size() {
         return 1 +      // header (0xA0)
                 1 +      // sample number
                 BiosignalSensorData.SIZE +
@@ -39,24 +98,47 @@ public class MotionData {
                 1;       // footer (0xC7)
     }
 
+    // 705,600,000 flicks per second, i.e. 0.7056 (= 441 / 625) flicks per nanosecond
+    public static long toFlicks(long nanos) {
+        return (nanos / 625) * 441 + (nanos % 625) * 441 / 625;
+    }
+
+    // the caller owns the returned frame and must dispose it, or hand the ownership over
     public static MotionData create(byte sampleNumber, long timeStamp, BiosignalSensorData biosignal, InertiaSensorData inertia) {
-        MotionData result = _pool.retain();
+        MotionData result = _pool.acquire();
         if (result != null) {
+            result.clear();
             result.fill(sampleNumber, timeStamp, biosignal, inertia);
+            if (biosignal != null && biosignal.getChannelCount() > BiosignalSensorData.CHANNELS) {
+                result.addPayload(PRIMARY_DEVICE, PAYLOAD_BIOSIGNAL, biosignal.getData(), biosignal.getChannelCount());
+            }
+            if (biosignal != null) {
+                result.addAuxPayload(PRIMARY_DEVICE, biosignal);
+            }
         }
         return result;
     }
 
     public static void dispose(MotionData data) {
-        _pool.release(data);
+        data.release();
     }
 
+    public static int getPoolInUseCount() { return _pool.inUseCount(); }
+
+    public static int getPoolHighWaterMark() { return _pool.highWaterMark(); }
+
+    public static long getPoolExhaustedCount() { return _pool.exhaustedCount(); }
+
     private MotionData() {
         _data = ByteBuffer.allocate(size());
         _data.order(ByteOrder.BIG_ENDIAN);
+        _refCount = new AtomicInteger();
     }
 
-    private ByteBuffer _data;
+    private ByteBuffer _data;       // grows for payloads, and stays grown as the frame is recycled
+    private int _length;
+    private AtomicInteger _refCount;
+    private volatile int _generation;
 
     private void fillWithZeros(ByteBuffer data, int count) {
         for (int i = 0; i < count; i++) {
@@ -65,7 +147,7 @@ public class MotionData {
     }
 
     private void fill(byte sampleNumber, long timeStamp, BiosignalSensorData biosignal, InertiaSensorData inertia) {
-        _data.put((byte)0xA0);
+        _data.put(HEADER);
         _data.put(sampleNumber);
 
         if (biosignal != null) {
@@ -76,21 +158,138 @@ public class MotionData {
         }
 
         if (inertia != null) {
-            _data.put(inertia.getData(), 0, InertiaSensorData.SIZE);
+            inertia.copyTo(_data);
         }
         else {
             fillWithZeros(_data, InertiaSensorData.SIZE);
         }
 
         _data.putLong(timeStamp);
-        _data.put((byte)0xC7);
+        _data.put(FOOTER);
+        _length = size();
     }
 
     private void clear() {
         _data.clear();
     }
 
+    private void ensureCapacity(int capacity) {
+        if (_data.capacity() < capacity) {
+            ByteBuffer data = ByteBuffer.allocate(Math.max(capacity, _data.capacity() * 2));
+            data.order(_data.order());
+            System.arraycopy(_data.array(), 0, data.array(), 0, _length);
+            _data = data;
+        }
+    }
+
+    // producer side, before the frame is handed over. appends valueCount big-endian floats of values as the payload of device.
+    public void addPayload(int device, byte kind, byte[] values, int valueCount) {
+        assert(valueCount <= MAX_PAYLOAD_VALUES);
+
+        int size = size();
+        if (_length == size) {
+            ensureCapacity(size + 1);
+            _data.put(0, HEADER_WITH_PAYLOADS);
+            _data.put(size, (byte)0);
+            _length++;
+        }
+        assert(getPayloadCount() < MAX_PAYLOADS);
+
+        ensureCapacity(_length + PAYLOAD_HEADER_SIZE + valueCount * 4);
+        byte[] data = _data.array();
+        data[_length] = (byte)device;
+        data[_length + 1] = kind;
+        data[_length + 2] = (byte)valueCount;
+        System.arraycopy(values, 0, data, _length + PAYLOAD_HEADER_SIZE, valueCount * 4);
+        _length += PAYLOAD_HEADER_SIZE + valueCount * 4;
+        data[size]++;
+    }
+
+    // producer side. nothing if the device decodes no aux data.
+    public void addAuxPayload(int device, BiosignalSensorData biosignal) {
+        if (biosignal.getAuxType() == BiosignalSensorData.NO_AUX) {
+            return;
+        }
+
+        int valueCount = BiosignalSensorData.AUX_VALUES;
+        if (biosignal.getBoardTime() != BiosignalSensorData.NO_BOARD_TIME) {
+            valueCount++;
+        }
+        addPayload(device, PAYLOAD_AUX, biosignal.getAuxData(), valueCount);
+    }
+
+    // producer side. marks the biosignal of the fixed frame as a repeat of the last sample, as no new one arrived.
+    public void addBiosignalHeldMark() {
+        addPayload(PRIMARY_DEVICE, PAYLOAD_BIOSIGNAL_HELD, NO_VALUES, 0);
+    }
+
+    public int getPayloadCount() {
+        return _length > size() ? _data.get(size()) & 0xFF : 0;
+    }
+
+    // of the frame with its payloads
+    public int getLength() { return _length; }
+
+    // incremented every time the frame is taken out of the pool, to tell a recycled frame apart
+    public int generation() { return _generation; }
+
+    public void retain() {
+        int count;
+        do {
+            count = _refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("MotionData retained after release");
+            }
+        } while (_refCount.compareAndSet(count, count + 1) == false);
+    }
+
+    public void release() {
+        int count = _refCount.decrementAndGet();
+        if (count == 0) {
+            _pool.returned(this);
+        }
+        else if (count < 0) {
+            _refCount.incrementAndGet();
+            throw new IllegalStateException("MotionData released more than retained");
+        }
+    }
+
+    // the frame with its payloads, in the first getLength() bytes
     public byte[] getData() {
         return _data.array();
     }
+
+    // the frame without its payloads, size() bytes
+    public void copyTo(ByteBuffer dst) {
+        int start = dst.position();
+        dst.put(_data.array(), 0, size());
+        dst.put(start, HEADER);
+    }
+
+    public void copyTo(byte[] dst, int offset) {
+        System.arraycopy(_data.array(), 0, dst, offset, size());
+        dst[offset] = HEADER;
+    }
+
+    // the frame with its payloads, getLength() bytes
+    public void copyWithPayloadsTo(ByteBuffer dst) {
+        dst.put(_data.array(), 0, _length);
+    }
+
+    // same as copyTo(), but the floats and the timestamp are written in the byte order of dst
+    public void exportTo(ByteBuffer dst) {
+        if (dst.order() == _data.order()) {
+            copyTo(dst);
+            return;
+        }
+
+        int timestampOffset = size() - 8 - 1;
+        dst.put(HEADER);
+        dst.put(_data.get(1));
+        for (int i = 2; i < timestampOffset; i += 4) {
+            dst.putInt(_data.getInt(i));
+        }
+        dst.putLong(_data.getLong(timestampOffset));
+        dst.put(_data.get(timestampOffset + 8));
+    }
 }
@@ -0,0 +1,432 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// stream codec between MotionData frames and the compact v2 frame.
+// v2 frame, little-endian :
+//   version (0xA2), flags, encodings, sample number,
+//   timestamp (int64, or a zigzag varint of the difference from the previous frame when delta coded),
+//   then the fields present, in the order of the MotionData frame :
+//   biosignal (8 channels as float32, float16 or 24-bit fixed point, or zigzag varints of the fixed point differences
+//   when delta coded), acceleration, angular velocities, magnetic field and orientation (float32 or float16 each).
+// a field which is all zeros in the MotionData frame is absent, as it was never sampled.
+// an instance keeps the state of one stream, for either encoding or decoding.
+public class MotionDataCodec {
+    public static final byte VERSION = (byte)0xA2;
+
+    public enum BiosignalEncoding {
+        Float32,
+        Fixed24,    // in steps of the Cyton resolution at the default gain, delta coded between frames
+        Float16
+    }
+
+    public enum InertiaEncoding {
+        Float32,
+        Float16
+    }
+
+    public static final int FLAG_BIOSIGNAL = 0x01;
+    public static final int FLAG_ACCELERATION = 0x02;
+    public static final int FLAG_ANGULAR_VELOCITIES = 0x04;
+    public static final int FLAG_MAGNETIC_FIELD = 0x08;
+    public static final int FLAG_ORIENTATION = 0x10;
+    public static final int FLAG_DELTA = 0x20;
+
+    public static final int MAX_FRAME_SIZE =
+            4 +                             // version, flags, encodings, sample number
+            10 +                            // timestamp as the longest varint
+            BiosignalSensorData.SIZE +
+            InertiaSensorData.SIZE;
+
+    public static final int DEFAULT_KEY_FRAME_INTERVAL = 120;
+
+    private static final int FIXED24_MIN = -(1 << 23);
+    private static final int FIXED24_MAX = (1 << 23) - 1;
+    private static final float FIXED24_STEP = CytonPacketDecoder.scaleFactor(CytonPacketDecoder.DEFAULT_GAIN);
+
+    // MotionData frame layout
+    private static final int FRAME_HEADER = 0xA0;
+    private static final int FRAME_FOOTER = 0xC7;
+    private static final int FRAME_SAMPLE_NUMBER = 1;
+    private static final int FRAME_BIOSIGNAL = 2;
+    private static final int FRAME_INERTIA = FRAME_BIOSIGNAL + BiosignalSensorData.SIZE;
+    private static final int FRAME_TIMESTAMP = FRAME_INERTIA + InertiaSensorData.SIZE;
+    private static final int FRAME_FOOTER_OFFSET = FRAME_TIMESTAMP + 8;
+
+    private static final int[] INERTIA_FLAGS = { FLAG_ACCELERATION, FLAG_ANGULAR_VELOCITIES, FLAG_MAGNETIC_FIELD, FLAG_ORIENTATION };
+    private static final int[] INERTIA_INDICES = {
+            InertiaSensorData.ACCELERATION_INDEX,
+            InertiaSensorData.ANGULAR_VELOCITIES_INDEX,
+            InertiaSensorData.MAGNETIC_FIELD_INDEX,
+            InertiaSensorData.ORIENTATION_INDEX
+    };
+    private static final int[] INERTIA_SIZES = { 3, 3, 3, 4 };
+
+    private static final BiosignalEncoding[] BIOSIGNAL_ENCODINGS = BiosignalEncoding.values();
+    private static final InertiaEncoding[] INERTIA_ENCODINGS = InertiaEncoding.values();
+
+    public MotionDataCodec(BiosignalEncoding biosignalEncoding, InertiaEncoding inertiaEncoding, int keyFrameInterval) {
+        assert(keyFrameInterval > 0);
+
+        _biosignalEncoding = biosignalEncoding;
+        _inertiaEncoding = inertiaEncoding;
+        _keyFrameInterval = keyFrameInterval;
+        _previousBiosignal = new int[BiosignalSensorData.CHANNELS];
+        reset();
+    }
+
+    private BiosignalEncoding _biosignalEncoding;
+    private InertiaEncoding _inertiaEncoding;
+    private int _keyFrameInterval;
+
+    private boolean _hasPrevious;
+    private int _previousFlags;
+    private int _previousEncodings;
+    private long _previousTimestamp;
+    private int[] _previousBiosignal;
+    private int _framesSinceKeyFrame;
+
+    // starts over from a key frame, e.g. after frames were lost
+    public void reset() {
+        _hasPrevious = false;
+        _framesSinceKeyFrame = 0;
+    }
+
+    // encodes a MotionData frame into dst, and returns the bytes written.
+    // dst must have MAX_FRAME_SIZE bytes remaining.
+    public int encode(byte[] frame, int offset, ByteBuffer dst) {
+        assert(dst.remaining() >= MAX_FRAME_SIZE);
+
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        int start = dst.position();
+
+        int flags = 0;
+        if (isPresent(frame, offset + FRAME_BIOSIGNAL, BiosignalSensorData.CHANNELS)) {
+            flags |= FLAG_BIOSIGNAL;
+        }
+        for (int i = 0; i < INERTIA_FLAGS.length; i++) {
+            if (isPresent(frame, offset + FRAME_INERTIA + INERTIA_INDICES[i] * 4, INERTIA_SIZES[i])) {
+                flags |= INERTIA_FLAGS[i];
+            }
+        }
+        int encodings = _biosignalEncoding.ordinal() | (_inertiaEncoding.ordinal() << 2);
+
+        boolean delta = _hasPrevious && _framesSinceKeyFrame < _keyFrameInterval &&
+                flags == _previousFlags && encodings == _previousEncodings;
+        if (delta) {
+            flags |= FLAG_DELTA;
+            _framesSinceKeyFrame++;
+        }
+        else {
+            _framesSinceKeyFrame = 1;
+        }
+
+        dst.put(VERSION);
+        dst.put((byte)flags);
+        dst.put((byte)encodings);
+        dst.put(frame[offset + FRAME_SAMPLE_NUMBER]);
+
+        long timestamp = getLong(frame, offset + FRAME_TIMESTAMP);
+        if (delta) {
+            putVarint(dst, zigzag(timestamp - _previousTimestamp));
+        }
+        else {
+            dst.putLong(timestamp);
+        }
+        _previousTimestamp = timestamp;
+
+        if ((flags & FLAG_BIOSIGNAL) != 0) {
+            for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+                float value = Float.intBitsToFloat(getInt(frame, offset + FRAME_BIOSIGNAL + i * 4));
+                switch (_biosignalEncoding) {
+                    case Fixed24:
+                        int fixed = toFixed24(value);
+                        if (delta) {
+                            putVarint(dst, zigzag(fixed - _previousBiosignal[i]));
+                        }
+                        else {
+                            putInt24(dst, fixed);
+                        }
+                        _previousBiosignal[i] = fixed;
+                        break;
+                    case Float16:
+                        dst.putShort(toHalf(value));
+                        break;
+                    default:
+                        dst.putFloat(value);
+                        break;
+                }
+            }
+        }
+
+        for (int i = 0; i < INERTIA_FLAGS.length; i++) {
+            if ((flags & INERTIA_FLAGS[i]) != 0) {
+                int fieldOffset = offset + FRAME_INERTIA + INERTIA_INDICES[i] * 4;
+                for (int j = 0; j < INERTIA_SIZES[i]; j++) {
+                    float value = Float.intBitsToFloat(getInt(frame, fieldOffset + j * 4));
+                    if (_inertiaEncoding == InertiaEncoding.Float16) {
+                        dst.putShort(toHalf(value));
+                    }
+                    else {
+                        dst.putFloat(value);
+                    }
+                }
+            }
+        }
+
+        _hasPrevious = true;
+        _previousFlags = flags & ~FLAG_DELTA;
+        _previousEncodings = encodings;
+
+        dst.order(order);
+        return dst.position() - start;
+    }
+
+    // decodes a v2 frame from src into a MotionData frame. returns false without consuming src or touching frame if it does not
+    // start with a whole one, e.g. when the rest of the frame is yet to arrive, or with a delta coded frame whose previous
+    // frame is missing. reset() and skip to the next key frame in the latter case.
+    public boolean decode(ByteBuffer src, byte[] frame, int offset) {
+        int start = src.position();
+        if (src.remaining() < 4 || src.get(start) != VERSION) {
+            return false;
+        }
+
+        int flags = src.get(start + 1) & 0xFF;
+        int encodings = src.get(start + 2) & 0xFF;
+        boolean delta = (flags & FLAG_DELTA) != 0;
+        if (delta && (_hasPrevious == false || (flags & ~FLAG_DELTA) != _previousFlags || encodings != _previousEncodings)) {
+            return false;
+        }
+        if ((encodings & 0x3) >= BIOSIGNAL_ENCODINGS.length || ((encodings >> 2) & 0x3) >= INERTIA_ENCODINGS.length) {
+            return false;
+        }
+        BiosignalEncoding biosignalEncoding = BIOSIGNAL_ENCODINGS[encodings & 0x3];
+        InertiaEncoding inertiaEncoding = INERTIA_ENCODINGS[(encodings >> 2) & 0x3];
+        if (frameLength(src, start, flags, biosignalEncoding, inertiaEncoding) < 0) {
+            return false;
+        }
+
+        ByteOrder order = src.order();
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            src.position(start + 3);
+            byte sampleNumber = src.get();
+
+            frame[offset] = (byte)FRAME_HEADER;
+            frame[offset + FRAME_SAMPLE_NUMBER] = sampleNumber;
+
+            long timestamp = delta ? _previousTimestamp + unzigzag(getVarint(src)) : src.getLong();
+            putLong(frame, offset + FRAME_TIMESTAMP, timestamp);
+            _previousTimestamp = timestamp;
+
+            for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+                float value = 0;
+                if ((flags & FLAG_BIOSIGNAL) != 0) {
+                    switch (biosignalEncoding) {
+                        case Fixed24:
+                            int fixed = delta ? _previousBiosignal[i] + (int)unzigzag(getVarint(src)) : getInt24(src);
+                            _previousBiosignal[i] = fixed;
+                            value = fixed * FIXED24_STEP;
+                            break;
+                        case Float16:
+                            value = fromHalf(src.getShort());
+                            break;
+                        default:
+                            value = src.getFloat();
+                            break;
+                    }
+                }
+                putInt(frame, offset + FRAME_BIOSIGNAL + i * 4, Float.floatToRawIntBits(value));
+            }
+
+            for (int i = 0; i < INERTIA_FLAGS.length; i++) {
+                int fieldOffset = offset + FRAME_INERTIA + INERTIA_INDICES[i] * 4;
+                for (int j = 0; j < INERTIA_SIZES[i]; j++) {
+                    float value = 0;
+                    if ((flags & INERTIA_FLAGS[i]) != 0) {
+                        value = inertiaEncoding == InertiaEncoding.Float16 ? fromHalf(src.getShort()) : src.getFloat();
+                    }
+                    putInt(frame, fieldOffset + j * 4, Float.floatToRawIntBits(value));
+                }
+            }
+
+            frame[offset + FRAME_FOOTER_OFFSET] = (byte)FRAME_FOOTER;
+
+            _hasPrevious = true;
+            _previousFlags = flags & ~FLAG_DELTA;
+            _previousEncodings = encodings;
+            return true;
+        }
+        finally {
+            src.order(order);
+        }
+    }
+
+    // the length of the v2 frame at start, or -1 if src ends before it does
+    private static int frameLength(ByteBuffer src, int start, int flags, BiosignalEncoding biosignalEncoding, InertiaEncoding inertiaEncoding) {
+        boolean delta = (flags & FLAG_DELTA) != 0;
+        int position = start + 4;
+        position = delta ? skipVarint(src, position) : position + 8;
+
+        if ((flags & FLAG_BIOSIGNAL) != 0) {
+            switch (biosignalEncoding) {
+                case Fixed24:
+                    if (delta) {
+                        for (int i = 0; i < BiosignalSensorData.CHANNELS && position >= 0; i++) {
+                            position = skipVarint(src, position);
+                        }
+                    }
+                    else {
+                        position += BiosignalSensorData.CHANNELS * 3;
+                    }
+                    break;
+                case Float16:
+                    position += BiosignalSensorData.CHANNELS * 2;
+                    break;
+                default:
+                    position += BiosignalSensorData.CHANNELS * 4;
+                    break;
+            }
+        }
+        if (position < 0) {
+            return -1;
+        }
+
+        int valueSize = inertiaEncoding == InertiaEncoding.Float16 ? 2 : 4;
+        for (int i = 0; i < INERTIA_FLAGS.length; i++) {
+            if ((flags & INERTIA_FLAGS[i]) != 0) {
+                position += INERTIA_SIZES[i] * valueSize;
+            }
+        }
+
+        return position <= src.limit() ? position - start : -1;
+    }
+
+    private static boolean isPresent(byte[] frame, int offset, int count) {
+        for (int i = offset; i < offset + count * 4; i++) {
+            if (frame[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toFixed24(float value) {
+        return Math.max(FIXED24_MIN, Math.min(FIXED24_MAX, Math.round(value / FIXED24_STEP)));
+    }
+
+    private static void putInt24(ByteBuffer dst, int value) {
+        dst.put((byte)value);
+        dst.put((byte)(value >> 8));
+        dst.put((byte)(value >> 16));
+    }
+
+    private static int getInt24(ByteBuffer src) {
+        return (src.get() & 0xFF) | ((src.get() & 0xFF) << 8) | (src.get() << 16);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarint(ByteBuffer dst, long value) {
+        while ((value & ~0x7FL) != 0) {
+            dst.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte)value);
+    }
+
+    // the position past the varint at position, or -1 if src ends before it does. reads at most as many bytes as getVarint()
+    private static int skipVarint(ByteBuffer src, int position) {
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= src.limit()) {
+                return -1;
+            }
+            if ((src.get(position++) & 0x80) == 0) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private static long getVarint(ByteBuffer src) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = src.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    // IEEE 754 binary16, rounded to nearest
+    public static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7FFFFFFF;
+
+        if (magnitude > 0x7F800000) {                               // NaN
+            return (short)(sign | 0x7E00);
+        }
+        if (magnitude >= 0x477FF000) {                              // rounds to 65520 or more, i.e. infinity
+            return (short)(sign | 0x7C00);
+        }
+        if (magnitude >= 0x38800000) {                              // normal
+            return (short)(sign | ((magnitude + 0x0FFF + ((magnitude >>> 13) & 1) - 0x38000000) >>> 13));
+        }
+        if (magnitude < 0x33000000) {                               // underflows to zero
+            return (short)sign;
+        }
+
+        int exponent = magnitude >>> 23;                            // subnormal
+        int mantissa = (magnitude & 0x7FFFFF) | 0x800000;
+        int shift = 126 - exponent;
+        int rounded = (mantissa + (1 << (shift - 1)) - 1 + ((mantissa >>> shift) & 1)) >>> shift;
+        return (short)(sign | rounded);
+    }
+
+    public static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float value = mantissa * (1.0f / (1 << 24));
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
+    // the MotionData frame is big-endian
+    private static int getInt(byte[] src, int offset) {
+        return (src[offset] << 24) | ((src[offset + 1] & 0xFF) << 16) | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] src, int offset) {
+        return ((long)getInt(src, offset) << 32) | (getInt(src, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static void putInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte)(value >> 24);
+        dst[offset + 1] = (byte)(value >> 16);
+        dst[offset + 2] = (byte)(value >> 8);
+        dst[offset + 3] = (byte)value;
+    }
+
+    private static void putLong(byte[] dst, int offset, long value) {
+        putInt(dst, offset, (int)(value >> 32));
+        putInt(dst, offset + 4, (int)value);
+    }
+}
@@ -0,0 +1,102 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// lock-free ring between one producer (sampler thread) and one consumer (render thread)
+public class MotionDataRing {
+    public enum OverflowPolicy {
+        OverwriteOldest,
+        DropNewest
+    }
+
+    public MotionDataRing(int depth, OverflowPolicy policy) {
+        assert(depth > 0);
+
+        int capacity = Integer.highestOneBit(depth);
+        if (capacity < depth) {
+            capacity <<= 1;
+        }
+
+        _capacity = capacity;
+        _mask = capacity - 1;
+        _policy = policy;
+        _slots = new AtomicReferenceArray<>(capacity);
+        _head = new AtomicLong();
+        _tail = new AtomicLong();
+        _droppedCount = new AtomicLong();
+        _overwrittenCount = new AtomicLong();
+    }
+
+    private int _capacity;
+    private int _mask;
+    private OverflowPolicy _policy;
+    private AtomicReferenceArray<MotionData> _slots;
+    private AtomicLong _head;     // written by the producer only
+    private AtomicLong _tail;     // advanced by the consumer, and by the producer when overwriting
+    private AtomicLong _droppedCount;
+    private AtomicLong _overwrittenCount;
+
+    public int capacity() { return _capacity; }
+
+    public OverflowPolicy policy() { return _policy; }
+
+    public int size() {
+        long tail = _tail.get();
+        return (int)Math.max(0, _head.get() - tail);
+    }
+
+    public long getDroppedCount() { return _droppedCount.get(); }
+
+    public long getOverwrittenCount() { return _overwrittenCount.get(); }
+
+    // producer side. the ring takes the ownership of item only when true is returned.
+    public boolean offer(MotionData item) {
+        long head = _head.get();
+        long tail = _tail.get();
+
+        if (head - tail >= _capacity) {
+            if (_policy == OverflowPolicy.DropNewest) {
+                _droppedCount.lazySet(_droppedCount.get() + 1);
+                return false;
+            }
+
+            // the slot at tail is written by this thread only, so it is safe to read before claiming.
+            // if the consumer wins the race, it has just freed a slot for us.
+            MotionData oldest = _slots.get((int)tail & _mask);
+            if (_tail.compareAndSet(tail, tail + 1)) {
+                MotionData.dispose(oldest);
+                _overwrittenCount.lazySet(_overwrittenCount.get() + 1);
+            }
+        }
+
+        _slots.lazySet((int)head & _mask, item);
+        _head.lazySet(head + 1);
+        return true;
+    }
+
+    // consumer side. the caller takes the ownership of the returned item.
+    public MotionData poll() {
+        while (true) {
+            long tail = _tail.get();
+            if (tail >= _head.get()) {
+                return null;
+            }
+
+            // the read is only trusted when the claim below succeeds,
+            // as the producer reuses this slot after overwriting it.
+            MotionData item = _slots.get((int)tail & _mask);
+            if (_tail.compareAndSet(tail, tail + 1)) {
+                return item;
+            }
+        }
+    }
+
+    // consumer side, or after the producer has stopped
+    public void clear() {
+        MotionData item;
+        while ((item = poll()) != null) {
+            MotionData.dispose(item);
+        }
+    }
+}
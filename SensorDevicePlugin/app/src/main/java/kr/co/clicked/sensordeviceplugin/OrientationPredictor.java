@@ -0,0 +1,198 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// dead reckoning of the orientation on the sampler thread.
+// the orientation is extrapolated by the look-ahead with the angular velocity of the same frame,
+// and every prediction is scored against the orientation actually sampled once its time has come.
+public class OrientationPredictor {
+    // enough for a look-ahead of as many sample periods
+    public static final int DEFAULT_MAX_PENDING_PREDICTIONS = 64;
+
+    private static final float NANOS_PER_SECOND = 1000 * 1000 * 1000;
+
+    public OrientationPredictor(int maxPendingPredictions) {
+        assert(maxPendingPredictions > 0);
+
+        _maxPending = maxPendingPredictions;
+        _pendingTimes = new long[maxPendingPredictions];
+        _pendingOrientations = new float[maxPendingPredictions * 4];
+        _orientation = new float[4];
+        _lastOrientation = new float[4];
+        _truth = new float[4];
+
+        _predictionCount = new AtomicLong();
+        _scoredCount = new AtomicLong();
+        _discardedCount = new AtomicLong();
+        _errorSumMicroradians = new AtomicLong();
+        _maxErrorMicroradians = new AtomicLong();
+    }
+
+    private volatile long _lookAheadNanos;
+
+    // sampler thread only
+    private int _maxPending;
+    private long[] _pendingTimes;           // ring of predictions waiting for their time
+    private float[] _pendingOrientations;
+    private int _pendingHead;
+    private int _pendingCount;
+    private float[] _orientation;
+    private float[] _lastOrientation;
+    private long _lastSampleTime;
+    private boolean _lastValid;
+    private float[] _truth;
+
+    private AtomicLong _predictionCount;
+    private AtomicLong _scoredCount;
+    private AtomicLong _discardedCount;
+    private AtomicLong _errorSumMicroradians;
+    private AtomicLong _maxErrorMicroradians;
+
+    // 0 disables the prediction
+    public void setLookAheadNanos(long nanos) {
+        _lookAheadNanos = Math.max(0, nanos);
+    }
+
+    public long getLookAheadNanos() { return _lookAheadNanos; }
+
+    public long getPredictionCount() { return _predictionCount.get(); }
+
+    // predictions compared with the sampled orientation at their time
+    public long getScoredCount() { return _scoredCount.get(); }
+
+    // predictions never scored, as the ring was full or sampling restarted
+    public long getDiscardedCount() { return _discardedCount.get(); }
+
+    public double getMeanErrorRadians() {
+        long count = _scoredCount.get();
+        return count > 0 ? _errorSumMicroradians.get() / 1000000.0 / count : 0;
+    }
+
+    public double getMaxErrorRadians() {
+        return _maxErrorMicroradians.get() / 1000000.0;
+    }
+
+    public void resetStatistics() {
+        _predictionCount.set(0);
+        _scoredCount.set(0);
+        _discardedCount.set(0);
+        _errorSumMicroradians.set(0);
+        _maxErrorMicroradians.set(0);
+    }
+
+    // sampler thread, when sampling restarts
+    public void clear() {
+        _discardedCount.addAndGet(_pendingCount);
+        _pendingHead = 0;
+        _pendingCount = 0;
+        _lastValid = false;
+    }
+
+    // sampler thread. inertia must have been resampled at sampleTime, in System.nanoTime().
+    // scores the predictions which came due, then replaces the orientation of inertia with the one predicted for
+    // sampleTime + look-ahead.
+    public void predict(long sampleTime, InertiaSensorData inertia) {
+        if (inertia.getUpdateTime(InertiaSensorData.ORIENTATION) == 0) {
+            return;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            _orientation[i] = inertia.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + i);
+        }
+        score(sampleTime);
+
+        System.arraycopy(_orientation, 0, _lastOrientation, 0, 4);
+        _lastSampleTime = sampleTime;
+        _lastValid = true;
+
+        long lookAhead = _lookAheadNanos;
+        if (lookAhead == 0 || inertia.getUpdateTime(InertiaSensorData.ANGULAR_VELOCITIES) == 0) {
+            return;
+        }
+
+        float dt = lookAhead / NANOS_PER_SECOND;
+        float wx = inertia.getOutputValue(InertiaSensorData.ANGULAR_VELOCITIES_INDEX) * dt;
+        float wy = inertia.getOutputValue(InertiaSensorData.ANGULAR_VELOCITIES_INDEX + 1) * dt;
+        float wz = inertia.getOutputValue(InertiaSensorData.ANGULAR_VELOCITIES_INDEX + 2) * dt;
+        integrate(_orientation, wx, wy, wz);
+
+        for (int i = 0; i < 4; i++) {
+            inertia.setOutputValue(InertiaSensorData.ORIENTATION_INDEX + i, _orientation[i]);
+        }
+        _predictionCount.lazySet(_predictionCount.get() + 1);
+        addPending(sampleTime + lookAhead);
+    }
+
+    private void addPending(long targetTime) {
+        if (_pendingCount == _maxPending) {
+            _pendingHead = (_pendingHead + 1) % _maxPending;
+            _pendingCount--;
+            _discardedCount.lazySet(_discardedCount.get() + 1);
+        }
+
+        int slot = (_pendingHead + _pendingCount) % _maxPending;
+        _pendingTimes[slot] = targetTime;
+        System.arraycopy(_orientation, 0, _pendingOrientations, slot * 4, 4);
+        _pendingCount++;
+    }
+
+    // the orientation at the time of a prediction is interpolated between the last two samples around it
+    private void score(long sampleTime) {
+        while (_pendingCount > 0 && _pendingTimes[_pendingHead] <= sampleTime) {
+            long targetTime = _pendingTimes[_pendingHead];
+            if (_lastValid && targetTime >= _lastSampleTime && sampleTime > _lastSampleTime) {
+                float alpha = (float)(targetTime - _lastSampleTime) / (sampleTime - _lastSampleTime);
+                nlerp(_lastOrientation, _orientation, alpha, _truth);
+
+                long error = Math.round(angleBetween(_truth, _pendingOrientations, _pendingHead * 4) * 1000000.0);
+                _errorSumMicroradians.lazySet(_errorSumMicroradians.get() + error);
+                if (error > _maxErrorMicroradians.get()) {
+                    _maxErrorMicroradians.lazySet(error);
+                }
+                _scoredCount.lazySet(_scoredCount.get() + 1);
+            }
+            else {
+                _discardedCount.lazySet(_discardedCount.get() + 1);
+            }
+
+            _pendingHead = (_pendingHead + 1) % _maxPending;
+            _pendingCount--;
+        }
+    }
+
+    // q = q * exp(w / 2), where w is the rotation vector in the body frame, the frame of the angular velocities
+    private static void integrate(float[] q, float wx, float wy, float wz) {
+        float angle = (float)Math.sqrt(wx * wx + wy * wy + wz * wz);
+        float scale = angle > 1e-6f ? (float)Math.sin(angle / 2) / angle : 0.5f;
+        float a = wx * scale;
+        float b = wy * scale;
+        float c = wz * scale;
+        float d = (float)Math.cos(angle / 2);
+
+        float x = q[0], y = q[1], z = q[2], w = q[3];
+        q[0] = w * a + x * d + y * c - z * b;
+        q[1] = w * b - x * c + y * d + z * a;
+        q[2] = w * c + x * b - y * a + z * d;
+        q[3] = w * d - x * a - y * b - z * c;
+    }
+
+    // the ticks are close enough in time for a normalized lerp to stand for slerp
+    private static void nlerp(float[] from, float[] to, float alpha, float[] dst) {
+        float sign = (from[0] * to[0] + from[1] * to[1] + from[2] * to[2] + from[3] * to[3]) < 0 ? -1 : 1;
+        float length = 0;
+        for (int i = 0; i < 4; i++) {
+            dst[i] = from[i] * (1 - alpha) + to[i] * sign * alpha;
+            length += dst[i] * dst[i];
+        }
+
+        float inverseLength = (float)(1 / Math.sqrt(length));
+        for (int i = 0; i < 4; i++) {
+            dst[i] *= inverseLength;
+        }
+    }
+
+    private static double angleBetween(float[] q, float[] r, int offset) {
+        double dot = Math.abs(q[0] * r[offset] + q[1] * r[offset + 1] + q[2] * r[offset + 2] + q[3] * r[offset + 3]);
+        return 2 * Math.acos(Math.min(1, dot));
+    }
+}
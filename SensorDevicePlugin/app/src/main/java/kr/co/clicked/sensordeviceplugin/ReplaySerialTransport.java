@@ -0,0 +1,200 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// plays a byte stream back the way a serial device delivered it, chunk by chunk at the times they were received.
+// the stream is the usb data of a SessionRecorder log, or a synthetic one.
+// a chunk is never read before its time, so a stream parses the same way on every run, at any speed.
+// writes are accepted and counted, but nothing answers them.
+public class ReplaySerialTransport implements ISerialTransport {
+    public static final double REAL_TIME = 1;
+    public static final double MAX_SPEED = 0;
+
+    // every usb device of a session log
+    public static final int ANY_DEVICE = 0;
+
+    private static final int INITIAL_CHUNKS = 1024;
+
+    // the usb data of deviceId, see SessionRecorder.usbDeviceId(). the records are stamped with System.nanoTime() of the recording.
+    public static ReplaySerialTransport fromSessionLog(File file, int deviceId) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (log.remaining() < SessionRecorder.FILE_HEADER_SIZE ||
+                    log.getInt() != SessionRecorder.MAGIC || log.getShort() != SessionRecorder.VERSION) {
+                throw new IOException("not a session log : " + file);
+            }
+            log.position(SessionRecorder.FILE_HEADER_SIZE);
+
+            byte[] data = new byte[log.remaining()];
+            int[] chunkEnds = new int[INITIAL_CHUNKS];
+            long[] chunkTimes = new long[INITIAL_CHUNKS];
+            int chunkCount = 0;
+            int size = 0;
+
+            // a record cut short ends the log, as the recording may have been killed
+            while (log.remaining() >= SessionRecorder.RECORD_HEADER_SIZE) {
+                int length = log.getInt();
+                int end = log.position() + length;
+                if (length < SessionRecorder.RECORD_HEADER_SIZE - 4 || end > log.limit()) {
+                    break;
+                }
+
+                byte type = log.get();
+                long time = log.getLong();
+                if (type == SessionRecorder.USB_DATA && end - log.position() >= 4) {
+                    int id = log.getInt();
+                    if (deviceId == ANY_DEVICE || id == deviceId) {
+                        if (chunkCount == chunkEnds.length) {
+                            chunkEnds = Arrays.copyOf(chunkEnds, chunkCount * 2);
+                            chunkTimes = Arrays.copyOf(chunkTimes, chunkCount * 2);
+                        }
+
+                        int count = end - log.position();
+                        log.get(data, size, count);
+                        size += count;
+                        chunkEnds[chunkCount] = size;
+                        chunkTimes[chunkCount] = time;
+                        chunkCount++;
+                    }
+                }
+                log.position(end);
+            }
+            return new ReplaySerialTransport(data, chunkEnds, chunkTimes, chunkCount);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    // the stream in chunks of chunkSize bytes, each received as its last byte would be at bytesPerSecond
+    public static ReplaySerialTransport fromStream(byte[] stream, int chunkSize, long bytesPerSecond) {
+        assert(chunkSize > 0 && bytesPerSecond > 0);
+
+        int chunkCount = (stream.length + chunkSize - 1) / chunkSize;
+        int[] chunkEnds = new int[chunkCount];
+        long[] chunkTimes = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunkEnds[i] = Math.min(stream.length, (i + 1) * chunkSize);
+            chunkTimes[i] = chunkEnds[i] * 1000000000L / bytesPerSecond;
+        }
+        return new ReplaySerialTransport(stream, chunkEnds, chunkTimes, chunkCount);
+    }
+
+    private ReplaySerialTransport(byte[] data, int[] chunkEnds, long[] chunkTimes, int chunkCount) {
+        super();
+
+        _data = data;
+        _chunkEnds = chunkEnds;
+        _chunkTimes = chunkTimes;
+        _chunkCount = chunkCount;
+        _speed = REAL_TIME;
+        rewind();
+    }
+
+    private byte[] _data;
+    private int[] _chunkEnds;       // the end of every chunk in _data
+    private long[] _chunkTimes;
+    private int _chunkCount;
+    private int _nextChunk;
+    private int _position;          // in _data, within the next chunk
+    private double _speed;
+    private long _startTime;        // System.nanoTime() when _baseTime was played, -1 until the next read
+    private long _baseTime;
+    private long _time;
+    private long _writtenCount;
+
+    public int getChunkCount() { return _chunkCount; }
+
+    public int size() {
+        return _chunkCount > 0 ? _chunkEnds[_chunkCount - 1] : 0;
+    }
+
+    // REAL_TIME, a factor of it, or MAX_SPEED to read every chunk as soon as asked
+    public void setSpeed(double speed) {
+        assert(speed >= 0);
+
+        _speed = speed;
+        _startTime = -1;
+    }
+
+    public double getSpeed() { return _speed; }
+
+    public void rewind() {
+        _nextChunk = 0;
+        _position = 0;
+        _startTime = -1;
+        _time = _chunkCount > 0 ? _chunkTimes[0] : 0;
+        _writtenCount = 0;
+    }
+
+    public boolean ended() { return _nextChunk == _chunkCount; }
+
+    // when the chunk read last was received, on the clock of the stream. stamps what is parsed from it.
+    public long getTime() { return _time; }
+
+    // bytes written, e.g. the commands of a parser
+    public long getWrittenCount() { return _writtenCount; }
+
+    // System.nanoTime() when the next chunk is due
+    private long dueTime() {
+        if (_startTime < 0) {
+            _startTime = System.nanoTime();
+            _baseTime = _chunkTimes[_nextChunk];
+        }
+        return _startTime + (long)((_chunkTimes[_nextChunk] - _baseTime) / _speed);
+    }
+
+    // implements ISerialTransport
+    @Override
+    public int syncWrite(byte[] buffer, int timeout) {
+        if (buffer == null) {
+            return 0;
+        }
+
+        _writtenCount += buffer.length;
+        return buffer.length;
+    }
+
+    // waits up to timeout for the next chunk to be due, forever if 0, and returns 0 if it is not yet.
+    // returns -1 at the end of the stream.
+    @Override
+    public int syncRead(byte[] buffer, int offset, int timeout) {
+        if (ended()) {
+            return -1;
+        }
+        if (buffer == null) {
+            return 0;
+        }
+
+        if (_speed > 0) {
+            long due = dueTime();
+            long deadline = System.nanoTime() + timeout * 1000000L;
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                if (timeout > 0 && now >= deadline) {
+                    return 0;
+                }
+                LockSupport.parkNanos(this, timeout > 0 ? Math.min(due, deadline) - now : due - now);
+            }
+        }
+
+        int end = _chunkEnds[_nextChunk];
+        int count = Math.min(end - _position, buffer.length - offset);
+        System.arraycopy(_data, _position, buffer, offset, count);
+        _position += count;
+        _time = _chunkTimes[_nextChunk];
+
+        // a chunk larger than the buffer is read over several calls, as a bulk transfer would split it
+        if (_position == end) {
+            _nextChunk++;
+        }
+        return count;
+    }
+}
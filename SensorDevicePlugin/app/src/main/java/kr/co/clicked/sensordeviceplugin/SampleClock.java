@@ -0,0 +1,102 @@
+package kr.co.clicked.sensordeviceplugin;
+
+// times the samples of a stream by their counter at the nominal rate, instead of by the chunk they arrived in.
+// a sample is taken before it arrives, so of the times its counter gives from each arrival, the earliest is the closest
+// to the clock of the board. the clock creeps forward by 250 ppm, so that it follows a board a little faster than
+// nominal, and it never stamps a sample later than its arrival, nor at or before the sample timed before it. as the
+// first chunk tells nothing of how far apart its samples were taken, its samples are stamped a nanosecond apart.
+// the counter wraps, so a gap of whole wraps goes unseen. the clock re-anchors to the arrivals when the stream stalled
+// for more than half a wrap, or when every sample arrived late by more than a few periods for a while, which the creep
+// alone would take hours to catch up with. samples which were only held up by such a stall are then stamped at their
+// arrival, as nothing tells them from the samples after a lost wrap.
+public class SampleClock {
+    // the window over which the samples have to arrive late to re-anchor, in arrival time.
+    // longer than a backlog of the parser takes to drain, so samples which were only delayed do not re-anchor.
+    public static final long LATE_WINDOW_NANOS = 250 * 1000 * 1000;
+    public static final int MAX_LATE_PERIODS = 4;
+
+    private static final long CREEP_DIVISOR = 4000;
+
+    public SampleClock(int sampleNumberModulo, long periodNanos) {
+        reset(sampleNumberModulo, periodNanos);
+    }
+
+    private int _modulo;
+    private long _period;
+    private boolean _started;
+    private int _sampleNumber;          // of the last sample timed
+    private long _arrival;              // of the last sample timed
+    private long _index;                // samples since the clock started, lost ones included
+    private long _offset;               // the time of sample index 0
+    private long _time;                 // of the last sample timed
+    private long _windowStart;
+    private long _windowMinLateness;    // of the samples arrived in the window, from the time the clock gave them
+    private long _reanchorCount;
+
+    // starts over with the next sample
+    public void reset(int sampleNumberModulo, long periodNanos) {
+        _modulo = sampleNumberModulo;
+        _period = periodNanos;
+        _started = false;
+    }
+
+    // times the sample of the counter value, which arrived at arrival
+    public long sampleTime(int sampleNumber, long arrival) {
+        if (_started == false) {
+            _started = true;
+            _index = 0;
+            _offset = arrival;
+            startWindow(arrival);
+        }
+        else {
+            int gap = Math.max((sampleNumber - _sampleNumber + _modulo) % _modulo, 1);
+            _index += gap;
+            _offset += _period / CREEP_DIVISOR;
+
+            long lateness = arrival - (_offset + _index * _period);
+            if (lateness < 0) {
+                _offset += lateness;
+                lateness = 0;
+                if (_offset + _index * _period <= _time) {
+                    _offset = _time + 1 - _index * _period;
+                }
+            }
+
+            if (arrival - _arrival > gap * _period + _modulo * _period / 2) {
+                // the stream stalled for longer than half a wrap, so it may have lost wraps the counter cannot tell
+                reanchor(lateness);
+                startWindow(arrival);
+            }
+            else {
+                _windowMinLateness = Math.min(_windowMinLateness, lateness);
+                if (arrival - _windowStart >= LATE_WINDOW_NANOS) {
+                    if (_windowMinLateness > MAX_LATE_PERIODS * _period) {
+                        // every sample of the window arrived late, so samples were lost which the counter did not count
+                        reanchor(_windowMinLateness);
+                    }
+                    startWindow(arrival);
+                }
+            }
+        }
+
+        _sampleNumber = sampleNumber;
+        _arrival = arrival;
+        _time = _offset + _index * _period;
+        return _time;
+    }
+
+    private void reanchor(long lateness) {
+        if (lateness > 0) {
+            _offset += lateness;
+            _reanchorCount++;
+        }
+    }
+
+    private void startWindow(long arrival) {
+        _windowStart = arrival;
+        _windowMinLateness = Long.MAX_VALUE;
+    }
+
+    // times the clock jumped forward to the arrivals
+    public long getReanchorCount() { return _reanchorCount; }
+}
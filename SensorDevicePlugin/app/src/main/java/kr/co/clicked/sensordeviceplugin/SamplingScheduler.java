@@ -0,0 +1,176 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SamplingScheduler implements Runnable {
+    // bucket 0 : lateness < 1us, bucket n : 2^(n-1)us <= lateness < 2^n us, the last bucket is unbounded
+    public static final int LATENESS_BUCKETS = 16;
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+    private static final long NANOS_PER_SECOND = 1000 * NANOS_PER_MILLI;
+
+    public enum LatePolicy {
+        CatchUp,    // run every missed tick back to back, up to maxCatchUpTicks
+        Skip        // drop missed ticks and resume from the latest deadline on the grid
+    }
+
+    public interface Task {
+        void onTick(long tickIndex, long deadlineNanos);
+    }
+
+    public SamplingScheduler(Handler handler, Task task, float rate) {
+        super();
+
+        _handler = handler;
+        _task = task;
+        _periodNanos = Math.max(1, Math.round(NANOS_PER_SECOND / (double)rate));
+        _latePolicy = LatePolicy.CatchUp;
+        _maxCatchUpTicks = 1;
+
+        _tickCount = new AtomicLong();
+        _skippedTickCount = new AtomicLong();
+        _maxLatenessNanos = new AtomicLong();
+        _latenessHistogram = new AtomicLongArray(LATENESS_BUCKETS);
+    }
+
+    private Handler _handler;
+    private Task _task;
+    private long _periodNanos;
+    private LatePolicy _latePolicy;
+    private int _maxCatchUpTicks;
+    private volatile boolean _running;
+
+    private long _uptimeOffsetNanos;
+    private long _startNanos;
+    private long _nextTick;
+
+    private AtomicLong _tickCount;
+    private AtomicLong _skippedTickCount;
+    private AtomicLong _maxLatenessNanos;
+    private AtomicLongArray _latenessHistogram;
+    private volatile MetricsRegistry.Histogram _latenessNanos;
+
+    // nanoseconds on the SystemClock.uptimeMillis() time base
+    private long now() {
+        return System.nanoTime() + _uptimeOffsetNanos;
+    }
+
+    private long deadlineOf(long tick) {
+        return _startNanos + tick * _periodNanos;
+    }
+
+    private static int latenessBucket(long latenessNanos) {
+        long micros = latenessNanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < LATENESS_BUCKETS ? bucket : LATENESS_BUCKETS - 1;
+    }
+
+    private void recordLateness(long latenessNanos) {
+        _latenessHistogram.incrementAndGet(latenessBucket(latenessNanos));
+        MetricsRegistry.Histogram histogram = _latenessNanos;
+        if (histogram != null) {
+            histogram.record(latenessNanos);
+        }
+        if (latenessNanos > _maxLatenessNanos.get()) {
+            _maxLatenessNanos.lazySet(latenessNanos);
+        }
+        _tickCount.lazySet(_tickCount.get() + 1);
+    }
+
+    public long periodNanos() { return _periodNanos; }
+
+    // converts a System.nanoTime() value onto the time base of the deadlines
+    public long toUptimeNanos(long nanoTime) {
+        return nanoTime + _uptimeOffsetNanos;
+    }
+
+    public long toNanoTime(long uptimeNanos) {
+        return uptimeNanos - _uptimeOffsetNanos;
+    }
+
+    // records the lateness of every tick in nanoseconds too, at a finer resolution than getLatenessHistogram()
+    public void setLatenessHistogram(MetricsRegistry.Histogram histogram) {
+        _latenessNanos = histogram;
+    }
+
+    public void setLatePolicy(LatePolicy policy, int maxCatchUpTicks) {
+        assert(maxCatchUpTicks >= 1);
+
+        _latePolicy = policy;
+        _maxCatchUpTicks = Math.max(1, maxCatchUpTicks);
+    }
+
+    public void start() {
+        assert(_running == false);
+
+        _uptimeOffsetNanos = SystemClock.uptimeMillis() * NANOS_PER_MILLI - System.nanoTime();
+
+        // phase-lock the grid to a whole millisecond so that the first deadline is exactly postable
+        _startNanos = (now() / NANOS_PER_MILLI + 1) * NANOS_PER_MILLI;
+        _nextTick = 0;
+        _running = true;
+
+        _handler.postAtTime(this, _startNanos / NANOS_PER_MILLI);
+    }
+
+    public void stop() {
+        _running = false;
+        _handler.removeCallbacks(this);
+    }
+
+    public long getTickCount() { return _tickCount.get(); }
+
+    public long getSkippedTickCount() { return _skippedTickCount.get(); }
+
+    public long getMaxLatenessNanos() { return _maxLatenessNanos.get(); }
+
+    public void getLatenessHistogram(long[] counts) {
+        int length = Math.min(counts.length, LATENESS_BUCKETS);
+        for (int i = 0; i < length; i++) {
+            counts[i] = _latenessHistogram.get(i);
+        }
+    }
+
+    public void resetStatistics() {
+        for (int i = 0; i < LATENESS_BUCKETS; i++) {
+            _latenessHistogram.set(i, 0);
+        }
+        _maxLatenessNanos.set(0);
+        _skippedTickCount.set(0);
+        _tickCount.set(0);
+    }
+
+    // implements Runnable
+    @Override
+    public void run() {
+        if (_running == false) {
+            return;
+        }
+
+        long current = now();
+        long missed = (current - deadlineOf(_nextTick)) / _periodNanos;
+        if (missed > 0 && (_latePolicy == LatePolicy.Skip || missed >= _maxCatchUpTicks)) {
+            long skipped = _latePolicy == LatePolicy.Skip ? missed : missed - _maxCatchUpTicks + 1;
+            _nextTick += skipped;
+            _skippedTickCount.lazySet(_skippedTickCount.get() + skipped);
+        }
+
+        while (_running && deadlineOf(_nextTick) <= current) {
+            long deadline = deadlineOf(_nextTick);
+            recordLateness(now() - deadline);
+
+            _task.onTick(_nextTick, deadline);
+            _nextTick++;
+        }
+
+        if (_running) {
+            // round up so that a tick never runs ahead of its deadline
+            long next = deadlineOf(_nextTick);
+            _handler.postAtTime(this, (next + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI);
+        }
+    }
+}
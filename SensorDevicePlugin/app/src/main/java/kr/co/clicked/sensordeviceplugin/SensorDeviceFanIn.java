@@ -0,0 +1,98 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.List;
+
+// keeps every available candidate open at once, instead of the first one only.
+// a usb device is updated by a reader thread of its own, the others deliver on their own threads already.
+// the first open candidate is the current device, which fills the fixed frame of MotionData.
+public class SensorDeviceFanIn<T extends ISensorDevice> extends SensorDeviceSelector<T> {
+    public SensorDeviceFanIn(List<T> candidates, Object lock, long readIntervalNanos) {
+        super(candidates, lock);
+
+        _readIntervalNanos = readIntervalNanos;
+        _open = new ISensorDevice[candidates.size()];
+        _readers = new SensorDeviceReader[candidates.size()];
+    }
+
+    private long _readIntervalNanos;
+    private volatile ISensorDevice[] _open;     // by the index of the candidate, null where closed. replaced as a whole under lock
+    private SensorDeviceReader[] _readers;      // hot-plug thread only
+
+    public int getCandidateCount() { return _readers.length; }
+
+    // the candidate of index if it is open, or null. stays the same while the lock is held.
+    @SuppressWarnings("unchecked")
+    public T getOpen(int index) { return (T)_open[index]; }
+
+    private void publish(ISensorDevice[] open) {
+        T current = null;
+        for (int i = 0; i < open.length && current == null; i++) {
+            current = getOpen(open, i);
+        }
+
+        synchronized (getLock()) {
+            _open = open;
+            setCurrent(current);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T getOpen(ISensorDevice[] open, int index) { return (T)open[index]; }
+
+    // the devices which are gone are taken out before their readers stop and they close,
+    // and the devices which came are published once they are open and read
+    @Override
+    public boolean select() {
+        List<T> candidates = getCandidates();
+        ISensorDevice[] open = _open.clone();
+        ISensorDevice[] gone = new ISensorDevice[open.length];
+        boolean changed = false;
+
+        for (int i = 0; i < open.length; i++) {
+            T candidate = candidates.get(i);
+            if (open[i] != null && candidate.available() == false) {
+                gone[i] = open[i];
+                open[i] = null;
+                changed = true;
+            }
+            else if (open[i] == null && candidate.available() && candidate.open()) {
+                if (candidate instanceof UsbSensorDevice) {
+                    _readers[i] = new SensorDeviceReader(candidate, _readIntervalNanos);
+                    _readers[i].start();
+                }
+                open[i] = candidate;
+                changed = true;
+            }
+        }
+        if (changed == false) {
+            return false;
+        }
+
+        publish(open);
+        for (int i = 0; i < gone.length; i++) {
+            if (gone[i] != null) {
+                closeDevice(i, gone[i]);
+            }
+        }
+        return true;
+    }
+
+    private void closeDevice(int index, ISensorDevice device) {
+        if (_readers[index] != null) {
+            _readers[index].shutdown();
+            _readers[index] = null;
+        }
+        device.close();
+    }
+
+    @Override
+    public void close() {
+        ISensorDevice[] open = _open;
+        publish(new ISensorDevice[open.length]);
+        for (int i = 0; i < open.length; i++) {
+            if (open[i] != null) {
+                closeDevice(i, open[i]);
+            }
+        }
+    }
+}
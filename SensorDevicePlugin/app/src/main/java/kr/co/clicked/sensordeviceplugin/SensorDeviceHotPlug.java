@@ -0,0 +1,122 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.hardware.usb.UsbDevice;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// the registry of attached usb devices, kept from the events of a source, and the selection of the sensor devices,
+// run again on every event. it all runs on the thread of the source, so the sampler thread is never involved.
+// with a fake source it runs on a plain jvm, as long as the sensor devices do.
+public class SensorDeviceHotPlug implements IUsbDeviceEventSource.Listener {
+    private static class AttachedDevice {
+        public AttachedDevice(int vendorId, int productId, UsbDevice device) {
+            this.vendorId = vendorId;
+            this.productId = productId;
+            this.device = device;
+        }
+
+        public int vendorId;
+        public int productId;
+        public UsbDevice device;
+    }
+
+    public SensorDeviceHotPlug(IUsbDeviceEventSource source) {
+        _source = source;
+        _selectors = new ArrayList<>();
+        _attached = new LinkedHashMap<>();
+        _usbDevices = UsbDeviceTable.EMPTY;
+        _attachCount = new AtomicLong();
+        _detachCount = new AtomicLong();
+        _selectionCount = new AtomicLong();
+    }
+
+    private IUsbDeviceEventSource _source;
+    private ArrayList<SensorDeviceSelector<?>> _selectors;
+    private LinkedHashMap<String, AttachedDevice> _attached;    // in the order of attachment
+    private volatile UsbDeviceTable _usbDevices;
+    private AtomicLong _attachCount;
+    private AtomicLong _detachCount;
+    private AtomicLong _selectionCount;
+
+    // before start()
+    public void addSelector(SensorDeviceSelector<?> selector) {
+        _selectors.add(selector);
+    }
+
+    // selects among the devices which need no usb on the calling thread, then follows the source.
+    // the source hands its events over to its own thread, so they come after this selection.
+    public void start() {
+        for (SensorDeviceSelector<?> selector : _selectors) {
+            // the devices available from the start did not change, so they have to be selected here
+            boolean selected = selector.update(_usbDevices);
+            if (selector.select() || selected) {
+                _selectionCount.lazySet(_selectionCount.get() + 1);
+            }
+        }
+        _source.start(this);
+    }
+
+    // events may still come until the thread of the source has stopped
+    public void stop() {
+        _source.stop();
+    }
+
+    public UsbDeviceTable getUsbDevices() { return _usbDevices; }
+
+    public long getAttachCount() { return _attachCount.get(); }
+
+    public long getDetachCount() { return _detachCount.get(); }
+
+    // times a current device changed
+    public long getSelectionCount() { return _selectionCount.get(); }
+
+    private void publish() {
+        int count = _attached.size();
+        int[] vendorIds = new int[count];
+        int[] productIds = new int[count];
+        UsbDevice[] devices = new UsbDevice[count];
+        int i = 0;
+        for (AttachedDevice attached : _attached.values()) {
+            vendorIds[i] = attached.vendorId;
+            productIds[i] = attached.productId;
+            devices[i] = attached.device;
+            i++;
+        }
+        _usbDevices = new UsbDeviceTable(vendorIds, productIds, devices, count);
+    }
+
+    private void update() {
+        for (SensorDeviceSelector<?> selector : _selectors) {
+            if (selector.update(_usbDevices)) {
+                _selectionCount.lazySet(_selectionCount.get() + 1);
+            }
+        }
+    }
+
+    // implements IUsbDeviceEventSource.Listener
+    @Override
+    public void onUsbDeviceAttached(String name, int vendorId, int productId, UsbDevice device) {
+        AttachedDevice previous = _attached.put(name, new AttachedDevice(vendorId, productId, device));
+        if (previous != null && previous.vendorId == vendorId && previous.productId == productId) {
+            // reported twice
+            return;
+        }
+
+        _attachCount.lazySet(_attachCount.get() + 1);
+        publish();
+        update();
+    }
+
+    @Override
+    public void onUsbDeviceDetached(String name) {
+        if (_attached.remove(name) == null) {
+            return;
+        }
+
+        _detachCount.lazySet(_detachCount.get() + 1);
+        publish();
+        update();
+    }
+}
@@ -5,115 +5,331 @@ import android.hardware.SensorManager;
 import android.hardware.usb.UsbManager;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.SystemClock;
+import android.os.Process;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Arrays;
 
 public class SensorDeviceManager extends HandlerThread {
     private static final String LogTag = "SensorDeviceManager";
+    private static final int DEFAULT_MAX_CATCH_UP_TICKS = 4;
+    private static final int DEFAULT_MOTION_DATA_QUEUE_DEPTH = 32;
+
+    public enum BiosignalEmitMode {
+        Latest,     // one frame per tick with the latest biosignal sample
+        Average,    // one frame per tick with the average of the biosignal samples since the previous tick
+        All         // one frame per biosignal sample, stamped with its sample time, or with the time of the frame before
+                    // when that is later. a tick without one holds the last
+    }
 
-    private class SensorDataPollTask implements Runnable {
-        public SensorDataPollTask(float pollingRate, float intervalToReport) {
+    private class SensorDataPollTask implements SamplingScheduler.Task {
+        public SensorDataPollTask(float intervalToReport) {
             super();
 
-            _startTime = SystemClock.uptimeMillis();
-            _pollingRate = pollingRate;
-            _elapsedIntervalCount = 0;
-            _intervalToReport = (long)(intervalToReport * 1000);
+            _intervalToReport = (long)(intervalToReport * 1000 * 1000 * 1000);
+            _reportStartTime = -1;
             _sampleNumber = (byte)0;
+            _biosignalSample = new BiosignalSensorData();
+            _biosignalAverage = new BiosignalSensorData();
+            _biosignalSum = new float[BiosignalSensorData.MAX_CHANNELS];
+            _timeline = new FrameTimeline();
         }
 
-        private float _pollingRate;
-        private long _startTime;
-        private long _elapsedIntervalCount;
-        private long _polledCount;
         private long _intervalToReport;
+        private long _reportStartTime;
+        private long _reportStartTick;
+        private long _reportStartSkipped;
         private byte _sampleNumber;
+        private BiosignalSensorData _biosignalSample;
+        private BiosignalSensorData _biosignalAverage;
+        private float[] _biosignalSum;
+        private IBiosignalSensorDevice _heldBiosignalDevice;     // whose last sample _biosignalSample holds, or null
+        private BiosignalAligner[] _biosignalAligners;     // fan-in only, by the index of the candidate
+        private FrameTimeline _timeline;     // the frames of the All mode mix sample times and deadlines
+
+        // sampleTime is on the time base of the deadlines. the inertia readings are interpolated at that time.
+        private MotionData create(long sampleTime, BiosignalSensorData biosignal, InertiaSensorData inertia) {
+            sampleTime = _timeline.stamp(sampleTime);
+            if (inertia != null) {
+                long nanoTime = _scheduler.toNanoTime(sampleTime);
+                inertia.resample(nanoTime);
+                _orientationPredictor.predict(nanoTime, inertia);
+            }
 
-        private long nextTimeToPoll(long current) {
-            long result;
-            do {
-                result = _startTime + (long)((++_elapsedIntervalCount) * (1000 / _pollingRate));
-            } while (result <= current);
+            return MotionData.create(_sampleNumber, MotionData.toFlicks(sampleTime), biosignal, inertia);
+        }
 
-            _polledCount++;
-            if (current - _startTime >= _intervalToReport) {
-                Log.d(LogTag, String.format("sampling rate : %f/sec",
-                        _polledCount * 1000.0 / (current - _startTime)));
+        private void emit(long sampleTime, BiosignalSensorData biosignal, InertiaSensorData inertia) {
+            publish(create(sampleTime, biosignal, inertia));
+        }
 
-                _startTime = current;
-                _elapsedIntervalCount = 0;
-                _polledCount = 0;
+        private void publish(MotionData motionData) {
+            if (motionData != null) {
+                SessionRecorder recorder = _recorder;
+                if (recorder != null) {
+                    recorder.recordMotionData(motionData.getData(), motionData.getLength());
+                }
+                if (_motionData.offer(motionData) == false) {
+                    MotionData.dispose(motionData);
+                }
+                _sampleNumber++;
             }
-            return result;
         }
 
-        @Override
-        public void run() {
-            assert(_handler != null);
+        private void emitHeld(long sampleTime, BiosignalSensorData biosignal, InertiaSensorData inertia) {
+            MotionData motionData = create(sampleTime, biosignal, inertia);
+            if (motionData != null && biosignal != null) {
+                motionData.addBiosignalHeldMark();
+            }
+            publish(motionData);
+        }
 
-            long current = SystemClock.uptimeMillis();
+        private BiosignalSensorData averageBiosignal(IBiosignalSensorDevice device) {
+            int count = 0;
+            Arrays.fill(_biosignalSum, 0);
+            int channelCount = 0;
+            while (device.pollValue(_biosignalSample)) {
+                channelCount = Math.max(channelCount, _biosignalSample.getChannelCount());
+                for (int i = 0; i < _biosignalSample.getChannelCount(); i++) {
+                    _biosignalSum[i] += _biosignalSample.getValue(i);
+                }
+                count++;
+            }
+            if (count == 0) {
+                // no new sample since the previous tick
+                return device.getCurrentValue();
+            }
 
-            synchronized(this) {
-                if (_currentBiosignalSensorDevice != null) {
-                    _currentBiosignalSensorDevice.update();
+            for (int i = 0; i < channelCount; i++) {
+                _biosignalAverage.setValue(i, _biosignalSum[i] / count);
+            }
+            _biosignalAverage.setChannelCount(channelCount);
+            _biosignalAverage.copyAuxFrom(_biosignalSample);
+            _biosignalAverage.setSampleNumber(_biosignalSample.getSampleNumber());
+            _biosignalAverage.setTimestamp(_biosignalSample.getTimestamp());
+            return _biosignalAverage;
+        }
+
+        private void emitBiosignal(long deadlineNanos, IBiosignalSensorDevice device, InertiaSensorData inertia) {
+            switch (_biosignalEmitMode) {
+                case Average:
+                    emit(deadlineNanos, averageBiosignal(device), inertia);
+                    break;
+                case All:
+                    boolean emitted = false;
+                    while (device.pollValue(_biosignalSample)) {
+                        emit(_scheduler.toUptimeNanos(_biosignalSample.getTimestamp()), _biosignalSample, inertia);
+                        _heldBiosignalDevice = device;
+                        emitted = true;
+                    }
+                    if (emitted == false) {
+                        // the inertia readings keep the rate of the ticks. the frame repeats the last sample, marked
+                        // as such, rather than zeros which would read as a real sample of 0 uV.
+                        emitHeld(deadlineNanos, _heldBiosignalDevice == device ? _biosignalSample : null, inertia);
+                    }
+                    break;
+                default:
+                    while (device.pollValue(_biosignalSample)) {
+                        // discard all but the latest
+                    }
+                    emit(deadlineNanos, device.getCurrentValue(), inertia);
+                    break;
+            }
+        }
+
+        // one frame per tick, with every open device sampled at the deadline.
+        // the first open device of each kind fills the fixed frame, and the others follow as payloads.
+        private void emitFanIn(long deadlineNanos) {
+            long nanoTime = _scheduler.toNanoTime(deadlineNanos);
+            int biosignalCount = _biosignalFanIn.getCandidateCount();
+            if (_biosignalAligners == null) {
+                _biosignalAligners = new BiosignalAligner[biosignalCount];
+                for (int i = 0; i < biosignalCount; i++) {
+                    _biosignalAligners[i] = new BiosignalAligner();
                 }
-                if (_currentMotionSensorDevice != null) {
-                    _currentMotionSensorDevice.update();
+            }
+
+            BiosignalSensorData primaryBiosignal = null;
+            int primaryBiosignalIndex = -1;
+            for (int i = 0; i < biosignalCount; i++) {
+                IBiosignalSensorDevice device = _biosignalFanIn.getOpen(i);
+                if (device == null) {
+                    _biosignalAligners[i].clear();
                 }
+                else if (primaryBiosignalIndex < 0) {
+                    primaryBiosignal = _biosignalAligners[i].align(device, nanoTime);
+                    primaryBiosignalIndex = i;
+                }
+            }
 
-                MotionData motionData =
-                        MotionData.create(_sampleNumber,
-                                          current * 705600, // to flicks
-                                          _currentBiosignalSensorDevice != null ? _currentBiosignalSensorDevice.getCurrentValue() : null,
-                                          _currentMotionSensorDevice != null ? _currentMotionSensorDevice.getCurrentValue() : null);
-                if (motionData != null) {
-                    try {
-                        _motionData.add(motionData);
-                        _sampleNumber++;
-                    }
-                    catch (IllegalStateException e) {
-                        MotionData.dispose(motionData);
+            InertiaSensorData primaryInertia = null;
+            int primaryInertiaIndex = -1;
+            for (int i = 0; i < _motionFanIn.getCandidateCount(); i++) {
+                IInertiaSensorDevice device = _motionFanIn.getOpen(i);
+                InertiaSensorData inertia = device != null ? device.getCurrentValue() : null;
+                if (inertia != null && primaryInertiaIndex < 0) {
+                    inertia.snapshot();
+                    inertia.resample(nanoTime);
+                    _orientationPredictor.predict(nanoTime, inertia);
+                    primaryInertia = inertia;
+                    primaryInertiaIndex = i;
+                }
+            }
+
+            MotionData motionData = MotionData.create(_sampleNumber, MotionData.toFlicks(deadlineNanos), primaryBiosignal, primaryInertia);
+            for (int i = primaryBiosignalIndex + 1; i < biosignalCount && primaryBiosignalIndex >= 0; i++) {
+                IBiosignalSensorDevice device = _biosignalFanIn.getOpen(i);
+                BiosignalSensorData biosignal = device != null ? _biosignalAligners[i].align(device, nanoTime) : null;
+                if (biosignal != null && motionData != null) {
+                    motionData.addPayload(i, MotionData.PAYLOAD_BIOSIGNAL, biosignal.getData(), biosignal.getChannelCount());
+                    motionData.addAuxPayload(i, biosignal);
+                }
+            }
+            for (int i = primaryInertiaIndex + 1; i < _motionFanIn.getCandidateCount() && primaryInertiaIndex >= 0; i++) {
+                IInertiaSensorDevice device = _motionFanIn.getOpen(i);
+                InertiaSensorData inertia = device != null ? device.getCurrentValue() : null;
+                if (inertia != null) {
+                    inertia.snapshot();
+                    inertia.resample(nanoTime);
+                    if (motionData != null) {
+                        motionData.addPayload(i, MotionData.PAYLOAD_INERTIA, inertia.getData(), InertiaSensorData.SIZE / 4);
                     }
                 }
             }
-            _handler.postAtTime(this, nextTimeToPoll(current));
+            publish(motionData);
+        }
+
+        private void report(long tickIndex, long deadlineNanos) {
+            if (_reportStartTime < 0) {
+                _reportStartTime = deadlineNanos;
+                _reportStartTick = tickIndex;
+                _reportStartSkipped = _scheduler.getSkippedTickCount();
+            }
+            else if (deadlineNanos - _reportStartTime >= _intervalToReport) {
+                long skipped = _scheduler.getSkippedTickCount() - _reportStartSkipped;
+                Log.d(LogTag, String.format("sampling rate : %f/sec, skipped : %d, max lateness : %d us",
+                        (tickIndex - _reportStartTick - skipped) * 1000000000.0 / (deadlineNanos - _reportStartTime),
+                        skipped,
+                        _scheduler.getMaxLatenessNanos() / 1000));
+
+                _reportStartTime = deadlineNanos;
+                _reportStartTick = tickIndex;
+                _reportStartSkipped += skipped;
+            }
+        }
+
+        @Override
+        public void onTick(long tickIndex, long deadlineNanos) {
+            synchronized(this) {
+                if (_biosignalFanIn != null) {
+                    // the devices are updated by their readers
+                    emitFanIn(deadlineNanos);
+                    report(tickIndex, deadlineNanos);
+                    return;
+                }
+
+                // the hot-plug thread swaps the current devices under this lock
+                IBiosignalSensorDevice biosignalDevice = _biosignalSelector.getCurrent();
+                IInertiaSensorDevice motionDevice = _motionSelector.getCurrent();
+                if (biosignalDevice != null) {
+                    biosignalDevice.update();
+                }
+                if (motionDevice != null) {
+                    motionDevice.update();
+                }
+
+                InertiaSensorData inertia = motionDevice != null ? motionDevice.getCurrentValue() : null;
+                if (inertia != null) {
+                    // every frame of this tick copies the same snapshot
+                    inertia.snapshot();
+                }
+                if (biosignalDevice != null) {
+                    emitBiosignal(deadlineNanos, biosignalDevice, inertia);
+                }
+                else {
+                    emit(deadlineNanos, null, inertia);
+                }
+            }
+            report(tickIndex, deadlineNanos);
         }
     }
 
     public SensorDeviceManager(Context context, float sampleRate) {
-        super("SensorDeviceManager");
+        super("SensorDeviceManager", Process.THREAD_PRIORITY_URGENT_DISPLAY);
 
         _sampleRate = sampleRate;
+        _latePolicy = SamplingScheduler.LatePolicy.CatchUp;
+        _maxCatchUpTicks = DEFAULT_MAX_CATCH_UP_TICKS;
 
+        _context = context;
         _usbManager = (UsbManager)context.getSystemService(Context.USB_SERVICE);
         assert(_usbManager != null);
 
         _sensorManager = (SensorManager)context.getSystemService(Context.SENSOR_SERVICE);
         assert(_sensorManager != null);
 
-        _motionData = new ArrayBlockingQueue<>(4);
+        _motionDataQueueDepth = DEFAULT_MOTION_DATA_QUEUE_DEPTH;
+        _motionDataOverflowPolicy = MotionDataRing.OverflowPolicy.OverwriteOldest;
+        _biosignalEmitMode = BiosignalEmitMode.All;
+        _orientationPredictor = new OrientationPredictor(OrientationPredictor.DEFAULT_MAX_PENDING_PREDICTIONS);
+        _motionDataEncoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Fixed24,
+                                                 MotionDataCodec.InertiaEncoding.Float16,
+                                                 MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+        _strippedMotionDataCount = new MetricsRegistry.Counter();
+        _metrics = new MetricsRegistry();
+        registerMetrics(_metrics);
     }
 
+    private Context _context;
     private UsbManager _usbManager;
     private SensorManager _sensorManager;
     private Handler _handler;
     private float _sampleRate;
+    private SamplingScheduler.LatePolicy _latePolicy;
+    private int _maxCatchUpTicks;
     private SensorDataPollTask _pollTask;
-    private ArrayBlockingQueue<MotionData> _motionData;
+    private SamplingScheduler _scheduler;
+    private int _motionDataQueueDepth;
+    private MotionDataRing.OverflowPolicy _motionDataOverflowPolicy;
+    private MotionDataRing _motionData;
+    private MotionData _heldMotionData;
+    private volatile BiosignalEmitMode _biosignalEmitMode;
+    private OrientationPredictor _orientationPredictor;
+    private MotionDataCodec _motionDataEncoder;   // consumer only
+    private ByteBuffer _encodedMotionData;        // consumer only, wraps the last buffer of getEncodedMotionDataBatch()
+    private ByteBuffer _nativeMotionData;         // consumer only, wraps the last buffer of getNativeMotionDataBatch()
+    private ByteBuffer _motionDataExport;
+    private ByteBuffer _motionDataStream;         // consumer only, wraps the last buffer of getMotionDataStream()
+    private MotionData _pendingStreamMotionData;  // consumer only, did not fit in the last getMotionDataStream()
+    private MetricsRegistry.Counter _strippedMotionDataCount;
+    private volatile SessionRecorder _recorder;
+    private volatile SessionRecorder _lastRecorder;
+    private MetricsRegistry _metrics;
 
     private ArrayList<IBiosignalSensorDevice> _biosignalSensorDevices;
     private ArrayList<IInertiaSensorDevice> _motionSensorDevices;
-    private IBiosignalSensorDevice _currentBiosignalSensorDevice;
-    private IInertiaSensorDevice _currentMotionSensorDevice;
+    private SensorDeviceSelector<IBiosignalSensorDevice> _biosignalSelector;
+    private SensorDeviceSelector<IInertiaSensorDevice> _motionSelector;
+    private boolean _fanIn;
+    private boolean _biosignalAux;
+    private SensorDeviceFanIn<IBiosignalSensorDevice> _biosignalFanIn;     // the selectors in fan-in
+    private SensorDeviceFanIn<IInertiaSensorDevice> _motionFanIn;
+    private IUsbDeviceEventSource _usbDeviceEventSource;
+    private HandlerThread _hotPlugThread;
+    private SensorDeviceHotPlug _hotPlug;
 
     private void createBiosignalSensorDevices() {
         _biosignalSensorDevices = new ArrayList<>();
-        _biosignalSensorDevices.add(new OpenBciSensorDevice(_usbManager));
+        OpenBciSensorDevice openBci = new OpenBciSensorDevice(_usbManager);
+        openBci.setAuxEnabled(_biosignalAux);
+        _biosignalSensorDevices.add(openBci);
     }
 
     private void createMotionSensorDevices(Handler handler) {
@@ -122,77 +338,546 @@ public class SensorDeviceManager extends HandlerThread {
         _motionSensorDevices.add(new AndroidInertiaSensorDevice(_sensorManager, handler, _sampleRate * 2));
     }
 
-    private ISensorDevice getFirstAvailableSensorDevice(List devices) {
-        for (int i = 0; i < devices.size(); i++) {
-            if (devices.get(i) instanceof ISensorDevice && ((ISensorDevice)devices.get(i)).available()) {
-                return (ISensorDevice)devices.get(i);
-            }
+    // the metrics of the sampler. the devices register theirs once created.
+    private void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("sampler.ticks", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return getTickCount(); }
+        });
+        registry.gauge("sampler.skippedTicks", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return getSkippedTickCount(); }
+        });
+        registry.gauge("sampler.motionDataQueueDepth", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return getMotionDataQueueSize(); }
+        });
+        registry.gauge("sampler.droppedMotionData", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return getDroppedMotionDataCount(); }
+        });
+        registry.gauge("sampler.motionDataPoolInUse", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return getMotionDataPoolInUseCount(); }
+        });
+        registry.register("sampler.strippedMotionData", _strippedMotionDataCount);
+        registry.histogram("sampler.tickLatenessNanos");
+    }
+
+    public void startup() {
+        assert(_handler == null);
+        assert(_pollTask == null);
+
+        _motionData = new MotionDataRing(_motionDataQueueDepth, _motionDataOverflowPolicy);
+
+        start();
+        _handler = new Handler(getLooper());
+        _pollTask = new SensorDataPollTask(5.0f);
+        _scheduler = new SamplingScheduler(_handler, _pollTask, _sampleRate);
+        _scheduler.setLatePolicy(_latePolicy, _maxCatchUpTicks);
+        _scheduler.setLatenessHistogram(_metrics.histogram("sampler.tickLatenessNanos"));
+
+        createBiosignalSensorDevices();
+        createMotionSensorDevices(_handler);
+        setSessionRecorder(_recorder);
+        for (ISensorDevice device : _biosignalSensorDevices) {
+            device.registerMetrics(_metrics);
+        }
+        for (ISensorDevice device : _motionSensorDevices) {
+            device.registerMetrics(_metrics);
+        }
+
+        startHotPlug();
+
+        _scheduler.start();
+    }
+
+    // the devices are selected on the hot-plug thread, as usb devices come and go
+    private void startHotPlug() {
+        _hotPlugThread = new HandlerThread("SensorDeviceHotPlug");
+        _hotPlugThread.start();
+
+        IUsbDeviceEventSource source = _usbDeviceEventSource;
+        if (source == null) {
+            source = new UsbBroadcastEventSource(_context, _usbManager, new Handler(_hotPlugThread.getLooper()));
+        }
+
+        if (_fanIn) {
+            _biosignalFanIn = new SensorDeviceFanIn<>(_biosignalSensorDevices, _pollTask, SensorDeviceReader.DEFAULT_INTERVAL_NANOS);
+            _motionFanIn = new SensorDeviceFanIn<>(_motionSensorDevices, _pollTask, SensorDeviceReader.DEFAULT_INTERVAL_NANOS);
+            _biosignalSelector = _biosignalFanIn;
+            _motionSelector = _motionFanIn;
         }
-        return null;
+        else {
+            _biosignalSelector = new SensorDeviceSelector<>(_biosignalSensorDevices, _pollTask);
+            _motionSelector = new SensorDeviceSelector<>(_motionSensorDevices, _pollTask);
+        }
+        _hotPlug = new SensorDeviceHotPlug(source);
+        _hotPlug.addSelector(_biosignalSelector);
+        _hotPlug.addSelector(_motionSelector);
+        registerHotPlugMetrics(_metrics, _hotPlug);
+        _hotPlug.start();
+    }
+
+    private void stopHotPlug() {
+        _hotPlug.stop();
+        _hotPlugThread.quitSafely();
+        try {
+            _hotPlugThread.join();
+        }
+        catch (InterruptedException e) {
+            Log.w(LogTag, "interrupted while waiting for the hot plug thread to stop", e);
+            Thread.currentThread().interrupt();
+        }
+
+        _biosignalSelector.close();
+        _motionSelector.close();
+        _biosignalFanIn = null;
+        _motionFanIn = null;
+        _hotPlugThread = null;
+        _hotPlug = null;
+    }
+
+    private void registerHotPlugMetrics(MetricsRegistry registry, final SensorDeviceHotPlug hotPlug) {
+        registry.gauge("hotPlug.attached", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return hotPlug.getAttachCount(); }
+        });
+        registry.gauge("hotPlug.detached", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return hotPlug.getDetachCount(); }
+        });
+        registry.gauge("hotPlug.selections", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() { return hotPlug.getSelectionCount(); }
+        });
+    }
+
+    // replaces the usb broadcasts, e.g. with a replay. before startup().
+    public void setUsbDeviceEventSource(IUsbDeviceEventSource source) {
+        assert(_hotPlug == null);
+
+        _usbDeviceEventSource = source;
+    }
+
+    // the usb devices attached now
+    public int getAttachedUsbDeviceCount() {
+        SensorDeviceHotPlug hotPlug = _hotPlug;
+        return hotPlug != null ? hotPlug.getUsbDevices().size() : 0;
+    }
+
+    public void setLatePolicy(String policy, int maxCatchUpTicks) {
+        assert(_scheduler == null);
+
+        _latePolicy = SamplingScheduler.LatePolicy.valueOf(policy);
+        _maxCatchUpTicks = maxCatchUpTicks;
+    }
+
+    public void setMotionDataQueue(int depth, String overflowPolicy) {
+        assert(_motionData == null);
+        assert(depth > 0 && depth <= MotionData.POOL_SIZE / 2);
+
+        _motionDataQueueDepth = depth;
+        _motionDataOverflowPolicy = MotionDataRing.OverflowPolicy.valueOf(overflowPolicy);
+    }
+
+    // samples every available device at once instead of the first of each kind, each one read on a thread of its own.
+    // every tick emits one frame of all of them, and the biosignal emit mode does not apply. before startup().
+    public void setFanIn(boolean enabled) {
+        assert(_hotPlug == null);
+
+        _fanIn = enabled;
+    }
+
+    // the frames carry the aux data of the biosignal device as payloads, e.g. the accelerometer and the clock of a Cyton.
+    // the board stamps its packets then, and sends one axis of its accelerometer per packet. before startup().
+    public void setBiosignalAux(boolean enabled) {
+        assert(_hotPlug == null);
+
+        _biosignalAux = enabled;
+    }
+
+    public void setBiosignalEmitMode(String mode) {
+        _biosignalEmitMode = BiosignalEmitMode.valueOf(mode);
     }
 
-    private ISensorDevice updateCurrentSensorDevice(List candidates, ISensorDevice current) {
-        ISensorDevice result = getFirstAvailableSensorDevice(candidates);
-        if (current != result) {
-            if (current != null) {
-                current.close();
+    // the orientation of every MotionData is extrapolated this far ahead with the angular velocity. 0 disables it.
+    public void setOrientationLookAhead(float seconds) {
+        _orientationPredictor.setLookAheadNanos(Math.round(seconds * 1000000000.0));
+    }
+
+    public long getOrientationPredictionCount() {
+        return _orientationPredictor.getPredictionCount();
+    }
+
+    // scored against the orientation sampled later, at the predicted time
+    public long getScoredOrientationPredictionCount() {
+        return _orientationPredictor.getScoredCount();
+    }
+
+    public double getOrientationPredictionMeanError() {
+        return _orientationPredictor.getMeanErrorRadians();
+    }
+
+    public double getOrientationPredictionMaxError() {
+        return _orientationPredictor.getMaxErrorRadians();
+    }
+
+    public void resetOrientationPredictionStatistics() {
+        _orientationPredictor.resetStatistics();
+    }
+
+    private void setSessionRecorder(SessionRecorder recorder) {
+        _recorder = recorder;
+        if (_biosignalSensorDevices != null) {
+            for (ISensorDevice device : _biosignalSensorDevices) {
+                device.setSessionRecorder(recorder);
             }
-            if (result.open()) {
-                return result;
+        }
+        if (_motionSensorDevices != null) {
+            for (ISensorDevice device : _motionSensorDevices) {
+                device.setSessionRecorder(recorder);
             }
         }
-        return current;
     }
 
-    private void updateCurrentSensorDevices() {
-        for (ISensorDevice device : _biosignalSensorDevices) {
-            device.updateDeviceStatus();
+    // records the raw usb data, the sensor events and the emitted frames to the file until stopRecording()
+    public boolean startRecording(String path) {
+        stopRecording();
+
+        SessionRecorder recorder;
+        try {
+            recorder = new SessionRecorder(new File(path), SessionRecorder.DEFAULT_QUEUE_CAPACITY);
         }
-        for (ISensorDevice device : _motionSensorDevices) {
-            device.updateDeviceStatus();
+        catch (IOException e) {
+            Log.d(LogTag, "failed to start recording : " + e.getMessage());
+            return false;
         }
 
-        synchronized (_pollTask) {
-            _currentBiosignalSensorDevice =
-                    (IBiosignalSensorDevice)updateCurrentSensorDevice(_biosignalSensorDevices,
-                                                                      _currentBiosignalSensorDevice);
-            _currentMotionSensorDevice =
-                    (IInertiaSensorDevice)updateCurrentSensorDevice(_motionSensorDevices,
-                                                                   _currentMotionSensorDevice);
+        recorder.start();
+        setSessionRecorder(recorder);
+        return true;
+    }
+
+    // getRecordingError() tells afterwards if the log was cut short
+    public void stopRecording() {
+        SessionRecorder recorder = _recorder;
+        if (recorder != null) {
+            setSessionRecorder(null);
+            recorder.stop();
+            _lastRecorder = recorder;
         }
     }
 
-    public void startup() {
-        assert(_handler == null);
-        assert(_pollTask == null);
+    public boolean isRecording() {
+        SessionRecorder recorder = _recorder;
+        return recorder != null && recorder.isRecording();
+    }
 
-        start();
-        _handler = new Handler(getLooper());
-        _pollTask = new SensorDataPollTask(_sampleRate, 5.0f);
+    // of the current recording, or of the last one once stopped
+    public long getRecordingDroppedCount() {
+        SessionRecorder recorder = _recorder != null ? _recorder : _lastRecorder;
+        return recorder != null ? recorder.getDroppedCount() : 0;
+    }
 
-        createBiosignalSensorDevices();
-        createMotionSensorDevices(_handler);
+    public long getRecordedBytes() {
+        SessionRecorder recorder = _recorder != null ? _recorder : _lastRecorder;
+        return recorder != null ? recorder.getBytesWritten() : 0;
+    }
+
+    // why the current recording, or the last one once stopped, was cut short. null if it was written whole so far
+    public String getRecordingError() {
+        SessionRecorder recorder = _recorder != null ? _recorder : _lastRecorder;
+        IOException error = recorder != null ? recorder.getError() : null;
+        return error != null ? error.toString() : null;
+    }
+
+    public MetricsRegistry getMetrics() { return _metrics; }
+
+    // the value of a counter or a gauge, or the count of a histogram
+    public long getMetricValue(String name) {
+        return _metrics.getValue(name);
+    }
+
+    public long getMetricPercentile(String name, double percentile) {
+        return _metrics.getValueAtPercentile(name, percentile);
+    }
+
+    // every metric as json, see MetricsRegistry.snapshot()
+    public String getMetricsSnapshot() {
+        return _metrics.snapshot();
+    }
+
+    public void resetMetrics() {
+        _metrics.reset();
+    }
+
+    public long getDroppedBiosignalSampleCount() {
+        IBiosignalSensorDevice device = _biosignalSelector != null ? _biosignalSelector.getCurrent() : null;
+        return device != null ? device.getDroppedSampleCount() : 0;
+    }
+
+    // 8, or 16 with a Daisy. 0 without a device.
+    public int getBiosignalChannelCount() {
+        IBiosignalSensorDevice device = _biosignalSelector != null ? _biosignalSelector.getCurrent() : null;
+        return device != null ? device.getChannelCount() : 0;
+    }
+
+    public long getLostBiosignalSampleCount() {
+        IBiosignalSensorDevice device = _biosignalSelector != null ? _biosignalSelector.getCurrent() : null;
+        return device != null ? device.getLostSampleCount() : 0;
+    }
+
+    public int getMotionDataQueueSize() {
+        return _motionData != null ? _motionData.size() : 0;
+    }
+
+    public long getDroppedMotionDataCount() {
+        return _motionData != null ? _motionData.getDroppedCount() + _motionData.getOverwrittenCount() : 0;
+    }
 
-        updateCurrentSensorDevices();
+    public int getMotionDataPoolInUseCount() {
+        return MotionData.getPoolInUseCount();
+    }
 
-        _handler.post(_pollTask);
+    public int getMotionDataPoolHighWaterMark() {
+        return MotionData.getPoolHighWaterMark();
     }
 
+    public long getMotionDataPoolExhaustedCount() {
+        return MotionData.getPoolExhaustedCount();
+    }
+
+    // frames drained by the outputs of fixed-size frames, which left their payloads out
+    public long getStrippedMotionDataCount() {
+        return _strippedMotionDataCount.get();
+    }
+
+    public long getTickCount() {
+        return _scheduler != null ? _scheduler.getTickCount() : 0;
+    }
+
+    public long getSkippedTickCount() {
+        return _scheduler != null ? _scheduler.getSkippedTickCount() : 0;
+    }
+
+    public long getMaxTickLatenessNanos() {
+        return _scheduler != null ? _scheduler.getMaxLatenessNanos() : 0;
+    }
+
+    public long[] getTickLatenessHistogram() {
+        long[] result = new long[SamplingScheduler.LATENESS_BUCKETS];
+        if (_scheduler != null) {
+            _scheduler.getLatenessHistogram(result);
+        }
+        return result;
+    }
+
+    public void resetSamplingStatistics() {
+        if (_scheduler != null) {
+            _scheduler.resetStatistics();
+        }
+    }
+
+    // the returned array stays valid until the next call, as the frame is held until then.
+    // in fan-in, or with a biosignal device wider than the fixed frame, the frame may carry payloads,
+    // and the array may be longer than the frame. see MotionData.
     public byte[] getNextMotionData() {
-        try {
-            MotionData data = _motionData.remove();
-            MotionData.dispose(data);
-            return data.getData();
+        if (_heldMotionData != null) {
+            MotionData.dispose(_heldMotionData);
+            _heldMotionData = null;
         }
-        catch (NoSuchElementException e) {
+
+        MotionData data = _motionData.poll();
+        if (data == null) {
             return null;
         }
+
+        _heldMotionData = data;
+        return data.getData();
+    }
+
+    public int getMotionDataSize() {
+        return MotionData.size();
+    }
+
+    // the outputs of fixed-size frames drop the payloads, i.e. the channels of a Daisy past the fixed frame, the other
+    // devices of fan-in, the aux data and the mark of a held biosignal, and count the frames which had any.
+    // getMotionDataStream() keeps them.
+    private void countStripped(MotionData data) {
+        if (data.getPayloadCount() > 0) {
+            _strippedMotionDataCount.increment();
+        }
+    }
+
+    // drains pending frames back to back from the start of the buffer, as many as fit in its capacity.
+    // returns the number of frames written and leaves the buffer flipped for reading.
+    // the frames are fixed-size, without their payloads, see countStripped().
+    public int getMotionDataBatch(ByteBuffer buffer) {
+        int frameSize = MotionData.size();
+        int count = 0;
+
+        buffer.clear();
+        while (buffer.remaining() >= frameSize) {
+            MotionData data = _motionData.poll();
+            if (data == null) {
+                break;
+            }
+
+            data.copyTo(buffer);
+            countStripped(data);
+            MotionData.dispose(data);
+            count++;
+        }
+        buffer.flip();
+        return count;
+    }
+
+    public int getMotionDataBatch(byte[] buffer) {
+        int frameSize = MotionData.size();
+        int count = 0;
+
+        for (int offset = 0; offset + frameSize <= buffer.length; offset += frameSize) {
+            MotionData data = _motionData.poll();
+            if (data == null) {
+                break;
+            }
+
+            data.copyTo(buffer, offset);
+            countStripped(data);
+            MotionData.dispose(data);
+            count++;
+        }
+        return count;
+    }
+
+    // drains pending frames with their payloads back to back from the start of the buffer, as many as fit.
+    // a frame which does not fit is kept for the next call. returns the number of bytes written.
+    public int getMotionDataStream(byte[] buffer) {
+        if (_motionDataStream == null || _motionDataStream.array() != buffer) {
+            _motionDataStream = ByteBuffer.wrap(buffer);
+        }
+
+        ByteBuffer output = _motionDataStream;
+        output.clear();
+        while (true) {
+            MotionData data = _pendingStreamMotionData;
+            _pendingStreamMotionData = null;
+            if (data == null) {
+                data = _motionData.poll();
+            }
+            if (data == null) {
+                break;
+            }
+            if (output.remaining() < data.getLength()) {
+                _pendingStreamMotionData = data;
+                break;
+            }
+
+            data.copyWithPayloadsTo(output);
+            MotionData.dispose(data);
+        }
+        return output.position();
+    }
+
+    private int exportMotionData(ByteBuffer buffer) {
+        int frameSize = MotionData.size();
+        int count = 0;
+
+        buffer.clear();
+        while (buffer.remaining() >= frameSize) {
+            MotionData data = _motionData.poll();
+            if (data == null) {
+                break;
+            }
+
+            data.exportTo(buffer);
+            countStripped(data);
+            MotionData.dispose(data);
+            count++;
+        }
+        return count;
+    }
+
+    // a direct buffer in the native byte order, for frames of maxFrames at most, filled by exportMotionData().
+    // it lives as long as the manager, so managed code can take its address once and read the frames in place.
+    public ByteBuffer getMotionDataExportBuffer(int maxFrames) {
+        int capacity = maxFrames * MotionData.size();
+        if (_motionDataExport == null || _motionDataExport.capacity() < capacity) {
+            _motionDataExport = ByteBuffer.allocateDirect(capacity);
+            _motionDataExport.order(ByteOrder.nativeOrder());
+        }
+        return _motionDataExport;
+    }
+
+    // maps the export buffer to a file of maxFrames frames, which is created or resized. managed code which cannot take
+    // the address of a direct buffer maps the file as well, and reads the frames of exportMotionData() from the shared pages.
+    public void mapMotionDataExportBuffer(String path, int maxFrames) throws IOException {
+        int capacity = maxFrames * MotionData.size();
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(capacity);
+            // the mapping outlives the file
+            _motionDataExport = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            _motionDataExport.order(ByteOrder.nativeOrder());
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    // drains pending frames into the export buffer back to back from its start, in the native byte order.
+    // returns the number of frames written. the frames are fixed-size, without their payloads, see countStripped().
+    public int exportMotionData() {
+        return _motionDataExport != null ? exportMotionData(_motionDataExport) : 0;
+    }
+
+    // same as getMotionDataBatch(byte[]), but in the native byte order
+    public int getNativeMotionDataBatch(byte[] buffer) {
+        if (_nativeMotionData == null || _nativeMotionData.array() != buffer) {
+            _nativeMotionData = ByteBuffer.wrap(buffer);
+            _nativeMotionData.order(ByteOrder.nativeOrder());
+        }
+        return exportMotionData(_nativeMotionData);
+    }
+
+    // the encoding of getEncodedMotionDataBatch(). the stream starts over from a key frame.
+    public void setMotionDataEncoding(String biosignalEncoding, String inertiaEncoding, int keyFrameInterval) {
+        _motionDataEncoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.valueOf(biosignalEncoding),
+                                                 MotionDataCodec.InertiaEncoding.valueOf(inertiaEncoding),
+                                                 keyFrameInterval);
+    }
+
+    // drains pending frames as MotionDataCodec v2 frames back to back from the start of the buffer,
+    // as long as another frame of the largest size fits. returns the number of bytes written.
+    // the frames are delta coded against the previous call, so the output must be decoded as one stream.
+    // the frames are fixed-size, without their payloads, see countStripped().
+    public int getEncodedMotionDataBatch(byte[] buffer) {
+        if (_encodedMotionData == null || _encodedMotionData.array() != buffer) {
+            _encodedMotionData = ByteBuffer.wrap(buffer);
+        }
+
+        ByteBuffer output = _encodedMotionData;
+        output.clear();
+        while (output.remaining() >= MotionDataCodec.MAX_FRAME_SIZE) {
+            MotionData data = _motionData.poll();
+            if (data == null) {
+                break;
+            }
+
+            _motionDataEncoder.encode(data.getData(), 0, output);
+            countStripped(data);
+            MotionData.dispose(data);
+        }
+        return output.position();
     }
 
     public void shutdown() {
         assert(_handler != null);
 
-        _handler.removeCallbacks(_pollTask);
+        _scheduler.stop();
+        // join() returns once the looper quits, after the tasks already due
+        quitSafely();
 
         try {
             join();
@@ -201,16 +886,23 @@ public class SensorDeviceManager extends HandlerThread {
             e.printStackTrace();
         }
 
-        if (_currentBiosignalSensorDevice != null) {
-            _currentBiosignalSensorDevice.close();
-            _currentBiosignalSensorDevice = null;
+        stopHotPlug();
+
+        stopRecording();
+        _orientationPredictor.clear();
+        _motionData.clear();
+        if (_heldMotionData != null) {
+            MotionData.dispose(_heldMotionData);
+            _heldMotionData = null;
         }
-        if (_currentMotionSensorDevice != null) {
-            _currentMotionSensorDevice.close();
-            _currentMotionSensorDevice = null;
+        if (_pendingStreamMotionData != null) {
+            MotionData.dispose(_pendingStreamMotionData);
+            _pendingStreamMotionData = null;
         }
 
         _handler = null;
         _pollTask = null;
+        _scheduler = null;
+        _motionData = null;
     }
 }
@@ -0,0 +1,46 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+// calls update() of one device on a thread of its own, so that the device parses what it receives as it comes
+// instead of on the sampler thread. its samples still reach the sampler through the lock-free rings of the device.
+public class SensorDeviceReader extends Thread {
+    private static final String LogTag = "SensorDeviceReader";
+
+    public static final long DEFAULT_INTERVAL_NANOS = 1000 * 1000;
+
+    public SensorDeviceReader(ISensorDevice device, long intervalNanos) {
+        super("SensorDeviceReader " + device.getClass().getSimpleName());
+
+        _device = device;
+        _intervalNanos = intervalNanos;
+        _running = true;
+    }
+
+    private ISensorDevice _device;
+    private long _intervalNanos;
+    private volatile boolean _running;
+
+    @Override
+    public void run() {
+        while (_running) {
+            _device.update();
+            LockSupport.parkNanos(_intervalNanos);
+        }
+    }
+
+    // returns once the device is not updated anymore
+    public void shutdown() {
+        _running = false;
+        LockSupport.unpark(this);
+        try {
+            join();
+        }
+        catch (InterruptedException e) {
+            Log.w(LogTag, "interrupted while waiting for the reader to stop", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
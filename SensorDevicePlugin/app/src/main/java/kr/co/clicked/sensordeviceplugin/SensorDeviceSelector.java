@@ -0,0 +1,81 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.List;
+
+// keeps the first available of its candidates open as the current device, in their order of preference.
+// runs on the hot-plug thread. devices are opened and closed there, and the sampler, which uses the current device
+// under lock, only waits for the swap.
+public class SensorDeviceSelector<T extends ISensorDevice> {
+    public SensorDeviceSelector(List<T> candidates, Object lock) {
+        _candidates = candidates;
+        _lock = lock;
+    }
+
+    private List<T> _candidates;
+    private Object _lock;
+    private volatile T _current;
+
+    // written under lock, so it stays the same while the lock is held
+    public T getCurrent() { return _current; }
+
+    public List<T> getCandidates() { return _candidates; }
+
+    protected Object getLock() { return _lock; }
+
+    protected void setCurrent(T device) {
+        synchronized (_lock) {
+            _current = device;
+        }
+    }
+
+    // updates the status of the candidates and selects again if any came or went.
+    // returns true if the current device changed.
+    public boolean update(UsbDeviceTable usbDevices) {
+        boolean changed = false;
+        for (int i = 0; i < _candidates.size(); i++) {
+            ISensorDevice candidate = _candidates.get(i);
+            boolean available = candidate.available();
+            candidate.updateDeviceStatus(usbDevices);
+            changed |= candidate.available() != available;
+        }
+        return changed && select();
+    }
+
+    // a candidate preferred to the current one replaces it once it opens.
+    // the current one is kept while available, even if a preferred one fails to open.
+    public boolean select() {
+        T current = _current;
+        for (int i = 0; i < _candidates.size(); i++) {
+            T candidate = _candidates.get(i);
+            if (candidate.available() == false) {
+                continue;
+            }
+            if (candidate == current) {
+                return false;
+            }
+            if (candidate.open()) {
+                setCurrent(candidate);
+                if (current != null) {
+                    current.close();
+                }
+                return true;
+            }
+        }
+
+        if (current != null) {
+            // gone, and nothing to replace it
+            setCurrent(null);
+            current.close();
+            return true;
+        }
+        return false;
+    }
+
+    public void close() {
+        T current = _current;
+        if (current != null) {
+            setCurrent(null);
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.util.Log;
+
+import com.felhr.usbserial.SerialWriteQueue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+// records what the devices receive and what the sampler emits, so that a session can be replayed later.
+// a producer only copies its record into a lock-free queue, and a background thread writes the queue to the file,
+// so recording never blocks the sampler or a reader thread. records which do not fit in the queue are dropped and counted.
+// a write which fails stops the recording, and getError() tells why the log was cut short.
+//
+// the log starts with MAGIC, VERSION (short), MotionData.size() (int), and System.currentTimeMillis() and
+// System.nanoTime() at the start (long). every record follows as its length (int, of the rest of the record),
+// type (byte), System.nanoTime() when it was recorded (long) and its payload. all big-endian.
+public class SessionRecorder {
+    private static final String LogTag = "SessionRecorder";
+
+    public static final int MAGIC = 0x53445231;     // "SDR1"
+    public static final short VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 4 + 2 + 4 + 8 + 8;
+    public static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+
+    // record types
+    public static final byte USB_DATA = 1;          // usb device id (int), the bytes as received
+    public static final byte SENSOR_EVENT = 2;      // sensor type (int), event timestamp (long), value count (int), values (float)
+    public static final byte MOTION_DATA = 3;       // the frame as emitted, with its payloads
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024 * 1024;
+
+    private static final int INITIAL_RECORD_SIZE = 2 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long WRITE_WAIT_NANOS = 100 * 1000 * 1000;
+
+    public static int usbDeviceId(int vendorId, int productId) {
+        return (vendorId << 16) | (productId & 0xFFFF);
+    }
+
+    private class WriterThread extends Thread {
+        public WriterThread() {
+            super("SessionRecorder");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (_recording || _queue.pendingBytes() > 0) {
+                    SerialWriteQueue.Segment segment = _queue.take(WRITE_WAIT_NANOS);
+                    if (segment == null) {
+                        // idle, so the file catches up
+                        flush();
+                        continue;
+                    }
+
+                    int offset = 0;
+                    while (offset < segment.length()) {
+                        if (_writeBuffer.remaining() == 0) {
+                            flush();
+                        }
+                        int count = Math.min(_writeBuffer.remaining(), segment.length() - offset);
+                        _writeBuffer.put(segment.array(), offset, count);
+                        offset += count;
+                    }
+                }
+                flush();
+            }
+            catch (IOException e) {
+                Log.e(LogTag, "failed to write the session log", e);
+                _error = e;
+                _recording = false;
+                _queue.clear();
+            }
+            finally {
+                try {
+                    _channel.close();
+                }
+                catch (IOException e) {
+                    Log.e(LogTag, "failed to close the session log", e);
+                    if (_error == null) {
+                        _error = e;
+                    }
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            _writeBuffer.flip();
+            while (_writeBuffer.hasRemaining()) {
+                _bytesWritten.lazySet(_bytesWritten.get() + _channel.write(_writeBuffer));
+            }
+            _writeBuffer.clear();
+        }
+    }
+
+    public SessionRecorder(File file, int queueCapacity) throws IOException {
+        _channel = new FileOutputStream(file).getChannel();
+        _queue = new SerialWriteQueue(SerialWriteQueue.DEFAULT_SEGMENT_SIZE, queueCapacity);
+        _writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        _bytesWritten = new AtomicLong();
+        _records = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocate(INITIAL_RECORD_SIZE);
+            }
+        };
+
+        _writeBuffer.putInt(MAGIC);
+        _writeBuffer.putShort(VERSION);
+        _writeBuffer.putInt(MotionData.size());
+        _writeBuffer.putLong(System.currentTimeMillis());
+        _writeBuffer.putLong(System.nanoTime());
+    }
+
+    private FileChannel _channel;
+    private SerialWriteQueue _queue;
+    private ByteBuffer _writeBuffer;        // writer thread only once started
+    private ThreadLocal<ByteBuffer> _records;
+    private AtomicLong _bytesWritten;
+    private volatile boolean _recording;
+    private volatile IOException _error;
+    private WriterThread _writerThread;
+
+    public void start() {
+        assert(_writerThread == null);
+
+        _recording = true;
+        _writerThread = new WriterThread();
+        _writerThread.start();
+    }
+
+    // stops taking records, and returns once everything taken so far is in the file
+    public void stop() {
+        _recording = false;
+        if (_writerThread != null) {
+            try {
+                _writerThread.join();
+            }
+            catch (InterruptedException e) {
+                Log.w(LogTag, "interrupted before the session log was written", e);
+                Thread.currentThread().interrupt();
+            }
+            _writerThread = null;
+        }
+    }
+
+    public boolean isRecording() { return _recording; }
+
+    // the failure which cut the log short, or null if everything taken was written so far
+    public IOException getError() { return _error; }
+
+    // records dropped as the writer did not keep up
+    public long getDroppedCount() { return _queue.getRejectedCount(); }
+
+    public long getBytesWritten() { return _bytesWritten.get(); }
+
+    // the record buffer of the calling thread, with the header of the record written
+    private ByteBuffer beginRecord(byte type, int payloadSize) {
+        int size = RECORD_HEADER_SIZE + payloadSize;
+        ByteBuffer record = _records.get();
+        if (record.capacity() < size) {
+            record = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1);
+            _records.set(record);
+        }
+
+        record.clear();
+        record.putInt(size - 4);
+        record.put(type);
+        record.putLong(System.nanoTime());
+        return record;
+    }
+
+    private boolean endRecord(ByteBuffer record) {
+        return _queue.put(record.array(), 0, record.position());
+    }
+
+    // any thread. returns false if the record was dropped.
+    public boolean recordUsbData(int deviceId, byte[] src, int offset, int length) {
+        if (_recording == false) {
+            return false;
+        }
+
+        ByteBuffer record = beginRecord(USB_DATA, 4 + length);
+        record.putInt(deviceId);
+        record.put(src, offset, length);
+        return endRecord(record);
+    }
+
+    public boolean recordUsbData(int deviceId, ByteBuffer src, int offset, int length) {
+        if (_recording == false) {
+            return false;
+        }
+
+        ByteBuffer record = beginRecord(USB_DATA, 4 + length);
+        record.putInt(deviceId);
+        int position = src.position();
+        src.position(offset);
+        src.get(record.array(), record.position(), length);
+        src.position(position);
+        record.position(record.position() + length);
+        return endRecord(record);
+    }
+
+    public boolean recordSensorEvent(int sensorType, long eventTimestamp, float[] values) {
+        if (_recording == false) {
+            return false;
+        }
+
+        ByteBuffer record = beginRecord(SENSOR_EVENT, 4 + 8 + 4 + values.length * 4);
+        record.putInt(sensorType);
+        record.putLong(eventTimestamp);
+        record.putInt(values.length);
+        for (int i = 0; i < values.length; i++) {
+            record.putFloat(values[i]);
+        }
+        return endRecord(record);
+    }
+
+    public boolean recordMotionData(byte[] frame, int length) {
+        if (_recording == false) {
+            return false;
+        }
+        ByteBuffer record = beginRecord(MOTION_DATA, length);
+        record.put(frame, 0, length);
+        return endRecord(record);
+    }
+}
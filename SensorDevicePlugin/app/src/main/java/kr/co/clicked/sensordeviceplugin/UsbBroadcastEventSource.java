@@ -0,0 +1,76 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+
+// the attach and detach broadcasts of UsbManager, delivered on the thread of handler
+public class UsbBroadcastEventSource implements IUsbDeviceEventSource {
+    public UsbBroadcastEventSource(Context context, UsbManager usbManager, Handler handler) {
+        _context = context;
+        _usbManager = usbManager;
+        _handler = handler;
+        _receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+                if (device == null || _listener == null) {
+                    return;
+                }
+
+                if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+                    attached(device);
+                }
+                else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(intent.getAction())) {
+                    _listener.onUsbDeviceDetached(device.getDeviceName());
+                }
+            }
+        };
+    }
+
+    private Context _context;
+    private UsbManager _usbManager;
+    private Handler _handler;
+    private BroadcastReceiver _receiver;
+    private Listener _listener;     // handler thread only, once started
+
+    private void attached(UsbDevice device) {
+        _listener.onUsbDeviceAttached(device.getDeviceName(), device.getVendorId(), device.getProductId(), device);
+    }
+
+    // implements IUsbDeviceEventSource
+    @Override
+    public void start(final Listener listener) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+
+        // receiving first, then taking the device list on the handler thread, so no change is missed in between.
+        // broadcasts queued before the list are ignored, as the list has them already.
+        _context.registerReceiver(_receiver, filter, null, _handler);
+        _handler.post(new Runnable() {
+            @Override
+            public void run() {
+                _listener = listener;
+                for (UsbDevice device : _usbManager.getDeviceList().values()) {
+                    attached(device);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        _context.unregisterReceiver(_receiver);
+        _handler.post(new Runnable() {
+            @Override
+            public void run() {
+                _listener = null;
+            }
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import com.felhr.deviceids.DeviceIdMap;
+
+import java.util.Collection;
+
+// the attached usb devices, indexed by VID:PID. never changes once built.
+// shared by all sensor devices, so each finds its device in O(1) instead of walking the device list of UsbManager again.
+public class UsbDeviceTable {
+    public static final UsbDeviceTable EMPTY = new UsbDeviceTable(new int[0], new int[0], new UsbDevice[0], 0);
+
+    public UsbDeviceTable(UsbManager usbManager) {
+        this(usbManager.getDeviceList().values());
+    }
+
+    public UsbDeviceTable(Collection<UsbDevice> devices) {
+        _devices = devices.toArray(new UsbDevice[devices.size()]);
+        _index = new DeviceIdMap(_devices.length);
+        // the first device of an id wins, as the list walk did
+        for (int i = _devices.length - 1; i >= 0; i--) {
+            _index.put(_devices[i].getVendorId(), _devices[i].getProductId(), i + 1);
+        }
+    }
+
+    // the first count entries of the arrays. devices may be null where the source has no UsbDevice.
+    public UsbDeviceTable(int[] vendorIds, int[] productIds, UsbDevice[] devices, int count) {
+        _devices = new UsbDevice[count];
+        System.arraycopy(devices, 0, _devices, 0, count);
+        _index = new DeviceIdMap(count);
+        for (int i = count - 1; i >= 0; i--) {
+            _index.put(vendorIds[i], productIds[i], i + 1);
+        }
+    }
+
+    private UsbDevice[] _devices;
+    private DeviceIdMap _index;     // to the index of the device + 1
+
+    public int size() { return _devices.length; }
+
+    public boolean contains(int vendorId, int productId) {
+        return _index.get(vendorId, productId) != DeviceIdMap.NOT_FOUND;
+    }
+
+    // null if no device of the id is attached
+    public UsbDevice get(int vendorId, int productId) {
+        int index = _index.get(vendorId, productId);
+        return index != DeviceIdMap.NOT_FOUND ? _devices[index - 1] : null;
+    }
+}
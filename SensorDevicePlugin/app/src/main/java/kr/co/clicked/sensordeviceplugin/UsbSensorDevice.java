@@ -13,25 +13,103 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
 public abstract class UsbSensorDevice implements ISensorDevice {
+    private static final String LogTag = "UsbSensorDevice";
+    private static final int STREAMING_REQUEST_COUNT = 4;
+    private static final int STREAMING_REQUEST_SIZE = 1024;
+    private static final int DEFAULT_RECEIVE_BUFFER_SIZE = 16 * 1024;
+    private static final int POLLING_READ_SIZE = 1024;
+
+    // the serial device as the parsers see it
+    private static class UsbSerialTransport implements ISerialTransport {
+        public UsbSerialTransport(UsbSerialDevice serialDevice) {
+            _serialDevice = serialDevice;
+        }
+
+        private UsbSerialDevice _serialDevice;
+
+        // implements ISerialTransport
+        @Override
+        public int syncWrite(byte[] buffer, int timeout) {
+            return _serialDevice.syncWrite(buffer, timeout);
+        }
+
+        @Override
+        public int syncRead(byte[] buffer, int offset, int timeout) {
+            return _serialDevice.syncRead(buffer, offset, timeout);
+        }
+    }
+
     public UsbSensorDevice(UsbManager usbManager) {
         _usbManager = usbManager;
 
-        _recvBuffer = ByteBuffer.allocate(4 * 1024);
+        _recvBuffer = new ByteRing(DEFAULT_RECEIVE_BUFFER_SIZE);
+        _pollBuffer = new byte[POLLING_READ_SIZE];
+        _streamingRead = true;
+        _streamCallback = new UsbSerialInterface.UsbReadBufferCallback() {
+            @Override
+            public void onReceivedData(ByteBuffer buffer, int offset, int length) {
+                SessionRecorder recorder = _recorder;
+                if (recorder != null) {
+                    recorder.recordUsbData(SessionRecorder.usbDeviceId(venderId(), productId()), buffer, offset, length);
+                }
+                _recvBuffer.write(buffer, offset, length);
+            }
+        };
+        _transferListener = new UsbSerialInterface.UsbTransferListener() {
+            @Override
+            public void onTransferCompleted(int length, long latencyNanos) {
+                _transferBytes.record(length);
+                _transferLatency.record(latencyNanos);
+            }
+        };
+
+        _transferBytes = new MetricsRegistry.Histogram();
+        _transferLatency = new MetricsRegistry.Histogram();
     }
 
     private UsbManager _usbManager;
     private UsbDevice _usbDevice;
     private UsbDeviceConnection _usbConnection;
     private UsbSerialDevice _serialDevice;
-    private ByteBuffer _recvBuffer;
+    private UsbSerialTransport _transport;
+    private ByteRing _recvBuffer;
+    private byte[] _pollBuffer;
+    private boolean _streamingRead;
+    private boolean _streaming;
+    private UsbSerialInterface.UsbReadBufferCallback _streamCallback;
+    private volatile SessionRecorder _recorder;
+    private UsbSerialInterface.UsbTransferListener _transferListener;
+    private MetricsRegistry.Histogram _transferBytes;
+    private MetricsRegistry.Histogram _transferLatency;    // from queueing a streaming transfer or calling syncRead, to its completion
 
     protected abstract int venderId();
     protected abstract int productId();
     protected abstract int baudrate();
 
-    protected abstract void connectionOpened(UsbSerialDevice serialDevice);
-    protected abstract void connectionWillBeClosed(UsbSerialDevice serialDevice);
-    protected abstract boolean parseReceivedData(UsbSerialDevice serialDevice, ByteBuffer data);
+    protected abstract void connectionOpened(ISerialTransport transport);
+    protected abstract void connectionWillBeClosed(ISerialTransport transport);
+    // consumes what it has parsed from data, and returns false to be called again with the rest
+    protected abstract boolean parseReceivedData(ISerialTransport transport, ByteRing data);
+
+    // when enabled, bulk IN transfers stay queued on a reader thread of usbserial instead of
+    // being polled from update(). takes effect from the next open().
+    public void setStreamingRead(boolean streamingRead) {
+        _streamingRead = streamingRead;
+    }
+
+    // rounded up to a power of two. takes effect from the next open().
+    public void setReceiveBufferSize(int size) {
+        assert(_serialDevice == null);
+
+        if (size != _recvBuffer.capacity()) {
+            _recvBuffer = new ByteRing(size);
+        }
+    }
+
+    // bytes discarded because the receive buffer was full
+    public long getReceiveOverflowCount() {
+        return _recvBuffer.getOverflowCount();
+    }
 
     // implements ISensorDevice
     @Override
@@ -50,7 +128,16 @@ public abstract class UsbSensorDevice implements ISensorDevice {
                 _serialDevice.setParity(UsbSerialInterface.PARITY_NONE);
                 _serialDevice.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF);
 
-                connectionOpened(_serialDevice);
+                _recvBuffer.clear();
+                _serialDevice.setTransferListener(_transferListener);
+                _streaming = _streamingRead &&
+                        _serialDevice.startStreamingRead(STREAMING_REQUEST_COUNT, STREAMING_REQUEST_SIZE, _streamCallback);
+                if (_streamingRead && _streaming == false) {
+                    Log.d(LogTag, "failed to start streaming read. falls back to polling.");
+                }
+
+                _transport = new UsbSerialTransport(_serialDevice);
+                connectionOpened(_transport);
                 return true;
             }
         }
@@ -67,20 +154,23 @@ public abstract class UsbSensorDevice implements ISensorDevice {
     @Override
     public void update() {
         if (_serialDevice != null) {
-            int read = _serialDevice.syncRead(_recvBuffer.array(), _recvBuffer.position(), 1);
-            if (read > 0) {
-                assert(_recvBuffer.position() + read < _recvBuffer.capacity());
-                _recvBuffer.position(_recvBuffer.position() + read);
-
-                ByteBuffer data = ByteBuffer.wrap(_recvBuffer.array(), 0, _recvBuffer.position());
-                while (parseReceivedData(_serialDevice, data) == false) {
-                    // just repeat until all received data parsed
+            if (_streaming == false) {
+                long readTime = System.nanoTime();
+                int read = _serialDevice.syncRead(_pollBuffer, 0, 1);
+                if (read > 0) {
+                    _transferLatency.record(System.nanoTime() - readTime);
+                    _transferBytes.record(read);
+                    SessionRecorder recorder = _recorder;
+                    if (recorder != null) {
+                        recorder.recordUsbData(SessionRecorder.usbDeviceId(venderId(), productId()), _pollBuffer, 0, read);
+                    }
+                    _recvBuffer.write(_pollBuffer, 0, read);
                 }
+            }
 
-                if (data.position() > 0) {
-                    _recvBuffer.flip();
-                    _recvBuffer.position(data.position());
-                    _recvBuffer.compact();
+            if (_recvBuffer.available() > 0) {
+                while (parseReceivedData(_transport, _recvBuffer) == false) {
+                    // just repeat until all received data parsed
                 }
             }
         }
@@ -89,10 +179,15 @@ public abstract class UsbSensorDevice implements ISensorDevice {
     @Override
     public void close() {
         if (_serialDevice != null) {
-            connectionWillBeClosed(_serialDevice);
+            connectionWillBeClosed(_transport);
 
+            if (_streaming) {
+                _serialDevice.stopStreamingRead();
+                _streaming = false;
+            }
             _serialDevice.syncClose();
             _serialDevice = null;
+            _transport = null;
         }
         if (_usbConnection != null) {
             _usbConnection.close();
@@ -100,17 +195,28 @@ public abstract class UsbSensorDevice implements ISensorDevice {
         }
     }
 
+    // an open device stays open when it is gone. whoever selected it closes it.
     @Override
-    public void updateDeviceStatus() {
-        for (UsbDevice device : _usbManager.getDeviceList().values()) {
-            if (device.getVendorId() == venderId() && device.getProductId() == productId()) {
-                _usbDevice = device;
-                assert(_usbConnection == null);
-                return;
-            }
-        }
+    public void updateDeviceStatus(UsbDeviceTable usbDevices) {
+        _usbDevice = usbDevices.get(venderId(), productId());
+    }
+
+    @Override
+    public void setSessionRecorder(SessionRecorder recorder) {
+        _recorder = recorder;
+    }
 
-        _usbDevice = null;
-        close();
+    // usb.transferBytes, usb.transferLatencyNanos and usb.receiveOverflowBytes, after the name of the class
+    @Override
+    public void registerMetrics(MetricsRegistry registry) {
+        String prefix = getClass().getSimpleName() + ".usb.";
+        registry.register(prefix + "transferBytes", _transferBytes);
+        registry.register(prefix + "transferLatencyNanos", _transferLatency);
+        registry.gauge(prefix + "receiveOverflowBytes", new MetricsRegistry.Gauge.Source() {
+            @Override
+            public long value() {
+                return getReceiveOverflowCount();
+            }
+        });
     }
 }
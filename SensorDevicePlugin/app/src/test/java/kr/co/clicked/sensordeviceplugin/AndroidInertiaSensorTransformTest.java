@@ -0,0 +1,94 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.joml.Quaternionf;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AndroidInertiaSensorTransformTest {
+    private static final float ROTATION_TOLERANCE = 3.2e-7f;
+    private static final int ROTATION_SAMPLES = 100000;
+    private static final int ALLOCATION_LOOPS = 100000;
+
+    // java.lang.management is not in android.jar, which the unit tests compile against,
+    // so com.sun.management.ThreadMXBean#getThreadAllocatedBytes is called through reflection
+    private static class AllocationCounter {
+        public AllocationCounter() throws Exception {
+            Object threads = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Class<?> threadMXBean = Class.forName("com.sun.management.ThreadMXBean");
+            threadMXBean.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threads, true);
+
+            _threads = threads;
+            _getThreadAllocatedBytes = threadMXBean.getMethod("getThreadAllocatedBytes", long.class);
+            _threadId = Thread.currentThread().getId();
+
+            // past the inflation of the reflective call, so that every call costs the same
+            for (int i = 0; i < 100; i++) {
+                allocatedBytes();
+            }
+        }
+
+        private Object _threads;
+        private Method _getThreadAllocatedBytes;
+        private long _threadId;
+
+        public long allocatedBytes() throws Exception {
+            return (Long)_getThreadAllocatedBytes.invoke(_threads, _threadId);
+        }
+    }
+
+    private static void transformAll(float[] rotation, float[] vector, InertiaSensorData dst, int loops) {
+        for (int i = 0; i < loops; i++) {
+            AndroidInertiaSensorTransform.transformRotationVector(rotation, i, dst);
+            AndroidInertiaSensorTransform.transformAcceleration(vector, i, dst);
+            AndroidInertiaSensorTransform.transformAngularVelocities(vector, i, dst);
+            AndroidInertiaSensorTransform.transformMagneticField(vector, i, dst);
+        }
+    }
+
+    @Test
+    public void floatArrayOverloadsDoNotAllocate() throws Exception {
+        AllocationCounter counter = new AllocationCounter();
+        InertiaSensorData data = new InertiaSensorData();
+        float[] rotation = { 0.1f, 0.2f, 0.3f, 0.927f };
+        float[] vector = { 1.0f, 2.0f, 3.0f };
+        transformAll(rotation, vector, data, ALLOCATION_LOOPS);
+
+        // what reading the counter costs by itself
+        long start = counter.allocatedBytes();
+        long overhead = counter.allocatedBytes() - start;
+
+        start = counter.allocatedBytes();
+        transformAll(rotation, vector, data, ALLOCATION_LOOPS);
+        long allocated = counter.allocatedBytes() - start - overhead;
+
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void rotationVectorMatchesJoml() {
+        Random random = new Random(1);
+        InertiaSensorData data = new InertiaSensorData();
+        float[] values = new float[4];
+        for (int i = 0; i < ROTATION_SAMPLES; i++) {
+            Quaternionf value = new Quaternionf((float)random.nextGaussian(), (float)random.nextGaussian(),
+                                                (float)random.nextGaussian(), (float)random.nextGaussian()).normalize();
+            values[0] = value.x;
+            values[1] = value.y;
+            values[2] = value.z;
+            values[3] = value.w;
+
+            Quaternionf expected = AndroidInertiaSensorTransform.transformRotationVector(value);
+            AndroidInertiaSensorTransform.transformRotationVector(values, i, data);
+            data.snapshot();
+
+            assertEquals(expected.x, data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX), ROTATION_TOLERANCE);
+            assertEquals(expected.y, data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 1), ROTATION_TOLERANCE);
+            assertEquals(expected.z, data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 2), ROTATION_TOLERANCE);
+            assertEquals(expected.w, data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 3), ROTATION_TOLERANCE);
+        }
+    }
+}
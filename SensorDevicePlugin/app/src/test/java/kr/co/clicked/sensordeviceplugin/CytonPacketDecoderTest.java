@@ -0,0 +1,127 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CytonPacketDecoderTest {
+    private static final float SCALE_FACTOR = CytonPacketDecoder.scaleFactor(CytonPacketDecoder.DEFAULT_GAIN);
+    private static final float HELD = 99;     // an aux value a packet does not carry keeps it
+
+    @Before
+    public void setUp() {
+        _decoder = new CytonPacketDecoder();
+        _aux = new float[BiosignalSensorData.AUX_VALUES];
+        Arrays.fill(_aux, HELD);
+    }
+
+    private CytonPacketDecoder _decoder;
+    private float[] _aux;
+
+    private long decodeAux(int sampleNumber, byte[] aux, int type) {
+        byte[] packet = CytonPackets.packet(sampleNumber, new int[0], aux, type);
+        return _decoder.decodeAux(packet, 0, _aux, 0);
+    }
+
+    private void assertAux(float... expected) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("aux " + i, expected[i], _aux[i], 0);
+        }
+    }
+
+    @Test
+    public void validatesHeaderAndFooter() {
+        byte[] packet = CytonPackets.packet(0, 0);
+        assertTrue(CytonPacketDecoder.isValidPacket(packet, 0));
+        for (int type = 0; type < 8; type++) {
+            packet[CytonPacketDecoder.PACKET_SIZE - 1] = (byte)(CytonPackets.FOOTER | type);
+            assertTrue(CytonPacketDecoder.isValidPacket(packet, 0));
+            assertEquals(type, CytonPacketDecoder.packetType(packet, 0));
+        }
+
+        packet[CytonPacketDecoder.PACKET_SIZE - 1] = (byte)0xC8;
+        assertFalse(CytonPacketDecoder.isValidPacket(packet, 0));
+        packet[CytonPacketDecoder.PACKET_SIZE - 1] = (byte)0xC0;
+        packet[0] = (byte)0xA1;
+        assertFalse(CytonPacketDecoder.isValidPacket(packet, 0));
+    }
+
+    @Test
+    public void decodesSignExtendedChannels() {
+        int[] channels = { 0, 1, -1, 0x7FFFFF, -0x800000, 0x123456, -0x123456, 0x800 };
+        byte[] packet = CytonPackets.packet(200, channels, new byte[6], CytonPacketDecoder.PACKET_STANDARD_ACCEL);
+        float[] values = new float[CytonPacketDecoder.CHANNELS + 2];
+
+        // at an offset in the source and the destination
+        byte[] src = CytonPackets.concat(new byte[5], packet);
+        assertEquals(200, _decoder.decode(src, 5, values, 2));
+        for (int i = 0; i < channels.length; i++) {
+            assertEquals(channels[i] * SCALE_FACTOR, values[2 + i], 0);
+        }
+    }
+
+    @Test
+    public void decodesStandardAccel() {
+        assertEquals(BiosignalSensorData.NO_BOARD_TIME, decodeAux(0, CytonPackets.aux(0x0100, 0xFFF0, 0x8000), CytonPacketDecoder.PACKET_STANDARD_ACCEL));
+        // the left-aligned readings are sign-extended
+        assertAux(256 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, -16 * CytonPacketDecoder.ACCEL_SCALE_FACTOR,
+                -32768 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, HELD, HELD, HELD);
+        assertEquals(-0.002f, _aux[BiosignalSensorData.AUX_ACCEL_Y], 1e-9f);
+
+        // zeros between the readings of the accelerometer hold the last one
+        decodeAux(1, CytonPackets.aux(0, 0, 0), CytonPacketDecoder.PACKET_STANDARD_ACCEL);
+        assertAux(256 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, -16 * CytonPacketDecoder.ACCEL_SCALE_FACTOR,
+                -32768 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, HELD, HELD, HELD);
+    }
+
+    @Test
+    public void decodesStandardRawAux() {
+        assertEquals(BiosignalSensorData.NO_BOARD_TIME, decodeAux(0, CytonPackets.aux(1, 0x8000, 0xFFFF), CytonPacketDecoder.PACKET_STANDARD_RAW_AUX));
+        // unsigned words, and the accelerometer untouched
+        assertAux(HELD, HELD, HELD, 1, 0x8000, 0xFFFF);
+    }
+
+    @Test
+    public void ignoresUserDefinedAndImpedance() {
+        assertEquals(BiosignalSensorData.NO_BOARD_TIME, decodeAux(0, CytonPackets.aux(1, 2, 3), CytonPacketDecoder.PACKET_USER_DEFINED));
+        assertEquals(BiosignalSensorData.NO_BOARD_TIME, decodeAux(0, CytonPackets.aux(1, 2, 3), CytonPacketDecoder.PACKET_IMPEDANCE));
+        assertAux(HELD, HELD, HELD, HELD, HELD, HELD);
+    }
+
+    @Test
+    public void selectsTheAxisOfTimeSyncedAccel() {
+        int[] types = { CytonPacketDecoder.PACKET_TIME_SYNC_SET_ACCEL, CytonPacketDecoder.PACKET_TIME_SYNCED_ACCEL };
+        for (int type : types) {
+            Arrays.fill(_aux, HELD);
+            // of every 10 packets, the ones numbered 7, 8 and 9 carry X, Y and Z
+            assertEquals(1000, decodeAux(106, CytonPackets.timeSyncAux(0x0100, 1000), type));
+            assertAux(HELD, HELD, HELD, HELD, HELD, HELD);
+            assertEquals(1004, decodeAux(107, CytonPackets.timeSyncAux(0x0100, 1004), type));
+            assertAux(256 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, HELD, HELD, HELD, HELD, HELD);
+            decodeAux(108, CytonPackets.timeSyncAux(0xFFF0, 1008), type);
+            assertAux(256 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, -16 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, HELD, HELD, HELD, HELD);
+            decodeAux(109, CytonPackets.timeSyncAux(0x0020, 1012), type);
+            assertAux(256 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, -16 * CytonPacketDecoder.ACCEL_SCALE_FACTOR,
+                    32 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, HELD, HELD, HELD);
+            decodeAux(110, CytonPackets.timeSyncAux(0x7FF0, 1016), type);
+            assertAux(256 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, -16 * CytonPacketDecoder.ACCEL_SCALE_FACTOR,
+                    32 * CytonPacketDecoder.ACCEL_SCALE_FACTOR, HELD, HELD, HELD);
+        }
+    }
+
+    @Test
+    public void decodesTimeSyncedRawAux() {
+        int[] types = { CytonPacketDecoder.PACKET_TIME_SYNC_SET_RAW_AUX, CytonPacketDecoder.PACKET_TIME_SYNCED_RAW_AUX };
+        for (int type : types) {
+            Arrays.fill(_aux, HELD);
+            // the board time is an unsigned int
+            assertEquals(0xFFFFFFF0L, decodeAux(0, CytonPackets.timeSyncAux(0xFFFF, 0xFFFFFFF0L), type));
+            assertAux(HELD, HELD, HELD, 0xFFFF, HELD, HELD);
+        }
+    }
+}
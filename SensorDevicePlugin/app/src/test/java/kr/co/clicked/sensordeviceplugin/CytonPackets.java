@@ -0,0 +1,70 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.io.ByteArrayOutputStream;
+
+// hand-made 33-byte packets of an OpenBCI Cyton board, and the streams of them
+public class CytonPackets {
+    public static final int HEADER = 0xA0;
+    public static final int FOOTER = 0xC0;
+
+    private static final int CHANNEL_DATA_OFFSET = 2;
+    private static final int AUX_DATA_OFFSET = 26;
+
+    // channels are the 24-bit values of the 8 channels, and aux the 6 aux bytes
+    public static byte[] packet(int sampleNumber, int[] channels, byte[] aux, int type) {
+        byte[] packet = new byte[CytonPacketDecoder.PACKET_SIZE];
+        packet[0] = (byte)HEADER;
+        packet[CytonPacketDecoder.SAMPLE_NUMBER_OFFSET] = (byte)sampleNumber;
+        for (int i = 0; i < channels.length; i++) {
+            int offset = CHANNEL_DATA_OFFSET + i * 3;
+            packet[offset] = (byte)(channels[i] >> 16);
+            packet[offset + 1] = (byte)(channels[i] >> 8);
+            packet[offset + 2] = (byte)channels[i];
+        }
+        System.arraycopy(aux, 0, packet, AUX_DATA_OFFSET, aux.length);
+        packet[CytonPacketDecoder.PACKET_SIZE - 1] = (byte)(FOOTER | type);
+        return packet;
+    }
+
+    // every channel of value, and no aux data
+    public static byte[] packet(int sampleNumber, int value) {
+        int[] channels = new int[CytonPacketDecoder.CHANNELS];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = value + i;
+        }
+        return packet(sampleNumber, channels, new byte[6], CytonPacketDecoder.PACKET_STANDARD_ACCEL);
+    }
+
+    // the 6 aux bytes of three big-endian shorts
+    public static byte[] aux(int first, int second, int third) {
+        return new byte[] {
+                (byte)(first >> 8), (byte)first,
+                (byte)(second >> 8), (byte)second,
+                (byte)(third >> 8), (byte)third
+        };
+    }
+
+    // the 6 aux bytes of a time sync packet, a short and the board time
+    public static byte[] timeSyncAux(int value, long boardTime) {
+        return new byte[] {
+                (byte)(value >> 8), (byte)value,
+                (byte)(boardTime >> 24), (byte)(boardTime >> 16), (byte)(boardTime >> 8), (byte)boardTime
+        };
+    }
+
+    // what the board answers to a reset, with or without a Daisy
+    public static byte[] resetResponse(boolean daisy) {
+        String response = "OpenBCI V3 8-16 channel\nOn Board ADS1299 Device ID: 0x3E\n" +
+                (daisy ? "On Daisy ADS1299 Device ID: 0x3E\n" : "") +
+                "LIS3DH Device ID: 0x33\nFirmware: v3.1.2\n$$$";
+        return response.getBytes();
+    }
+
+    public static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            stream.write(part, 0, part.length);
+        }
+        return stream.toByteArray();
+    }
+}
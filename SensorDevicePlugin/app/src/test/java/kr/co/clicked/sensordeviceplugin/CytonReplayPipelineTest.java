@@ -0,0 +1,141 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CytonReplayPipelineTest {
+    private static final float SCALE_FACTOR = CytonPacketDecoder.scaleFactor(CytonPacketDecoder.DEFAULT_GAIN);
+    private static final int PACKETS = 1000;
+    private static final int PACKETS_PER_CHUNK = 4;
+    private static final long BYTES_PER_SECOND = CytonPacketDecoder.PACKET_SIZE * 250;
+    private static final long PERIOD = 4 * 1000 * 1000;
+    private static final int DEVICE_ID = SessionRecorder.usbDeviceId(0x0403, 0x6015);
+
+    // the frames of the pipeline, the sample number and the timestamp of each, and the value of its first channel
+    private static ArrayList<long[]> run(CytonReplayPipeline pipeline, MotionDataRing output) {
+        ArrayList<long[]> frames = new ArrayList<>();
+        boolean more = true;
+        while (more) {
+            more = pipeline.step();
+            // the pool of MotionData is only so large
+            MotionData frame;
+            while ((frame = output.poll()) != null) {
+                ByteBuffer data = ByteBuffer.wrap(frame.getData());
+                frames.add(new long[] { data.get(1) & 0xFF, data.getLong(MotionData.size() - 9), Math.round(data.getFloat(2) / SCALE_FACTOR) });
+                MotionData.dispose(frame);
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] packets(int first, int count) {
+        byte[][] packets = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            packets[i] = CytonPackets.packet(first + i, (first + i) * 10);
+        }
+        return CytonPackets.concat(packets);
+    }
+
+    private static void assertFrames(ArrayList<long[]> frames) {
+        assertEquals(PACKETS, frames.size());
+        for (int i = 0; i < PACKETS; i++) {
+            long[] frame = frames.get(i);
+            assertEquals(i & 0xFF, frame[0]);
+            assertEquals(i * 10, frame[2]);
+            // the samples of the first chunk are a nanosecond apart, which may round to the same flick
+            if (i > 0) {
+                assertTrue(frame[1] >= frames.get(i - 1)[1]);
+            }
+        }
+    }
+
+    @Test
+    public void givesTheSameFramesAtAnySpeed() {
+        byte[] stream = packets(0, PACKETS);
+        ReplaySerialTransport transport = ReplaySerialTransport.fromStream(stream, CytonPacketDecoder.PACKET_SIZE * PACKETS_PER_CHUNK, BYTES_PER_SECOND);
+        assertEquals(PACKETS / PACKETS_PER_CHUNK, transport.getChunkCount());
+        assertEquals(stream.length, transport.size());
+
+        MotionDataRing output = new MotionDataRing(64, MotionDataRing.OverflowPolicy.DropNewest);
+        CytonReplayPipeline pipeline = new CytonReplayPipeline(transport, output, 4096);
+        transport.setSpeed(ReplaySerialTransport.MAX_SPEED);
+        pipeline.open(false);
+        ArrayList<long[]> frames = run(pipeline, output);
+        assertFrames(frames);
+        assertTrue(transport.ended());
+        assertEquals(PACKETS, pipeline.getFrameCount());
+        assertEquals(0, pipeline.getDroppedFrameCount());
+
+        // the samples after the first chunk are timed by their counter, a period apart
+        for (int i = PACKETS_PER_CHUNK * 2; i < PACKETS; i++) {
+            assertEquals(MotionData.toFlicks(PERIOD), frames.get(i)[1] - frames.get(i - 1)[1], MotionData.toFlicks(10 * 1000));
+        }
+
+        // 40 times real time, which takes 100 ms
+        transport.rewind();
+        transport.setSpeed(40);
+        CytonReplayPipeline again = new CytonReplayPipeline(transport, output, 4096);
+        again.open(false);
+        ArrayList<long[]> replayed = run(again, output);
+        assertEquals(PACKETS, replayed.size());
+        for (int i = 0; i < PACKETS; i++) {
+            assertTrue(Arrays.equals(frames.get(i), replayed.get(i)));
+        }
+    }
+
+    @Test
+    public void replaysASessionLog() throws IOException, InterruptedException {
+        File file = File.createTempFile("session", ".log");
+        try {
+            SessionRecorder recorder = new SessionRecorder(file, SessionRecorder.DEFAULT_QUEUE_CAPACITY);
+            recorder.start();
+            // the board answers the reset in a chunk of its own
+            byte[] response = CytonPackets.resetResponse(false);
+            assertTrue(recorder.recordUsbData(DEVICE_ID, response, 0, response.length));
+            byte[] other = { 1, 2, 3 };
+            assertTrue(recorder.recordUsbData(DEVICE_ID + 1, other, 0, other.length));
+            for (int i = 0; i < PACKETS; i += PACKETS_PER_CHUNK) {
+                byte[] chunk = packets(i, PACKETS_PER_CHUNK);
+                assertTrue(recorder.recordUsbData(DEVICE_ID, chunk, 0, chunk.length));
+            }
+            recorder.stop();
+            assertNull(recorder.getError());
+            assertEquals(file.length(), recorder.getBytesWritten());
+
+            ReplaySerialTransport transport = ReplaySerialTransport.fromSessionLog(file, DEVICE_ID);
+            assertEquals(1 + PACKETS / PACKETS_PER_CHUNK, transport.getChunkCount());
+            transport.setSpeed(ReplaySerialTransport.MAX_SPEED);
+            MotionDataRing output = new MotionDataRing(64, MotionDataRing.OverflowPolicy.DropNewest);
+            CytonReplayPipeline pipeline = new CytonReplayPipeline(transport, output, 4096);
+            pipeline.open(true);
+            assertFrames(run(pipeline, output));
+            // the reset, then the start of the stream
+            assertEquals(2, transport.getWrittenCount());
+            assertFalse(pipeline.getParser().isDaisy());
+
+            // a record cut short ends the log
+            RandomAccessFile cut = new RandomAccessFile(file, "rw");
+            try {
+                cut.setLength(file.length() - 1);
+            }
+            finally {
+                cut.close();
+            }
+            assertEquals(PACKETS / PACKETS_PER_CHUNK, ReplaySerialTransport.fromSessionLog(file, DEVICE_ID).getChunkCount());
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CytonStreamParserTest {
+    private static final float SCALE_FACTOR = CytonPacketDecoder.scaleFactor(CytonPacketDecoder.DEFAULT_GAIN);
+    private static final long PERIOD = 4 * 1000 * 1000;
+    private static final long START = 1000L * 1000 * 1000;
+
+    // takes the commands, and answers nothing
+    private static class FakeTransport implements ISerialTransport {
+        public FakeTransport() {
+            _written = new ByteArrayOutputStream();
+        }
+
+        private ByteArrayOutputStream _written;
+
+        public String getWritten() { return _written.toString(); }
+
+        // implements ISerialTransport
+        @Override
+        public int syncWrite(byte[] buffer, int timeout) {
+            _written.write(buffer, 0, buffer.length);
+            return buffer.length;
+        }
+
+        @Override
+        public int syncRead(byte[] buffer, int offset, int timeout) {
+            return 0;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        _transport = new FakeTransport();
+        _data = new ByteRing(4096);
+        _parser = new CytonStreamParser(CytonStreamParser.DEFAULT_SAMPLE_RING_DEPTH);
+        _metrics = new MetricsRegistry();
+        _parser.registerMetrics(_metrics, "cyton.");
+        _sample = new BiosignalSensorData();
+    }
+
+    private FakeTransport _transport;
+    private ByteRing _data;
+    private CytonStreamParser _parser;
+    private MetricsRegistry _metrics;
+    private BiosignalSensorData _sample;
+
+    // a chunk as it arrived at now
+    private void receive(long now, byte[]... packets) {
+        byte[] chunk = CytonPackets.concat(packets);
+        _data.write(chunk, 0, chunk.length);
+        while (_parser.parse(_transport, _data, now) == false) {
+            // the rest of the chunk
+        }
+    }
+
+    private void start(boolean daisy) {
+        _parser.start(_transport, START);
+        assertEquals("v", _transport.getWritten());
+        receive(START, CytonPackets.resetResponse(daisy));
+        assertEquals("vb", _transport.getWritten());
+        assertEquals(daisy, _parser.isDaisy());
+    }
+
+    // the sample of the board packet of value and the Daisy packet of daisyValue
+    private void assertSample(int sampleNumber, int value, int daisyValue) {
+        assertTrue(_parser.pollValue(_sample));
+        assertEquals(sampleNumber, _sample.getSampleNumber());
+        assertEquals(CytonPacketDecoder.CHANNELS * 2, _sample.getChannelCount());
+        for (int i = 0; i < CytonPacketDecoder.CHANNELS; i++) {
+            assertEquals((value + i) * SCALE_FACTOR, _sample.getValue(i), 0);
+            assertEquals((daisyValue + i) * SCALE_FACTOR, _sample.getValue(CytonPacketDecoder.CHANNELS + i), 0);
+        }
+    }
+
+    @Test
+    public void startsTheStreamOnceTheBoardAnswers() {
+        _parser.start(_transport, START);
+        byte[] response = CytonPackets.resetResponse(false);
+        // the answer spans chunks, and "$$$" only ends the last one
+        receive(START, Arrays.copyOf(response, response.length - 2));
+        assertEquals("v", _transport.getWritten());
+        receive(START, new byte[] { '$', '$' });
+        assertEquals("vb", _transport.getWritten());
+        assertFalse(_parser.isDaisy());
+        assertEquals(CytonPacketDecoder.CHANNELS, _parser.getChannelCount());
+
+        receive(START + PERIOD, CytonPackets.packet(0, 100));
+        assertTrue(_parser.pollValue(_sample));
+        assertEquals(CytonPacketDecoder.CHANNELS, _sample.getChannelCount());
+        assertEquals(100 * SCALE_FACTOR, _sample.getValue(0), 0);
+    }
+
+    @Test
+    public void pairsDaisyPackets() {
+        start(true);
+        assertEquals(CytonPacketDecoder.CHANNELS * 2, _parser.getChannelCount());
+
+        // the Daisy sends the even packets, and the board the odd ones after them. a sample is numbered by its pair.
+        receive(START + PERIOD, CytonPackets.packet(0, 1000), CytonPackets.packet(1, 2000));
+        receive(START + 2 * PERIOD, CytonPackets.packet(2, 3000));
+        assertSample(0, 2000, 1000);
+        assertFalse(_parser.pollValue(_sample));
+        receive(START + 3 * PERIOD, CytonPackets.packet(3, 4000));
+        assertSample(1, 4000, 3000);
+        assertFalse(_parser.pollValue(_sample));
+        assertEquals(0, _metrics.getValue("cyton.unpairedPackets"));
+    }
+
+    @Test
+    public void countsUnpairedDaisyPackets() {
+        start(true);
+        receive(START + PERIOD,
+                CytonPackets.packet(0, 1000), CytonPackets.packet(1, 2000),
+                // the board packet 5 is lost, so the Daisy packet 4 is dropped
+                CytonPackets.packet(4, 5000),
+                CytonPackets.packet(6, 7000), CytonPackets.packet(7, 8000),
+                // the Daisy packet 8 is lost, so the board packet 9 is dropped
+                CytonPackets.packet(9, 10000),
+                CytonPackets.packet(10, 11000), CytonPackets.packet(11, 12000),
+                // an odd packet of another pair
+                CytonPackets.packet(12, 13000), CytonPackets.packet(15, 16000),
+                CytonPackets.packet(16, 17000), CytonPackets.packet(17, 18000));
+
+        assertSample(0, 2000, 1000);
+        assertSample(3, 8000, 7000);
+        assertSample(5, 12000, 11000);
+        assertSample(8, 18000, 17000);
+        assertFalse(_parser.pollValue(_sample));
+        assertEquals(3, _metrics.getValue("cyton.unpairedPackets"));
+        // the pairs 1, 2, 4, 6 and 7
+        assertEquals(5, _parser.getLostSampleCount());
+    }
+
+    @Test
+    public void spacesTheSamplesOfAChunk() {
+        start(false);
+        for (int chunk = 0; chunk < 3; chunk++) {
+            receive(START + (chunk * 4 + 4) * PERIOD, CytonPackets.packet(chunk * 4, 0), CytonPackets.packet(chunk * 4 + 1, 0),
+                    CytonPackets.packet(chunk * 4 + 2, 0), CytonPackets.packet(chunk * 4 + 3, 0));
+        }
+
+        long previous = 0;
+        for (int i = 0; i < 12; i++) {
+            assertTrue(_parser.pollValue(_sample));
+            long timestamp = _sample.getTimestamp();
+            assertTrue(timestamp > previous);
+            // once the clock has seen a chunk end, a period apart
+            if (i > 8) {
+                assertEquals(PERIOD, timestamp - previous, 10 * 1000);
+            }
+            previous = timestamp;
+        }
+    }
+
+    @Test
+    public void resynchronizesOnCorruptedPackets() {
+        start(false);
+        receive(START + PERIOD, CytonPackets.packet(0, 100), new byte[] { 1, 2, 3, 4, 5 },
+                CytonPackets.packet(1, 200), CytonPackets.packet(2, 300));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(_parser.pollValue(_sample));
+            assertEquals(i, _sample.getSampleNumber());
+            assertEquals((i + 1) * 100 * SCALE_FACTOR, _sample.getValue(0), 0);
+        }
+        assertEquals(3, _metrics.getValue("cyton.packets"));
+        assertEquals(1, _metrics.getValue("cyton.resyncs"));
+        assertEquals(5, _metrics.getValue("cyton.skippedBytes"));
+        assertEquals(0, _parser.getLostSampleCount());
+    }
+}
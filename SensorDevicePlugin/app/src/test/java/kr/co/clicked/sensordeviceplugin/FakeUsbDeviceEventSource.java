@@ -0,0 +1,44 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// reports the usb events the test makes up, on the calling thread, with no UsbDevice
+public class FakeUsbDeviceEventSource implements IUsbDeviceEventSource {
+    public FakeUsbDeviceEventSource() {
+        _attached = new LinkedHashMap<>();
+    }
+
+    private LinkedHashMap<String, int[]> _attached;    // to vendor id, product id
+    private Listener _listener;
+
+    public boolean isStarted() { return _listener != null; }
+
+    public void attach(String name, int vendorId, int productId) {
+        _attached.put(name, new int[] { vendorId, productId });
+        if (_listener != null) {
+            _listener.onUsbDeviceAttached(name, vendorId, productId, null);
+        }
+    }
+
+    public void detach(String name) {
+        _attached.remove(name);
+        if (_listener != null) {
+            _listener.onUsbDeviceDetached(name);
+        }
+    }
+
+    // implements IUsbDeviceEventSource
+    @Override
+    public void start(Listener listener) {
+        _listener = listener;
+        for (Map.Entry<String, int[]> entry : _attached.entrySet()) {
+            listener.onUsbDeviceAttached(entry.getKey(), entry.getValue()[0], entry.getValue()[1], null);
+        }
+    }
+
+    @Override
+    public void stop() {
+        _listener = null;
+    }
+}
@@ -0,0 +1,65 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTimelineTest {
+    private static final long PERIOD = 4 * 1000 * 1000;             // of the biosignal samples
+    private static final long TICK = 1000L * 1000 * 1000 / 90;      // of the sampler
+    private static final long LATENCY = 2 * 1000 * 1000;
+    private static final int CHUNK = 4;
+
+    @Test
+    public void keepsLaterTimes() {
+        FrameTimeline timeline = new FrameTimeline();
+        assertEquals(100, timeline.stamp(100));
+        assertEquals(200, timeline.stamp(200));
+        assertEquals(200, timeline.stamp(150));
+        assertEquals(250, timeline.stamp(250));
+
+        timeline.clear();
+        assertEquals(50, timeline.stamp(50));
+    }
+
+    // the All mode: every tick emits the samples arrived by its deadline, at their sample time,
+    // or a held frame at the deadline when there is none
+    @Test
+    public void keepsSamplesAndHeldFramesInOrder() {
+        SampleClock clock = new SampleClock(256, PERIOD);
+        FrameTimeline timeline = new FrameTimeline();
+        long last = Long.MIN_VALUE;
+        long sample = 0;
+        int held = 0;
+        int clamped = 0;
+        for (long tick = 1; tick < 2000; tick++) {
+            long deadline = tick * TICK;
+            boolean emitted = false;
+            while (true) {
+                long arrival = ((sample / CHUNK) * CHUNK + CHUNK - 1) * PERIOD + LATENCY;
+                if (arrival > deadline) {
+                    break;
+                }
+                long time = clock.sampleTime((int)(sample % 256), arrival);
+                long stamp = timeline.stamp(time);
+                if (stamp != time) {
+                    clamped++;
+                }
+                assertTrue(stamp >= last);
+                last = stamp;
+                sample++;
+                emitted = true;
+            }
+            if (emitted == false) {
+                long stamp = timeline.stamp(deadline);
+                assertTrue(stamp >= last);
+                last = stamp;
+                held++;
+            }
+        }
+        // the case at hand: held frames stamped after samples taken before their deadline but polled later
+        assertTrue(held > 0);
+        assertTrue(clamped > 0);
+    }
+}
@@ -0,0 +1,98 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.joml.Quaternionf;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InertiaSensorDataTest {
+    private static final float TOLERANCE = 1e-6f;
+
+    private static void assertOutput(InertiaSensorData data, int index, float... expected) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], data.getOutputValue(index + i), TOLERANCE);
+        }
+    }
+
+    // the orientation of a rotation by angle about the axis
+    private static Quaternionf rotation(float angle, float x, float y, float z) {
+        return new Quaternionf().rotateAxis(angle, x, y, z);
+    }
+
+    private static void assertOrientation(Quaternionf expected, InertiaSensorData data) {
+        // q and -q are the same orientation
+        float sign = Math.signum(expected.w) * Math.signum(data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 3));
+        assertOutput(data, InertiaSensorData.ORIENTATION_INDEX,
+                sign * expected.x, sign * expected.y, sign * expected.z, sign * expected.w);
+    }
+
+    @Test
+    public void takesSnapshotsOfPublishedFrames() {
+        InertiaSensorData data = new InertiaSensorData();
+        assertFalse(data.snapshot());
+
+        data.setAcceleration(1, 2, 3, 1000);
+        assertTrue(data.snapshot());
+        assertFalse(data.snapshot());
+        assertOutput(data, InertiaSensorData.ACCELERATION_INDEX, 1, 2, 3);
+        assertEquals(1000, data.getUpdateTime(InertiaSensorData.ACCELERATION));
+        assertEquals(0, data.getUpdateTime(InertiaSensorData.ORIENTATION));
+    }
+
+    @Test
+    public void interpolatesAtTheSampleTime() {
+        InertiaSensorData data = new InertiaSensorData();
+        data.setAcceleration(0, 0, 0, 1000);
+        data.setAcceleration(10, 20, -40, 2000);
+        data.setAngularVelocities(1, 1, 1, 1500);
+        data.snapshot();
+
+        data.resample(1250);
+        assertOutput(data, InertiaSensorData.ACCELERATION_INDEX, 2.5f, 5, -10);
+        // a field read once holds its reading
+        assertOutput(data, InertiaSensorData.ANGULAR_VELOCITIES_INDEX, 1, 1, 1);
+
+        // out of the last two readings, the nearer one
+        data.resample(500);
+        assertOutput(data, InertiaSensorData.ACCELERATION_INDEX, 0, 0, 0);
+        data.resample(3000);
+        assertOutput(data, InertiaSensorData.ACCELERATION_INDEX, 10, 20, -40);
+    }
+
+    @Test
+    public void slerpsOrientations() {
+        Quaternionf from = rotation(0.3f, 0, 0, 1);
+        Quaternionf[] tos = {
+                rotation(0.31f, 0, 0, 1),               // close enough for a normalized lerp
+                rotation(2.0f, 0.6f, 0, 0.8f),
+                rotation(-1.0f, 1, 0, 0),
+        };
+        for (Quaternionf to : tos) {
+            for (float alpha = 0.1f; alpha < 1; alpha += 0.2f) {
+                InertiaSensorData data = new InertiaSensorData();
+                data.setOrientation(from.x, from.y, from.z, from.w, 1000);
+                data.setOrientation(to.x, to.y, to.z, to.w, 2000);
+                data.snapshot();
+                data.resample(1000 + (long)(alpha * 1000));
+
+                assertOrientation(new Quaternionf(from).slerp(to, alpha), data);
+            }
+        }
+    }
+
+    @Test
+    public void slerpsTheShorterArc() {
+        Quaternionf from = rotation(0.2f, 0, 1, 0);
+        Quaternionf to = rotation(1.2f, 0, 1, 0);
+        InertiaSensorData data = new InertiaSensorData();
+        data.setOrientation(from.x, from.y, from.z, from.w, 1000);
+        // the same orientation as to
+        data.setOrientation(-to.x, -to.y, -to.z, -to.w, 2000);
+        data.snapshot();
+        data.resample(1500);
+
+        assertOrientation(rotation(0.7f, 0, 1, 0), data);
+    }
+}
@@ -0,0 +1,228 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionDataCodecTest {
+    private static final int FRAMES = 10;
+    private static final int INERTIA_VALUES = InertiaSensorData.SIZE / 4;
+    private static final float FIXED24_STEP = CytonPacketDecoder.scaleFactor(CytonPacketDecoder.DEFAULT_GAIN);
+
+    // MotionData frame layout
+    private static final int FRAME_SAMPLE_NUMBER = 1;
+    private static final int FRAME_BIOSIGNAL = 2;
+    private static final int FRAME_INERTIA = FRAME_BIOSIGNAL + BiosignalSensorData.SIZE;
+    private static final int FRAME_TIMESTAMP = FRAME_INERTIA + InertiaSensorData.SIZE;
+
+    private static byte[] createFrame(int sampleNumber, long timestamp, float[] biosignal, float[] inertia) {
+        ByteBuffer frame = ByteBuffer.allocate(MotionData.size());
+        frame.put(MotionData.HEADER);
+        frame.put((byte)sampleNumber);
+        for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+            frame.putFloat(biosignal[i]);
+        }
+        for (int i = 0; i < INERTIA_VALUES; i++) {
+            frame.putFloat(inertia[i]);
+        }
+        frame.putLong(timestamp);
+        frame.put(MotionData.FOOTER);
+        return frame.array();
+    }
+
+    private static byte[] createFrame(Random random, int sampleNumber) {
+        float[] biosignal = new float[BiosignalSensorData.CHANNELS];
+        for (int i = 0; i < biosignal.length; i++) {
+            biosignal[i] = (random.nextFloat() - 0.5f) * 2000;
+        }
+        float[] inertia = new float[INERTIA_VALUES];
+        for (int i = 0; i < inertia.length; i++) {
+            inertia[i] = (random.nextFloat() - 0.5f) * 20;
+        }
+        return createFrame(sampleNumber, 1000000000L + sampleNumber * 4000000L + random.nextInt(1000), biosignal, inertia);
+    }
+
+    private static float getFloat(byte[] frame, int offset) {
+        return ByteBuffer.wrap(frame).getFloat(offset);
+    }
+
+    private static void assertFrameEquals(byte[] expected, byte[] actual,
+                                          MotionDataCodec.BiosignalEncoding biosignalEncoding,
+                                          MotionDataCodec.InertiaEncoding inertiaEncoding) {
+        assertEquals(expected[0], actual[0]);
+        assertEquals(expected[FRAME_SAMPLE_NUMBER], actual[FRAME_SAMPLE_NUMBER]);
+        assertEquals(ByteBuffer.wrap(expected).getLong(FRAME_TIMESTAMP), ByteBuffer.wrap(actual).getLong(FRAME_TIMESTAMP));
+        assertEquals(expected[expected.length - 1], actual[actual.length - 1]);
+
+        for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+            float value = getFloat(expected, FRAME_BIOSIGNAL + i * 4);
+            float tolerance;
+            switch (biosignalEncoding) {
+                case Fixed24:
+                    tolerance = FIXED24_STEP;
+                    break;
+                case Float16:
+                    tolerance = Math.abs(value) / 1024;
+                    break;
+                default:
+                    tolerance = 0;
+                    break;
+            }
+            assertEquals(value, getFloat(actual, FRAME_BIOSIGNAL + i * 4), tolerance);
+        }
+        for (int i = 0; i < INERTIA_VALUES; i++) {
+            float value = getFloat(expected, FRAME_INERTIA + i * 4);
+            float tolerance = inertiaEncoding == MotionDataCodec.InertiaEncoding.Float16 ? Math.abs(value) / 1024 : 0;
+            assertEquals(value, getFloat(actual, FRAME_INERTIA + i * 4), tolerance);
+        }
+    }
+
+    @Test
+    public void roundTripsEveryEncodingPair() {
+        for (MotionDataCodec.BiosignalEncoding biosignalEncoding : MotionDataCodec.BiosignalEncoding.values()) {
+            for (MotionDataCodec.InertiaEncoding inertiaEncoding : MotionDataCodec.InertiaEncoding.values()) {
+                Random random = new Random(1);
+                MotionDataCodec encoder = new MotionDataCodec(biosignalEncoding, inertiaEncoding, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+                MotionDataCodec decoder = new MotionDataCodec(biosignalEncoding, inertiaEncoding, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+                ByteBuffer stream = ByteBuffer.allocate(MotionDataCodec.MAX_FRAME_SIZE * FRAMES);
+
+                byte[][] frames = new byte[FRAMES][];
+                for (int i = 0; i < FRAMES; i++) {
+                    frames[i] = createFrame(random, i);
+                    encoder.encode(frames[i], 0, stream);
+                }
+
+                stream.flip();
+                byte[] decoded = new byte[MotionData.size()];
+                for (int i = 0; i < FRAMES; i++) {
+                    assertTrue(decoder.decode(stream, decoded, 0));
+                    assertFrameEquals(frames[i], decoded, biosignalEncoding, inertiaEncoding);
+                }
+                assertEquals(0, stream.remaining());
+            }
+        }
+    }
+
+    @Test
+    public void deltaCodesFramesBetweenKeyFrames() {
+        int keyFrameInterval = 3;
+        Random random = new Random(2);
+        MotionDataCodec encoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Fixed24,
+                                                      MotionDataCodec.InertiaEncoding.Float16, keyFrameInterval);
+        ByteBuffer dst = ByteBuffer.allocate(MotionDataCodec.MAX_FRAME_SIZE);
+
+        for (int i = 0; i < keyFrameInterval * 3; i++) {
+            dst.clear();
+            int length = encoder.encode(createFrame(random, i), 0, dst);
+            assertEquals(length, dst.position());
+            assertEquals(MotionDataCodec.VERSION, dst.get(0));
+
+            boolean delta = (dst.get(1) & MotionDataCodec.FLAG_DELTA) != 0;
+            assertEquals(i % keyFrameInterval != 0, delta);
+        }
+
+        // a delta coded frame cannot be decoded without its previous frame
+        MotionDataCodec decoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Fixed24,
+                                                      MotionDataCodec.InertiaEncoding.Float16, keyFrameInterval);
+        dst.flip();
+        assertFalse(decoder.decode(dst, new byte[MotionData.size()], 0));
+        assertEquals(0, dst.position());
+    }
+
+    @Test
+    public void resetStartsOverFromKeyFrame() {
+        Random random = new Random(3);
+        MotionDataCodec encoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Fixed24,
+                                                      MotionDataCodec.InertiaEncoding.Float32, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+        ByteBuffer dst = ByteBuffer.allocate(MotionDataCodec.MAX_FRAME_SIZE);
+
+        encoder.encode(createFrame(random, 0), 0, dst);
+        dst.clear();
+        encoder.encode(createFrame(random, 1), 0, dst);
+        assertTrue((dst.get(1) & MotionDataCodec.FLAG_DELTA) != 0);
+
+        encoder.reset();
+        dst.clear();
+        encoder.encode(createFrame(random, 2), 0, dst);
+        assertTrue((dst.get(1) & MotionDataCodec.FLAG_DELTA) == 0);
+    }
+
+    @Test
+    public void dropsFieldsOfZeros() {
+        float[] biosignal = new float[BiosignalSensorData.CHANNELS];
+        float[] inertia = new float[INERTIA_VALUES];
+        for (int i = 0; i < 3; i++) {
+            inertia[InertiaSensorData.ACCELERATION_INDEX + i] = i + 1;
+        }
+        byte[] frame = createFrame(7, 123456789L, biosignal, inertia);
+
+        MotionDataCodec encoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Float32,
+                                                      MotionDataCodec.InertiaEncoding.Float32, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+        ByteBuffer dst = ByteBuffer.allocate(MotionDataCodec.MAX_FRAME_SIZE);
+        int length = encoder.encode(frame, 0, dst);
+
+        // version, flags, encodings, sample number, timestamp, acceleration
+        assertEquals(MotionDataCodec.FLAG_ACCELERATION, dst.get(1));
+        assertEquals(4 + 8 + 3 * 4, length);
+
+        // the dropped fields decode as zeros again
+        MotionDataCodec decoder = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Float32,
+                                                      MotionDataCodec.InertiaEncoding.Float32, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+        byte[] decoded = new byte[MotionData.size()];
+        Arrays.fill(decoded, (byte)0x55);
+        dst.flip();
+        assertTrue(decoder.decode(dst, decoded, 0));
+        assertArrayEquals(frame, decoded);
+    }
+
+    @Test
+    public void leavesTruncatedFramesUnread() {
+        for (MotionDataCodec.BiosignalEncoding biosignalEncoding : MotionDataCodec.BiosignalEncoding.values()) {
+            for (MotionDataCodec.InertiaEncoding inertiaEncoding : MotionDataCodec.InertiaEncoding.values()) {
+                Random random = new Random(4);
+                MotionDataCodec encoder = new MotionDataCodec(biosignalEncoding, inertiaEncoding, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+                MotionDataCodec decoder = new MotionDataCodec(biosignalEncoding, inertiaEncoding, MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+                ByteBuffer stream = ByteBuffer.allocate(MotionDataCodec.MAX_FRAME_SIZE * FRAMES);
+
+                // a key frame, then delta frames
+                byte[][] frames = new byte[FRAMES][];
+                int[] ends = new int[FRAMES];
+                for (int i = 0; i < FRAMES; i++) {
+                    frames[i] = createFrame(random, i);
+                    encoder.encode(frames[i], 0, stream);
+                    ends[i] = stream.position();
+                }
+
+                byte[] decoded = new byte[MotionData.size()];
+                byte[] untouched = new byte[MotionData.size()];
+                int start = 0;
+                for (int i = 0; i < FRAMES; i++) {
+                    // every prefix of the frame is left as is, and so are the output and the delta state
+                    for (int end = start; end < ends[i]; end++) {
+                        Arrays.fill(decoded, (byte)0x55);
+                        Arrays.fill(untouched, (byte)0x55);
+                        stream.limit(end);
+                        stream.position(start);
+                        assertFalse(decoder.decode(stream, decoded, 0));
+                        assertEquals(start, stream.position());
+                        assertArrayEquals(untouched, decoded);
+                    }
+
+                    stream.limit(ends[i]);
+                    stream.position(start);
+                    assertTrue(decoder.decode(stream, decoded, 0));
+                    assertEquals(ends[i], stream.position());
+                    assertFrameEquals(frames[i], decoded, biosignalEncoding, inertiaEncoding);
+                    start = ends[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class MotionDataTest {
+    // MotionData frame layout
+    private static final int FRAME_SAMPLE_NUMBER = 1;
+    private static final int FRAME_BIOSIGNAL = 2;
+    private static final int FRAME_INERTIA = FRAME_BIOSIGNAL + BiosignalSensorData.SIZE;
+    private static final int FRAME_TIMESTAMP = FRAME_INERTIA + InertiaSensorData.SIZE;
+    private static final int FRAME_FOOTER = FRAME_TIMESTAMP + 8;
+
+    private static BiosignalSensorData biosignal(int channelCount, float value) {
+        BiosignalSensorData biosignal = new BiosignalSensorData();
+        float[] values = new float[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            values[i] = value + i;
+        }
+        biosignal.setData(values);
+        return biosignal;
+    }
+
+    private static MotionData create(BiosignalSensorData biosignal) {
+        MotionData frame = MotionData.create((byte)7, 123456789L, biosignal, null);
+        assertNotNull(frame);
+        return frame;
+    }
+
+    // the payload at offset of the frame, returning the offset of the next one
+    private static int assertPayload(ByteBuffer frame, int offset, int device, byte kind, float... values) {
+        assertEquals(device, frame.get(offset) & 0xFF);
+        assertEquals(kind, frame.get(offset + 1));
+        assertEquals(values.length, frame.get(offset + 2) & 0xFF);
+        offset += MotionData.PAYLOAD_HEADER_SIZE;
+        for (float value : values) {
+            assertEquals(value, frame.getFloat(offset), 0);
+            offset += 4;
+        }
+        return offset;
+    }
+
+    private static float[] values(int count, float value) {
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = value + i;
+        }
+        return values;
+    }
+
+    @Test
+    public void fillsTheFixedFrame() {
+        MotionData frame = create(biosignal(BiosignalSensorData.CHANNELS, 10));
+        ByteBuffer data = ByteBuffer.wrap(frame.getData());
+
+        assertEquals(MotionData.size(), frame.getLength());
+        assertEquals(0, frame.getPayloadCount());
+        assertEquals(MotionData.HEADER, data.get(0));
+        assertEquals(7, data.get(FRAME_SAMPLE_NUMBER));
+        for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+            assertEquals(10 + i, data.getFloat(FRAME_BIOSIGNAL + i * 4), 0);
+        }
+        for (int i = 0; i < InertiaSensorData.SIZE; i++) {
+            assertEquals(0, data.get(FRAME_INERTIA + i));
+        }
+        assertEquals(123456789L, data.getLong(FRAME_TIMESTAMP));
+        assertEquals(MotionData.FOOTER, data.get(FRAME_FOOTER));
+        MotionData.dispose(frame);
+    }
+
+    // the frame of fan-in: the first device fills the fixed frame, and the others follow by the index of their candidate
+    @Test
+    public void appendsThePayloadsOfOtherDevices() {
+        MotionData frame = create(biosignal(BiosignalSensorData.CHANNELS, 10));
+        frame.addPayload(1, MotionData.PAYLOAD_BIOSIGNAL, biosignal(BiosignalSensorData.CHANNELS, 20).getData(), BiosignalSensorData.CHANNELS);
+        InertiaSensorData inertia = new InertiaSensorData();
+        inertia.setAcceleration(1, 2, 3, 1000);
+        inertia.snapshot();
+        frame.addPayload(2, MotionData.PAYLOAD_INERTIA, inertia.getData(), InertiaSensorData.SIZE / 4);
+
+        ByteBuffer data = ByteBuffer.wrap(frame.getData());
+        assertEquals(MotionData.HEADER_WITH_PAYLOADS, data.get(0));
+        assertEquals(MotionData.FOOTER, data.get(FRAME_FOOTER));
+        assertEquals(2, frame.getPayloadCount());
+        assertEquals(2, data.get(MotionData.size()));
+
+        int offset = assertPayload(data, MotionData.size() + 1, 1, MotionData.PAYLOAD_BIOSIGNAL, values(BiosignalSensorData.CHANNELS, 20));
+        float[] inertiaValues = new float[InertiaSensorData.SIZE / 4];
+        inertiaValues[0] = 1;
+        inertiaValues[1] = 2;
+        inertiaValues[2] = 3;
+        offset = assertPayload(data, offset, 2, MotionData.PAYLOAD_INERTIA, inertiaValues);
+        assertEquals(offset, frame.getLength());
+
+        // with the payloads as they are
+        ByteBuffer stream = ByteBuffer.allocate(frame.getLength());
+        frame.copyWithPayloadsTo(stream);
+        assertArrayEquals(Arrays.copyOf(frame.getData(), frame.getLength()), stream.array());
+
+        // the fixed frame only, which announces no payloads
+        ByteBuffer fixed = ByteBuffer.allocate(MotionData.size());
+        frame.copyTo(fixed);
+        byte[] expected = Arrays.copyOf(frame.getData(), MotionData.size());
+        expected[0] = MotionData.HEADER;
+        assertArrayEquals(expected, fixed.array());
+        MotionData.dispose(frame);
+    }
+
+    @Test
+    public void marksHeldBiosignals() {
+        MotionData frame = create(biosignal(BiosignalSensorData.CHANNELS, 10));
+        frame.addBiosignalHeldMark();
+
+        ByteBuffer data = ByteBuffer.wrap(frame.getData());
+        assertEquals(1, frame.getPayloadCount());
+        int offset = assertPayload(data, MotionData.size() + 1, MotionData.PRIMARY_DEVICE, MotionData.PAYLOAD_BIOSIGNAL_HELD);
+        assertEquals(offset, frame.getLength());
+        MotionData.dispose(frame);
+    }
+
+    // a Cyton with a Daisy
+    @Test
+    public void appendsBiosignalsWiderThanTheFixedFrame() {
+        MotionData frame = create(biosignal(BiosignalSensorData.MAX_CHANNELS, 10));
+
+        ByteBuffer data = ByteBuffer.wrap(frame.getData());
+        for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+            assertEquals(10 + i, data.getFloat(FRAME_BIOSIGNAL + i * 4), 0);
+        }
+        assertEquals(1, frame.getPayloadCount());
+        int offset = assertPayload(data, MotionData.size() + 1, MotionData.PRIMARY_DEVICE, MotionData.PAYLOAD_BIOSIGNAL,
+                values(BiosignalSensorData.MAX_CHANNELS, 10));
+        assertEquals(offset, frame.getLength());
+        MotionData.dispose(frame);
+    }
+
+    @Test
+    public void appendsAuxData() {
+        BiosignalSensorData biosignal = biosignal(BiosignalSensorData.CHANNELS, 10);
+        biosignal.setAuxData(values(BiosignalSensorData.AUX_VALUES, 0.5f), 0);
+        biosignal.setAuxType(CytonPacketDecoder.PACKET_TIME_SYNCED_ACCEL);
+        biosignal.setBoardTime(0xFFFFFFF0L);
+        MotionData frame = create(biosignal);
+
+        ByteBuffer data = ByteBuffer.wrap(frame.getData());
+        assertEquals(1, frame.getPayloadCount());
+        int offset = MotionData.size() + 1;
+        assertEquals(MotionData.PRIMARY_DEVICE, data.get(offset) & 0xFF);
+        assertEquals(MotionData.PAYLOAD_AUX, data.get(offset + 1));
+        // and the board time, as an unsigned int
+        assertEquals(BiosignalSensorData.AUX_VALUES + 1, data.get(offset + 2));
+        offset += MotionData.PAYLOAD_HEADER_SIZE;
+        for (int i = 0; i < BiosignalSensorData.AUX_VALUES; i++) {
+            assertEquals(0.5f + i, data.getFloat(offset + i * 4), 0);
+        }
+        assertEquals(0xFFFFFFF0L, data.getInt(offset + BiosignalSensorData.AUX_VALUES * 4) & 0xFFFFFFFFL);
+        MotionData.dispose(frame);
+
+        // without a board time
+        biosignal.setBoardTime(BiosignalSensorData.NO_BOARD_TIME);
+        frame = create(biosignal);
+        assertEquals(BiosignalSensorData.AUX_VALUES, frame.getData()[MotionData.size() + 3]);
+        assertEquals(MotionData.size() + 1 + MotionData.PAYLOAD_HEADER_SIZE + BiosignalSensorData.AUX_VALUES * 4, frame.getLength());
+        MotionData.dispose(frame);
+    }
+}
@@ -0,0 +1,78 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.joml.Quaternionf;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrientationPredictorTest {
+    private static final long PERIOD = 10 * 1000 * 1000;
+    private static final long LOOK_AHEAD = 30 * 1000 * 1000;
+    private static final float ANGULAR_VELOCITY = 2;     // rad/s
+    private static final int SAMPLES = 1000;
+
+    private static Quaternionf orientationAt(long time) {
+        // about a tilted axis, from a tilted start
+        Quaternionf orientation = new Quaternionf().rotateAxis(0.5f, 1, 0, 0);
+        return orientation.rotateAxis(ANGULAR_VELOCITY * time / 1e9f, 0, 0.6f, 0.8f);
+    }
+
+    private static float angleBetween(Quaternionf q, InertiaSensorData data) {
+        double dot = q.x * data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX)
+                + q.y * data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 1)
+                + q.z * data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 2)
+                + q.w * data.getOutputValue(InertiaSensorData.ORIENTATION_INDEX + 3);
+        return (float)(2 * Math.acos(Math.min(1, Math.abs(dot))));
+    }
+
+    // samples the constant rotation, with the angular velocity in the body frame
+    private static void sample(OrientationPredictor predictor, InertiaSensorData data, long time) {
+        Quaternionf orientation = orientationAt(time);
+        data.setOrientation(orientation.x, orientation.y, orientation.z, orientation.w, time);
+        data.setAngularVelocities(0, ANGULAR_VELOCITY * 0.6f, ANGULAR_VELOCITY * 0.8f, time);
+        data.snapshot();
+        data.resample(time);
+        predictor.predict(time, data);
+    }
+
+    @Test
+    public void predictsConstantRotation() {
+        OrientationPredictor predictor = new OrientationPredictor(OrientationPredictor.DEFAULT_MAX_PENDING_PREDICTIONS);
+        predictor.setLookAheadNanos(LOOK_AHEAD);
+        InertiaSensorData data = new InertiaSensorData();
+        for (int i = 1; i <= SAMPLES; i++) {
+            long time = i * PERIOD;
+            sample(predictor, data, time);
+            assertEquals(0, angleBetween(orientationAt(time + LOOK_AHEAD), data), 1e-3f);
+        }
+
+        assertEquals(SAMPLES, predictor.getPredictionCount());
+        // all but the predictions still ahead of the last sample
+        assertEquals(SAMPLES - LOOK_AHEAD / PERIOD, predictor.getScoredCount());
+        assertEquals(0, predictor.getDiscardedCount());
+        assertTrue("mean error " + predictor.getMeanErrorRadians(), predictor.getMeanErrorRadians() < 2e-4);
+        assertTrue("max error " + predictor.getMaxErrorRadians(), predictor.getMaxErrorRadians() < 2e-3);
+    }
+
+    @Test
+    public void leavesOrientationWithoutLookAhead() {
+        OrientationPredictor predictor = new OrientationPredictor(OrientationPredictor.DEFAULT_MAX_PENDING_PREDICTIONS);
+        InertiaSensorData data = new InertiaSensorData();
+        sample(predictor, data, PERIOD);
+        assertEquals(0, angleBetween(orientationAt(PERIOD), data), 1e-6f);
+        assertEquals(0, predictor.getPredictionCount());
+    }
+
+    @Test
+    public void discardsPendingPredictionsOnClear() {
+        OrientationPredictor predictor = new OrientationPredictor(OrientationPredictor.DEFAULT_MAX_PENDING_PREDICTIONS);
+        predictor.setLookAheadNanos(LOOK_AHEAD);
+        InertiaSensorData data = new InertiaSensorData();
+        for (int i = 1; i <= 5; i++) {
+            sample(predictor, data, i * PERIOD);
+        }
+        predictor.clear();
+        assertEquals(LOOK_AHEAD / PERIOD, predictor.getDiscardedCount());
+    }
+}
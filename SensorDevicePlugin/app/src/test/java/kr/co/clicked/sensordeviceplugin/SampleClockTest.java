@@ -0,0 +1,132 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleClockTest {
+    private static final int MODULO = 256;
+    private static final long PERIOD = 4 * 1000 * 1000;
+    private static final long START = 1000L * 1000 * 1000;
+    private static final long LATENCY = 2 * 1000 * 1000;
+    private static final int CHUNK = 4;     // samples per usb chunk, one every 16 ms
+
+    @Before
+    public void setUp() {
+        _clock = new SampleClock(MODULO, PERIOD);
+        _lastTime = Long.MIN_VALUE;
+    }
+
+    private SampleClock _clock;
+    private long _lastTime;
+
+    private static long takenAt(long index) {
+        return START + index * PERIOD;
+    }
+
+    // the time the chunk of the sample arrives, after its last sample was taken
+    private static long chunkArrival(long index) {
+        return takenAt((index / CHUNK) * CHUNK + CHUNK - 1) + LATENCY;
+    }
+
+    private long time(long index, long arrival) {
+        long time = _clock.sampleTime((int)(index % MODULO), arrival);
+        // the first chunk stamps its samples a nanosecond apart from its arrival
+        assertTrue("after its arrival", time < arrival + CHUNK);
+        assertTrue("out of order", time > _lastTime);
+        _lastTime = time;
+        return time;
+    }
+
+    // a stream of samples first to last - 1, in chunks, returning the error of the last one
+    private long stream(long first, long last) {
+        long error = 0;
+        for (long i = first; i < last; i++) {
+            error = time(i, chunkArrival(i)) - takenAt(i);
+        }
+        return error;
+    }
+
+    @Test
+    public void timesSamplesByTheirCounter() {
+        stream(0, 2500);
+        for (long i = 2500; i < 2600; i++) {
+            long time = time(i, chunkArrival(i));
+            // the last sample of a chunk bounds the clock, so every sample is off by the latency only
+            assertEquals(LATENCY, time - takenAt(i), 20 * 1000);
+        }
+        assertEquals(0, _clock.getReanchorCount());
+    }
+
+    @Test
+    public void spacesBurstsOfOneChunk() {
+        stream(0, 2 * CHUNK);
+        long arrival = chunkArrival(2 * CHUNK);
+        long first = time(2 * CHUNK, arrival);
+        for (int i = 1; i < CHUNK; i++) {
+            long time = time(2 * CHUNK + i, arrival);
+            assertEquals(first + i * PERIOD, time, 10 * 1000);
+            assertTrue(time <= arrival);
+        }
+    }
+
+    @Test
+    public void skipsLostSamples() {
+        stream(0, 1000);
+        long before = time(1000, chunkArrival(1000));
+        // 1001 and 1002 were lost
+        long after = time(1003, chunkArrival(1003));
+        assertEquals(3 * PERIOD, after - before, 1000);
+    }
+
+    @Test
+    public void keepsDelayedSamples() {
+        stream(0, 1000);
+        // the reader stalls for 200 ms, and the samples taken meanwhile arrive all at once
+        long arrival = takenAt(1050) + LATENCY;
+        for (long i = 1000; i < 1050; i++) {
+            // off by the creep of 250 ppm over the stall as well
+            assertEquals(LATENCY, time(i, arrival) - takenAt(i), 80 * 1000);
+        }
+        assertEquals(LATENCY, stream(1050, 1500), 20 * 1000);
+        assertEquals(0, _clock.getReanchorCount());
+    }
+
+    @Test
+    public void reanchorsAfterStallLongerThanWrap() {
+        stream(0, 1000);
+        // 300 samples, more than a wrap of the counter, are lost while the stream stalls
+        long error = time(1300, chunkArrival(1300)) - takenAt(1300);
+        assertTrue("off by " + error, Math.abs(error) < CHUNK * PERIOD + LATENCY);
+        assertEquals(LATENCY, stream(1301, 1500), 20 * 1000);
+        assertEquals(1, _clock.getReanchorCount());
+    }
+
+    @Test
+    public void reanchorsAfterWrapLostWithoutStall() {
+        stream(0, 1000);
+        // the reader falls behind, at half the rate of the board, until its buffer overflows
+        for (long i = 1000; i < 1300; i++) {
+            time(i, START + (2 * i - 1000) * PERIOD + LATENCY);
+        }
+        // and loses more than a wrap of samples, then keeps up again. the chunks kept coming all along.
+        long error = stream(1600, 1800);
+        assertEquals(LATENCY, error, 20 * 1000);
+        assertTrue(_clock.getReanchorCount() > 0);
+    }
+
+    @Test
+    public void followsFasterBoard() {
+        // 100 ppm faster than nominal, which the clock catches up with as it creeps by 250 ppm
+        long offset = 0;
+        for (long i = 0; i < 25000; i++) {
+            long last = (i / CHUNK) * CHUNK + CHUNK - 1;
+            long taken = START + i * PERIOD - i * PERIOD / 10000;
+            long arrival = START + last * PERIOD - last * PERIOD / 10000 + LATENCY;
+            offset = time(i, arrival) - taken;
+        }
+        assertEquals(LATENCY, offset, PERIOD);
+    }
+}
@@ -0,0 +1,198 @@
+package kr.co.clicked.sensordeviceplugin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SensorDeviceSelectorTest {
+    // available while a usb device of its id is attached
+    private static class FakeSensorDevice implements ISensorDevice {
+        public FakeSensorDevice(int vendorId, int productId) {
+            _vendorId = vendorId;
+            _productId = productId;
+        }
+
+        private int _vendorId;
+        private int _productId;
+        private boolean _available;
+        private boolean _failOpen;
+        private boolean _open;
+        private int _openCount;
+
+        public void setFailOpen(boolean failOpen) { _failOpen = failOpen; }
+
+        public boolean isOpen() { return _open; }
+
+        public int getOpenCount() { return _openCount; }
+
+        // implements ISensorDevice
+        @Override
+        public boolean available() { return _available; }
+
+        @Override
+        public boolean open() {
+            assertFalse(_open);
+            if (_failOpen) {
+                return false;
+            }
+            _open = true;
+            _openCount++;
+            return true;
+        }
+
+        @Override
+        public void update() {}
+
+        @Override
+        public void close() {
+            assertTrue(_open);
+            _open = false;
+        }
+
+        @Override
+        public void updateDeviceStatus(UsbDeviceTable usbDevices) {
+            _available = usbDevices.contains(_vendorId, _productId);
+        }
+
+        @Override
+        public void setSessionRecorder(SessionRecorder recorder) {}
+
+        @Override
+        public void registerMetrics(MetricsRegistry registry) {}
+    }
+
+    @Before
+    public void setUp() {
+        _preferred = new FakeSensorDevice(0x0403, 0x6015);
+        _fallback = new FakeSensorDevice(0x10C4, 0xEA60);
+        _selector = new SensorDeviceSelector<>(Arrays.asList(_preferred, _fallback), new Object());
+        _source = new FakeUsbDeviceEventSource();
+        _hotPlug = new SensorDeviceHotPlug(_source);
+        _hotPlug.addSelector(_selector);
+    }
+
+    private FakeSensorDevice _preferred;
+    private FakeSensorDevice _fallback;
+    private SensorDeviceSelector<FakeSensorDevice> _selector;
+    private FakeUsbDeviceEventSource _source;
+    private SensorDeviceHotPlug _hotPlug;
+
+    @Test
+    public void selectsNothingWithoutDevices() {
+        _hotPlug.start();
+
+        assertTrue(_source.isStarted());
+        assertNull(_selector.getCurrent());
+        assertEquals(0, _hotPlug.getSelectionCount());
+    }
+
+    @Test
+    public void selectsDevicesAttachedBeforeStart() {
+        _source.attach("fallback", 0x10C4, 0xEA60);
+        _source.attach("preferred", 0x0403, 0x6015);
+        _hotPlug.start();
+
+        assertSame(_preferred, _selector.getCurrent());
+        assertTrue(_preferred.isOpen());
+        assertFalse(_fallback.isOpen());
+        assertEquals(2, _hotPlug.getAttachCount());
+    }
+
+    @Test
+    public void prefersEarlierCandidates() {
+        _hotPlug.start();
+
+        _source.attach("fallback", 0x10C4, 0xEA60);
+        assertSame(_fallback, _selector.getCurrent());
+        assertTrue(_fallback.isOpen());
+
+        // replaces the current one as soon as it comes
+        _source.attach("preferred", 0x0403, 0x6015);
+        assertSame(_preferred, _selector.getCurrent());
+        assertTrue(_preferred.isOpen());
+        assertFalse(_fallback.isOpen());
+        assertEquals(2, _hotPlug.getSelectionCount());
+
+        // a less preferred one does not replace it
+        _source.detach("fallback");
+        _source.attach("fallback", 0x10C4, 0xEA60);
+        assertSame(_preferred, _selector.getCurrent());
+        assertEquals(1, _preferred.getOpenCount());
+        assertEquals(1, _fallback.getOpenCount());
+        assertEquals(2, _hotPlug.getSelectionCount());
+    }
+
+    @Test
+    public void fallsBackOnDetach() {
+        _source.attach("preferred", 0x0403, 0x6015);
+        _source.attach("fallback", 0x10C4, 0xEA60);
+        _hotPlug.start();
+        assertSame(_preferred, _selector.getCurrent());
+
+        _source.detach("preferred");
+        assertSame(_fallback, _selector.getCurrent());
+        assertFalse(_preferred.isOpen());
+        assertTrue(_fallback.isOpen());
+
+        _source.detach("fallback");
+        assertNull(_selector.getCurrent());
+        assertFalse(_fallback.isOpen());
+        assertEquals(2, _hotPlug.getDetachCount());
+        assertEquals(3, _hotPlug.getSelectionCount());
+
+        // a detach of a device never attached changes nothing
+        _source.detach("unknown");
+        assertEquals(2, _hotPlug.getDetachCount());
+        assertEquals(3, _hotPlug.getSelectionCount());
+    }
+
+    @Test
+    public void ignoresDuplicateAttach() {
+        _hotPlug.start();
+
+        _source.attach("preferred", 0x0403, 0x6015);
+        _source.attach("preferred", 0x0403, 0x6015);
+        assertSame(_preferred, _selector.getCurrent());
+        assertEquals(1, _preferred.getOpenCount());
+        assertEquals(1, _hotPlug.getAttachCount());
+        assertEquals(1, _hotPlug.getSelectionCount());
+
+        // one detach is enough for it to be gone
+        _source.detach("preferred");
+        assertNull(_selector.getCurrent());
+        assertFalse(_hotPlug.getUsbDevices().contains(0x0403, 0x6015));
+    }
+
+    @Test
+    public void skipsDevicesFailingToOpen() {
+        _preferred.setFailOpen(true);
+        _hotPlug.start();
+
+        _source.attach("preferred", 0x0403, 0x6015);
+        assertNull(_selector.getCurrent());
+        assertEquals(0, _hotPlug.getSelectionCount());
+
+        _source.attach("fallback", 0x10C4, 0xEA60);
+        assertSame(_fallback, _selector.getCurrent());
+
+        // the current one is kept while a preferred one still fails
+        _source.detach("preferred");
+        _source.attach("preferred", 0x0403, 0x6015);
+        assertSame(_fallback, _selector.getCurrent());
+        assertEquals(1, _fallback.getOpenCount());
+
+        // and replaced once it opens
+        _preferred.setFailOpen(false);
+        _source.detach("preferred");
+        _source.attach("preferred", 0x0403, 0x6015);
+        assertSame(_preferred, _selector.getCurrent());
+        assertFalse(_fallback.isOpen());
+    }
+}
@@ -0,0 +1,58 @@
+package com.felhr.usbserial.benchmark;
+
+import com.felhr.deviceids.CH34xIds;
+import com.felhr.deviceids.CP210xIds;
+import com.felhr.deviceids.DeviceIds;
+import com.felhr.deviceids.FTDISioIds;
+import com.felhr.deviceids.PL2303Ids;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Finds the driver family of a device. One operation is one lookup of each of the ids below:
+ * a CH34x device, which the scans reach last, and a device which no family knows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceIdBenchmark
+{
+    private int ch34xVendorId = 0x1a86;
+    private int ch34xProductId = 0x7523;
+    private int unknownVendorId = 0x2a03;
+    private int unknownProductId = 0x0043;
+
+    // The probe order of createUsbSerialDevice before the index, for comparison
+    private static int scan(int vid, int pid)
+    {
+        if(FTDISioIds.isDeviceSupported(vid, pid))
+            return DeviceIds.FTDI;
+        else if(CP210xIds.isDeviceSupported(vid, pid))
+            return DeviceIds.CP210X;
+        else if(PL2303Ids.isDeviceSupported(vid, pid))
+            return DeviceIds.PL2303;
+        else if(CH34xIds.isDeviceSupported(vid, pid))
+            return DeviceIds.CH34X;
+        else
+            return DeviceIds.UNKNOWN;
+    }
+
+    @Benchmark
+    public int scanIds()
+    {
+        return scan(ch34xVendorId, ch34xProductId) + scan(unknownVendorId, unknownProductId);
+    }
+
+    @Benchmark
+    public int lookUpIndex()
+    {
+        return DeviceIds.getFamily(ch34xVendorId, ch34xProductId) + DeviceIds.getFamily(unknownVendorId, unknownProductId);
+    }
+}
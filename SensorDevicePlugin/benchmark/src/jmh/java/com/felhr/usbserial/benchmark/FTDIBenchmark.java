@@ -0,0 +1,49 @@
+package com.felhr.usbserial.benchmark;
+
+import com.felhr.usbserial.FTDIPacketAdapter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Strips the status bytes of one bulk transfer of FTDI packets. One operation is one transfer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FTDIBenchmark
+{
+    private static final int TRANSFER_SIZE = 16 * 1024;
+
+    private byte[] transfer;
+    private byte[] adapted;
+
+    @Setup
+    public void setup()
+    {
+        transfer = new byte[TRANSFER_SIZE];
+        for(int i=0;i<=TRANSFER_SIZE-1;i++)
+            transfer[i] = (byte) i;
+        adapted = new byte[TRANSFER_SIZE];
+    }
+
+    // The allocating path of the callback api, for comparison
+    @Benchmark
+    public byte[] adaptArray()
+    {
+        return FTDIPacketAdapter.adaptArray(transfer);
+    }
+
+    @Benchmark
+    public int adaptArrayInPlace()
+    {
+        return FTDIPacketAdapter.adaptArray(transfer, TRANSFER_SIZE, adapted, 0);
+    }
+}
@@ -0,0 +1,76 @@
+package com.felhr.usbserial.benchmark;
+
+import com.felhr.usbserial.SerialBuffer;
+import com.felhr.usbserial.SerialWriteQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The read and write paths of SerialBuffer, on one thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerialBufferBenchmark
+{
+    private static final int WRITES = 64;
+    private static final int WRITE_SIZE = 16;
+    private static final int READ_SIZE = 1024;
+
+    private SerialBuffer buffer;
+    private byte[] command;
+    private ByteBuffer received;
+
+    @Setup
+    public void setup()
+    {
+        buffer = new SerialBuffer(true);
+        command = new byte[WRITE_SIZE];
+        received = ByteBuffer.allocate(READ_SIZE);
+    }
+
+    // Small writes coalesced into segments, as a write thread takes them. One operation is one write.
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public int putAndTakeWrites()
+    {
+        for(int i=0;i<=WRITES-1;i++)
+            buffer.putWriteBuffer(command);
+
+        int taken = 0;
+        SerialWriteQueue.Segment segment;
+        while((segment = buffer.getWriteSegment(0)) != null)
+            taken += segment.length();
+        return taken;
+    }
+
+    // One bulk transfer received into the next buffer of the pool
+    @Benchmark
+    public ByteBuffer nextReadBuffer()
+    {
+        ByteBuffer readBuffer = buffer.nextReadBuffer();
+        received.clear();
+        readBuffer.put(received);
+        return readBuffer;
+    }
+
+    // The allocating path of the callback api, for comparison
+    @Benchmark
+    public byte[] getDataReceived()
+    {
+        buffer.clearReadBuffer();
+        received.clear();
+        buffer.putReadBuffer(received);
+        return buffer.getDataReceived();
+    }
+}
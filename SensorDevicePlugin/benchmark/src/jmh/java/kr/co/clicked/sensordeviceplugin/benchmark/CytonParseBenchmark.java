@@ -0,0 +1,85 @@
+package kr.co.clicked.sensordeviceplugin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import kr.co.clicked.sensordeviceplugin.BiosignalSensorData;
+import kr.co.clicked.sensordeviceplugin.ByteRing;
+import kr.co.clicked.sensordeviceplugin.CytonPacketDecoder;
+import kr.co.clicked.sensordeviceplugin.CytonReplayPipeline;
+import kr.co.clicked.sensordeviceplugin.CytonStreamParser;
+import kr.co.clicked.sensordeviceplugin.MotionDataRing;
+import kr.co.clicked.sensordeviceplugin.ReplaySerialTransport;
+
+// the path of a biosignal sample from the bytes of the board to a MotionData frame. one operation is one packet.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CytonParseBenchmark {
+    // a whole cycle of the sample counter, so the stream repeats without gaps
+    private static final int PACKETS = 256;
+    private static final int READ_CHUNK_SIZE = 512;
+
+    private byte[] _stream;
+    private CytonPacketDecoder _decoder;
+    private float[] _values;
+    private ByteRing _ring;
+    private CytonStreamParser _parser;
+    private BiosignalSensorData _sample;
+    private ReplaySerialTransport _replay;
+    private CytonReplayPipeline _pipeline;
+
+    @Setup
+    public void setup() {
+        _stream = CytonStreams.packets(PACKETS);
+        _decoder = new CytonPacketDecoder();
+        _values = new float[CytonPacketDecoder.CHANNELS];
+
+        _ring = new ByteRing(16 * 1024);
+        _parser = new CytonStreamParser(PACKETS);
+        _parser.resume(CytonStreams.NULL_TRANSPORT);
+        _sample = new BiosignalSensorData();
+
+        _replay = ReplaySerialTransport.fromStream(_stream, READ_CHUNK_SIZE, 8250);
+        _replay.setSpeed(ReplaySerialTransport.MAX_SPEED);
+        _pipeline = new CytonReplayPipeline(_replay, new MotionDataRing(32, MotionDataRing.OverflowPolicy.OverwriteOldest), 16 * 1024);
+    }
+
+    @Benchmark
+    public int decodePacket() {
+        return _decoder.decode(_stream, 0, _values, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public int parseStream() {
+        _ring.write(_stream, 0, _stream.length);
+        while (_parser.parse(CytonStreams.NULL_TRANSPORT, _ring, 0) == false) {
+            // just repeat until all received data parsed
+        }
+
+        int count = 0;
+        while (_parser.pollValue(_sample)) {
+            count++;
+        }
+        return count;
+    }
+
+    // reads, parses and frames the stream as the sampler would, into a ring nobody drains
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public long replayPipeline() {
+        _replay.rewind();
+        _pipeline.open(false);
+        _pipeline.run();
+        return _pipeline.getFrameCount();
+    }
+}
@@ -0,0 +1,36 @@
+package kr.co.clicked.sensordeviceplugin.benchmark;
+
+import kr.co.clicked.sensordeviceplugin.CytonPacketDecoder;
+import kr.co.clicked.sensordeviceplugin.ISerialTransport;
+
+// synthetic Cyton streams, as a board sends them once started
+public class CytonStreams {
+    // a transport which takes the commands of a parser and never delivers anything
+    public static final ISerialTransport NULL_TRANSPORT = new ISerialTransport() {
+        @Override
+        public int syncWrite(byte[] buffer, int timeout) { return buffer.length; }
+
+        @Override
+        public int syncRead(byte[] buffer, int offset, int timeout) { return 0; }
+    };
+
+    // count packets with consecutive sample numbers and a sine wave of a different amplitude on every channel
+    public static byte[] packets(int count) {
+        int size = CytonPacketDecoder.PACKET_SIZE;
+        byte[] result = new byte[count * size];
+        for (int i = 0; i < count; i++) {
+            int offset = i * size;
+            result[offset] = (byte)0xA0;
+            result[offset + 1] = (byte)i;
+            for (int channel = 0; channel < CytonPacketDecoder.CHANNELS; channel++) {
+                int value = (int)(Math.sin(i * 0.1) * (channel + 1) * 100000);
+                int in = offset + 2 + channel * 3;
+                result[in] = (byte)(value >> 16);
+                result[in + 1] = (byte)(value >> 8);
+                result[in + 2] = (byte)value;
+            }
+            result[offset + size - 1] = (byte)0xC0;
+        }
+        return result;
+    }
+}
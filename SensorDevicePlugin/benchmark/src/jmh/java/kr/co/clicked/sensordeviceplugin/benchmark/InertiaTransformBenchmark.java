@@ -0,0 +1,74 @@
+package kr.co.clicked.sensordeviceplugin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import kr.co.clicked.sensordeviceplugin.AndroidInertiaSensorTransform;
+import kr.co.clicked.sensordeviceplugin.InertiaSensorData;
+import kr.co.clicked.sensordeviceplugin.OrientationPredictor;
+
+// an inertia reading from the sensor event to the sampled frame. one operation is one event or one sample.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InertiaTransformBenchmark {
+    private static final long EVENT_PERIOD_NANOS = 4 * 1000 * 1000;
+
+    private float[] _acceleration;
+    private float[] _rotationVector;
+    private InertiaSensorData _inertia;
+    private OrientationPredictor _predictor;
+    private long _time;
+
+    @Setup
+    public void setup() {
+        _acceleration = new float[] { 0.1f, 9.8f, 0.2f };
+        _rotationVector = new float[] { 0.1f, 0.2f, 0.3f, 0.9273618f, 0 };
+        _inertia = new InertiaSensorData();
+        _predictor = new OrientationPredictor(OrientationPredictor.DEFAULT_MAX_PENDING_PREDICTIONS);
+        _predictor.setLookAheadNanos(20 * 1000 * 1000);
+
+        // two readings of every field, so resampling interpolates
+        for (int i = 0; i < 2; i++) {
+            _time += EVENT_PERIOD_NANOS;
+            AndroidInertiaSensorTransform.transformAcceleration(_acceleration, _time, _inertia);
+            AndroidInertiaSensorTransform.transformAngularVelocities(_acceleration, _time, _inertia);
+            AndroidInertiaSensorTransform.transformMagneticField(_acceleration, _time, _inertia);
+            AndroidInertiaSensorTransform.transformRotationVector(_rotationVector, _time, _inertia);
+        }
+    }
+
+    @Benchmark
+    public InertiaSensorData transformAcceleration() {
+        AndroidInertiaSensorTransform.transformAcceleration(_acceleration, _time, _inertia);
+        return _inertia;
+    }
+
+    @Benchmark
+    public InertiaSensorData transformRotationVector() {
+        AndroidInertiaSensorTransform.transformRotationVector(_rotationVector, _time, _inertia);
+        return _inertia;
+    }
+
+    // slerps the orientation halfway between its two readings
+    @Benchmark
+    public byte[] snapshotAndResample() {
+        _inertia.snapshot();
+        _inertia.resample(_time - EVENT_PERIOD_NANOS / 2);
+        return _inertia.getData();
+    }
+
+    @Benchmark
+    public byte[] predictOrientation() {
+        _inertia.resample(_time);
+        _predictor.predict(_time, _inertia);
+        return _inertia.getData();
+    }
+}
@@ -0,0 +1,89 @@
+package kr.co.clicked.sensordeviceplugin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.clicked.sensordeviceplugin.BiosignalSensorData;
+import kr.co.clicked.sensordeviceplugin.InertiaSensorData;
+import kr.co.clicked.sensordeviceplugin.MotionData;
+import kr.co.clicked.sensordeviceplugin.MotionDataCodec;
+
+// a frame from the sampler to the consumer. one operation is one frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MotionDataBenchmark {
+    private BiosignalSensorData _biosignal;
+    private InertiaSensorData _inertia;
+    private MotionData _frame;
+    private long _timestamp;
+    private byte[] _batch;
+    private ByteBuffer _native;
+    private MotionDataCodec _codec;
+    private ByteBuffer _encoded;
+
+    @Setup
+    public void setup() {
+        _biosignal = new BiosignalSensorData();
+        for (int i = 0; i < BiosignalSensorData.CHANNELS; i++) {
+            _biosignal.setValue(i, i * 12.5f);
+        }
+
+        _inertia = new InertiaSensorData();
+        _inertia.setAcceleration(0.1f, 9.8f, 0.2f);
+        _inertia.setAngularVelocities(0.01f, 0.02f, 0.03f);
+        _inertia.setMagneticField(20, 30, 40);
+        _inertia.setOrientation(0, 0.38268343f, 0, 0.9238795f);
+        _inertia.snapshot();
+
+        _frame = MotionData.create((byte)0, 0, _biosignal, _inertia);
+        _batch = new byte[MotionData.size()];
+        _native = ByteBuffer.allocateDirect(MotionData.size());
+        _native.order(ByteOrder.nativeOrder());
+        _codec = new MotionDataCodec(MotionDataCodec.BiosignalEncoding.Fixed24,
+                                     MotionDataCodec.InertiaEncoding.Float16,
+                                     MotionDataCodec.DEFAULT_KEY_FRAME_INTERVAL);
+        _encoded = ByteBuffer.allocate(MotionDataCodec.MAX_FRAME_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MotionData.dispose(_frame);
+    }
+
+    @Benchmark
+    public void createDispose() {
+        MotionData data = MotionData.create((byte)0, _timestamp++, _biosignal, _inertia);
+        MotionData.dispose(data);
+    }
+
+    @Benchmark
+    public byte[] copyToBatch() {
+        _frame.copyTo(_batch, 0);
+        return _batch;
+    }
+
+    @Benchmark
+    public ByteBuffer exportNative() {
+        _native.clear();
+        _frame.exportTo(_native);
+        return _native;
+    }
+
+    @Benchmark
+    public int encode() {
+        _encoded.clear();
+        _codec.encode(_frame.getData(), 0, _encoded);
+        return _encoded.position();
+    }
+}
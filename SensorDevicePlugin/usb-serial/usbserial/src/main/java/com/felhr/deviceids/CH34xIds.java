@@ -25,6 +25,17 @@ public class CH34xIds
         return false;
     }
 
+    /*
+     * Packed as DeviceIdMap keys
+     */
+    static int[] getDeviceIds()
+    {
+        int[] ids = new int[ch34xDevices.length];
+        for(int i=0;i<=ch34xDevices.length-1;i++)
+            ids[i] = DeviceIdMap.key(ch34xDevices[i].vendorId, ch34xDevices[i].productId);
+        return ids;
+    }
+
     private static class ConcreteDevice
     {
         public int vendorId;
@@ -153,6 +153,17 @@ public class CP210xIds
         return false;
     }
 
+    /*
+     * Packed as DeviceIdMap keys
+     */
+    static int[] getDeviceIds()
+    {
+        int[] ids = new int[cp210xDevices.length];
+        for(int i=0;i<=cp210xDevices.length-1;i++)
+            ids[i] = DeviceIdMap.key(cp210xDevices[i].vendorId, cp210xDevices[i].productId);
+        return ids;
+    }
+
     private static class ConcreteDevice
     {
         public int vendorId;
@@ -0,0 +1,116 @@
+package com.felhr.deviceids;
+
+/*
+ * Open-addressing map from a VID:PID pair to an int, packed in a single int array.
+ * A key is vendorId << 16 | productId and its value sits right after it, so a lookup is one hash and
+ * usually one probe into the same cache line. Key 0 marks an empty slot, so 0000:0000 can not be mapped.
+ * Not thread safe while it is being filled. Share it only once it is complete.
+ */
+public class DeviceIdMap
+{
+    public static final int NOT_FOUND = 0;
+
+    private static final int EMPTY = 0;
+
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    public DeviceIdMap(int expectedSize)
+    {
+        // At most half full, so probe chains stay short
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        slots = new int[capacity * 2];
+        mask = capacity - 1;
+    }
+
+    public DeviceIdMap(DeviceIdMap src, int extraSize)
+    {
+        this(src.size + extraSize);
+        for(int i=0;i<=src.slots.length-2;i+=2)
+        {
+            if(src.slots[i] != EMPTY)
+                put(src.slots[i], src.slots[i + 1]);
+        }
+    }
+
+    public static int key(int vendorId, int productId)
+    {
+        return (vendorId << 16) | (productId & 0xFFFF);
+    }
+
+    private static int hash(int key)
+    {
+        // Many pairs share a vendor, so the product bits have to reach the low bits as well
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int get(int vendorId, int productId)
+    {
+        return get(key(vendorId, productId));
+    }
+
+    public int get(int key)
+    {
+        if(key == EMPTY)
+            return NOT_FOUND;
+
+        int index = hash(key) & mask;
+        while(true)
+        {
+            int slotKey = slots[index * 2];
+            if(slotKey == key)
+                return slots[index * 2 + 1];
+            if(slotKey == EMPTY)
+                return NOT_FOUND;
+            index = (index + 1) & mask;
+        }
+    }
+
+    public void put(int vendorId, int productId, int value)
+    {
+        put(key(vendorId, productId), value);
+    }
+
+    /*
+     * Replaces the value of a key already mapped. Putting NOT_FOUND keeps the key, but reads as unmapped.
+     */
+    public void put(int key, int value)
+    {
+        if(key == EMPTY)
+            throw new IllegalArgumentException("0000:0000 is not a valid device id");
+
+        if((size + 1) * 2 > mask + 1)
+            grow();
+
+        int index = hash(key) & mask;
+        while(slots[index * 2] != EMPTY && slots[index * 2] != key)
+            index = (index + 1) & mask;
+
+        if(slots[index * 2] == EMPTY)
+        {
+            slots[index * 2] = key;
+            size++;
+        }
+        slots[index * 2 + 1] = value;
+    }
+
+    private void grow()
+    {
+        int[] oldSlots = slots;
+        slots = new int[oldSlots.length * 2];
+        mask = (mask << 1) | 1;
+        size = 0;
+        for(int i=0;i<=oldSlots.length-2;i+=2)
+        {
+            if(oldSlots[i] != EMPTY)
+                put(oldSlots[i], oldSlots[i + 1]);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.felhr.deviceids;
+
+/*
+ * One index of every known VID:PID pair to the driver family which serves it.
+ * It starts with the ids of FTDISioIds, CP210xIds, PL2303Ids and CH34xIds, and more devices can be registered
+ * at runtime, e.g. custom boards built on one of those chips or speaking CDC. Lookups are lock-free:
+ * registration builds a new map and publishes it as a whole.
+ */
+public class DeviceIds
+{
+    // Driver families
+    public static final int UNKNOWN = DeviceIdMap.NOT_FOUND;
+    public static final int FTDI = 1;
+    public static final int CP210X = 2;
+    public static final int PL2303 = 3;
+    public static final int CH34X = 4;
+    public static final int CDC = 5;
+
+    // Columns of a registration table row
+    public static final int VENDOR_ID = 0;
+    public static final int PRODUCT_ID = 1;
+    public static final int FAMILY = 2;
+
+    private static final Object registerLock = new Object();
+    private static volatile DeviceIdMap devices = createBuiltInMap();
+
+    private DeviceIds()
+    {
+
+    }
+
+    private static DeviceIdMap createBuiltInMap()
+    {
+        int[] ftdi = FTDISioIds.getDeviceIds();
+        int[] cp210x = CP210xIds.getDeviceIds();
+        int[] pl2303 = PL2303Ids.getDeviceIds();
+        int[] ch34x = CH34xIds.getDeviceIds();
+
+        DeviceIdMap map = new DeviceIdMap(ftdi.length + cp210x.length + pl2303.length + ch34x.length);
+        // Later puts win, so in the reverse of the order createUsbSerialDevice used to probe them
+        putAll(map, ch34x, CH34X);
+        putAll(map, pl2303, PL2303);
+        putAll(map, cp210x, CP210X);
+        putAll(map, ftdi, FTDI);
+        return map;
+    }
+
+    private static void putAll(DeviceIdMap map, int[] keys, int family)
+    {
+        for(int i=0;i<=keys.length-1;i++)
+            map.put(keys[i], family);
+    }
+
+    /*
+     * The driver family of the device, or UNKNOWN
+     */
+    public static int getFamily(int vendorId, int productId)
+    {
+        return devices.get(vendorId, productId);
+    }
+
+    public static boolean isDeviceSupported(int vendorId, int productId)
+    {
+        return getFamily(vendorId, productId) != UNKNOWN;
+    }
+
+    /*
+     * Adds a device, or moves a known one to another family. UNKNOWN removes it.
+     */
+    public static void register(int vendorId, int productId, int family)
+    {
+        register(new int[][]{{vendorId, productId, family}});
+    }
+
+    /*
+     * Adds a table of devices at once, each row being { vendor id, product id, family }
+     */
+    public static void register(int[][] table)
+    {
+        for(int i=0;i<=table.length-1;i++)
+        {
+            int family = table[i][FAMILY];
+            if(family < UNKNOWN || family > CDC)
+                throw new IllegalArgumentException("Unknown driver family " + family);
+        }
+
+        synchronized(registerLock)
+        {
+            DeviceIdMap map = new DeviceIdMap(devices, table.length);
+            for(int i=0;i<=table.length-1;i++)
+                map.put(table[i][VENDOR_ID], table[i][PRODUCT_ID], table[i][FAMILY]);
+            devices = map;
+        }
+    }
+}
@@ -571,6 +571,17 @@ public class FTDISioIds
     }
 
 
+    /*
+     * Packed as DeviceIdMap keys
+     */
+    static int[] getDeviceIds()
+    {
+        int[] ids = new int[ftdiDevices.length];
+        for(int i=0;i<=ftdiDevices.length-1;i++)
+            ids[i] = DeviceIdMap.key(ftdiDevices[i].vendorId, ftdiDevices[i].productId);
+        return ids;
+    }
+
     private static class ConcreteDevice
     {
         public int vendorId;
@@ -79,6 +79,17 @@ public class PL2303Ids
     }
 
 
+    /*
+     * Packed as DeviceIdMap keys
+     */
+    static int[] getDeviceIds()
+    {
+        int[] ids = new int[pl2303Devices.length];
+        for(int i=0;i<=pl2303Devices.length-1;i++)
+            ids[i] = DeviceIdMap.key(pl2303Devices[i].vendorId, pl2303Devices[i].productId);
+        return ids;
+    }
+
     private static class ConcreteDevice
     {
         public int vendorId;
@@ -0,0 +1,84 @@
+package com.felhr.usbserial;
+
+import java.util.Arrays;
+
+/*
+ * Strips the two status bytes which start every 64 bytes packet of FTDI devices.
+ * Free of any device state, so it can be used and measured on its own.
+ */
+public class FTDIPacketAdapter
+{
+    public static final int PACKET_SIZE = 64;
+    public static final int STATUS_SIZE = 2;
+
+    private FTDIPacketAdapter()
+    {
+
+    }
+
+    public static byte[] adaptArray(byte[] ftdiData)
+    {
+        int length = ftdiData.length;
+        if(length > PACKET_SIZE)
+        {
+            int n = 1;
+            int p = PACKET_SIZE;
+            // Precalculate length without FTDI headers
+            while(p < length)
+            {
+                n++;
+                p = n*PACKET_SIZE;
+            }
+            int realLength = length - n*STATUS_SIZE;
+            byte[] data = new byte[realLength];
+            copyData(ftdiData, data);
+            return data;
+        }else
+        {
+            return Arrays.copyOfRange(ftdiData, STATUS_SIZE, length);
+        }
+    }
+
+    // Same as adaptArray(byte[]) for the first length bytes of ftdiData, writing into dst from offset.
+    // Returns the number of bytes written.
+    public static int adaptArray(byte[] ftdiData, int length, byte[] dst, int offset)
+    {
+        int written = 0;
+        for(int p=0;p<length;p+=PACKET_SIZE)
+        {
+            int packetLength = Math.min(PACKET_SIZE, length - p);
+            if(packetLength <= STATUS_SIZE)
+                break;
+
+            int count = Math.min(packetLength - STATUS_SIZE, dst.length - offset - written);
+            System.arraycopy(ftdiData, p + STATUS_SIZE, dst, offset + written, count);
+            written += count;
+        }
+        return written;
+    }
+
+    // Copy data without FTDI headers
+    private static void copyData(byte[] src, byte[] dst)
+    {
+        int i = 0; // src index
+        int j = 0; // dst index
+        while(i <= src.length-1)
+        {
+            if(i != 0 && i != 1)
+            {
+                if(i % PACKET_SIZE == 0 && i >= PACKET_SIZE)
+                {
+                    i += STATUS_SIZE;
+                }else
+                {
+                    dst[j] = src[i];
+                    i++;
+                    j++;
+                }
+            }else
+            {
+                i++;
+            }
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.felhr.usbserial;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
@@ -81,6 +81,7 @@ public class FTDISerialDevice extends UsbSerialDevice
     private UsbEndpoint inEndpoint;
     private UsbEndpoint outEndpoint;
     private UsbRequest requestIN;
+    private byte[] syncReadBuffer; // Kept between syncRead calls, which mostly ask for the same size
 
     public FTDIUtilities ftdiUtilities;
 
@@ -486,25 +487,7 @@ public class FTDISerialDevice extends UsbSerialDevice
         // Special treatment needed to FTDI devices
         public byte[] adaptArray(byte[] ftdiData)
         {
-            int length = ftdiData.length;
-            if(length > 64)
-            {
-                int n = 1;
-                int p = 64;
-                // Precalculate length without FTDI headers
-                while(p < length)
-                {
-                    n++;
-                    p = n*64;
-                }
-                int realLength = length - n*2;
-                byte[] data = new byte[realLength];
-                copyData(ftdiData, data);
-                return data;
-            }else
-            {
-                return Arrays.copyOfRange(ftdiData, 2, length);
-            }
+            return FTDIPacketAdapter.adaptArray(ftdiData);
         }
 
         public void checkModemStatus(byte[] data)
@@ -512,8 +495,13 @@ public class FTDISerialDevice extends UsbSerialDevice
             if(data.length == 0) // Safeguard for zero length arrays
                 return;
 
-            boolean cts = (data[0] & 0x10) == 0x10;
-            boolean dsr = (data[0] & 0x20) == 0x20;
+            checkModemStatus(data[0], data[1]);
+        }
+
+        public void checkModemStatus(byte modemStatus, byte lineStatus)
+        {
+            boolean cts = (modemStatus & 0x10) == 0x10;
+            boolean dsr = (modemStatus & 0x20) == 0x20;
 
             if(firstTime) // First modem status received
             {
@@ -546,7 +534,7 @@ public class FTDISerialDevice extends UsbSerialDevice
 
             if(parityCallback != null) // Parity error checking
             {
-                if((data[1] & 0x04) == 0x04)
+                if((lineStatus & 0x04) == 0x04)
                 {
                     parityCallback.onParityError();
                 }
@@ -554,7 +542,7 @@ public class FTDISerialDevice extends UsbSerialDevice
 
             if(frameCallback != null) // Frame error checking
             {
-                if((data[1] & 0x08) == 0x08)
+                if((lineStatus & 0x08) == 0x08)
                 {
                     frameCallback.onFramingError();
                 }
@@ -562,7 +550,7 @@ public class FTDISerialDevice extends UsbSerialDevice
 
             if(overrunCallback != null) // Overrun error checking
             {
-                if((data[1] & 0x02) == 0x02)
+                if((lineStatus & 0x02) == 0x02)
                 {
                     overrunCallback.onOverrunError();
                 }
@@ -570,36 +558,35 @@ public class FTDISerialDevice extends UsbSerialDevice
 
             if(breakCallback != null) // Break interrupt checking
             {
-                if((data[1] & 0x10) == 0x10)
+                if((lineStatus & 0x10) == 0x10)
                 {
                     breakCallback.onBreakInterrupt();
                 }
             }
         }
 
-        // Copy data without FTDI headers
-        private void copyData(byte[] src, byte[] dst)
+        // Same as adaptArray(byte[]) for the first length bytes of ftdiData, writing into dst from offset.
+        // Returns the number of bytes written.
+        public int adaptArray(byte[] ftdiData, int length, byte[] dst, int offset)
         {
-            int i = 0; // src index
-            int j = 0; // dst index
-            while(i <= src.length-1)
-            {
-                if(i != 0 && i != 1)
-                {
-                    if(i % 64 == 0 && i >= 64)
-                    {
-                        i += 2;
-                    }else
-                    {
-                        dst[j] = src[i];
-                        i++;
-                        j++;
-                    }
-                }else
-                {
-                    i++;
-                }
-            }
+            return FTDIPacketAdapter.adaptArray(ftdiData, length, dst, offset);
+        }
+    }
+
+    // Every 64 bytes packet starts with two status bytes, which are handed to the callback
+    // packet by packet instead of being stripped with a copy.
+    @Override
+    protected void onStreamingDataReceived(ByteBuffer buffer, int length, UsbReadBufferCallback callback)
+    {
+        for(int p=0;p<length;p+=64)
+        {
+            int packetLength = Math.min(64, length - p);
+            if(packetLength < 2)
+                break;
+
+            ftdiUtilities.checkModemStatus(buffer.get(p), buffer.get(p + 1));
+            if(packetLength > 2)
+                callback.onReceivedData(buffer, p + 2, packetLength - 2);
         }
     }
 
@@ -625,7 +612,10 @@ public class FTDISerialDevice extends UsbSerialDevice
             n++;
         }
 
-        byte[] tempBuffer = new byte[buffer.length + n * 2];
+        int tempLength = buffer.length + n * 2;
+        if(syncReadBuffer == null || syncReadBuffer.length != tempLength)
+            syncReadBuffer = new byte[tempLength];
+        byte[] tempBuffer = syncReadBuffer;
 
         int readen = 0;
 
@@ -645,15 +635,7 @@ public class FTDISerialDevice extends UsbSerialDevice
 
             if(numberBytes > 2) // Data received
             {
-                byte[] newBuffer = this.ftdiUtilities.adaptArray(tempBuffer);
-                System.arraycopy(newBuffer, 0, buffer, offset, buffer.length - offset);
-
-                int p = numberBytes / 64;
-                if(numberBytes % 64 != 0)
-                {
-                    p++;
-                }
-                readen = numberBytes - p * 2;
+                readen = this.ftdiUtilities.adaptArray(tempBuffer, numberBytes, buffer, offset);
             }
         }while(readen <= 0);
 
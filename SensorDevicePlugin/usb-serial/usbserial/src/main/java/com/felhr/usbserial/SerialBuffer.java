@@ -8,21 +8,31 @@ public class SerialBuffer
 {
     public static final int DEFAULT_READ_BUFFER_SIZE = 16 * 1024;
     public static final int DEFAULT_WRITE_BUFFER_SIZE = 16 * 1024;
+    // Read buffers are recycled in turn, so the next request can be queued while the callback still reads the last one
+    public static final int READ_BUFFER_POOL_SIZE = 2;
     private ByteBuffer readBuffer;
-    private SynchronizedBuffer writeBuffer;
+    private ByteBuffer[] readBufferPool;
+    private int readBufferIndex;
+    private SerialWriteQueue writeBuffer;
     private byte[] readBuffer_compatible; // Read buffer for android < 4.2
+    private ByteBuffer readBufferView_compatible;
     private boolean debugging = false;
 
     public SerialBuffer(boolean version)
     {
-        writeBuffer = new SynchronizedBuffer();
+        writeBuffer = new SerialWriteQueue();
         if(version)
         {
-            readBuffer = ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE);
+            readBufferPool = new ByteBuffer[READ_BUFFER_POOL_SIZE];
+            for(int i=0;i<=READ_BUFFER_POOL_SIZE-1;i++)
+                readBufferPool[i] = ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE);
+            readBufferIndex = 0;
+            readBuffer = readBufferPool[readBufferIndex];
 
         }else
         {
             readBuffer_compatible = new byte[DEFAULT_READ_BUFFER_SIZE];
+            readBufferView_compatible = ByteBuffer.wrap(readBuffer_compatible);
         }
     }
 
@@ -78,20 +88,53 @@ public class SerialBuffer
         }
     }
 
-    public byte[] getWriteBuffer()
+    /*
+     * Makes the next buffer of the pool the read buffer, cleared and ready to be queued.
+     * The previous one stays untouched until the pool comes around to it again.
+     */
+    public ByteBuffer nextReadBuffer()
     {
-        return writeBuffer.get();
+        synchronized(this)
+        {
+            readBufferIndex = (readBufferIndex + 1) % READ_BUFFER_POOL_SIZE;
+            readBuffer = readBufferPool[readBufferIndex];
+            readBuffer.clear();
+            return readBuffer;
+        }
     }
 
-    public void putWriteBuffer(byte[]data)
+    /*
+     * Waits up to timeoutNanos for data to write. The returned segment can be transferred as is,
+     * and belongs to the caller until the next call.
+     */
+    public SerialWriteQueue.Segment getWriteSegment(long timeoutNanos)
     {
-        writeBuffer.put(data);
+        SerialWriteQueue.Segment segment = writeBuffer.take(timeoutNanos);
+        if(segment != null && debugging)
+            UsbSerialDebugger.printLogGet(Arrays.copyOf(segment.array(), segment.length()), true);
+        return segment;
     }
 
+    /*
+     * Returns false when the data does not fit in the write queue. Nothing of it is queued then.
+     */
+    public boolean putWriteBuffer(byte[]data)
+    {
+        if(data == null || data.length == 0) return true;
+        if(debugging)
+            UsbSerialDebugger.printLogPut(data, true);
+        return writeBuffer.put(data, 0, data.length);
+    }
+
+    public long getRejectedWriteCount()
+    {
+        return writeBuffer.getRejectedCount();
+    }
 
+    // Only once the write thread has stopped
     public void resetWriteBuffer()
     {
-        writeBuffer.reset();
+        writeBuffer.clear();
     }
 
     public byte[] getBufferCompatible()
@@ -99,68 +142,15 @@ public class SerialBuffer
         return readBuffer_compatible;
     }
 
-    public byte[] getDataReceivedCompatible(int numberBytes)
+    public ByteBuffer getBufferCompatibleView()
     {
-        byte[] tempBuff = Arrays.copyOfRange(readBuffer_compatible, 0, numberBytes);
-        return tempBuff;
+        return readBufferView_compatible;
     }
 
-    private class SynchronizedBuffer
+    public byte[] getDataReceivedCompatible(int numberBytes)
     {
-        private byte[] buffer;
-        private int position;
-
-        public SynchronizedBuffer()
-        {
-            this.buffer = new byte[DEFAULT_WRITE_BUFFER_SIZE];
-            position = -1;
-        }
-
-        public synchronized void put(byte[] src)
-        {
-            if(src == null || src.length == 0) return;
-            if(position == -1)
-                position = 0;
-            if(debugging)
-                UsbSerialDebugger.printLogPut(src, true);
-            if(position + src.length > DEFAULT_WRITE_BUFFER_SIZE - 1) //Checking bounds. Source data does not fit in buffer
-            {
-                if(position < DEFAULT_WRITE_BUFFER_SIZE)
-                    System.arraycopy(src, 0, buffer, position, DEFAULT_WRITE_BUFFER_SIZE - position);
-                position = DEFAULT_WRITE_BUFFER_SIZE;
-                notify();
-            }else // Source data fits in buffer
-            {
-                System.arraycopy(src, 0, buffer, position, src.length);
-                position += src.length;
-                notify();
-            }
-        }
-
-        public synchronized byte[] get()
-        {
-            if(position == -1)
-            {
-                try
-                {
-                    wait();
-                } catch (InterruptedException e)
-                {
-                    e.printStackTrace();
-                }
-            }
-            if(position <= -1 ) return new byte[0];
-            byte[] dst =  Arrays.copyOfRange(buffer, 0, position);
-            if(debugging)
-                UsbSerialDebugger.printLogGet(dst, true);
-            position = -1;
-            return dst;
-        }
-
-        public synchronized void reset()
-        {
-            position = -1;
-        }
+        byte[] tempBuff = Arrays.copyOfRange(readBuffer_compatible, 0, numberBytes);
+        return tempBuff;
     }
 
 }
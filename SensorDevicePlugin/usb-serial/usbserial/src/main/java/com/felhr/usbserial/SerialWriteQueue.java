@@ -0,0 +1,286 @@
+package com.felhr.usbserial;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Multi-producer, single-consumer write queue made of pooled segments.
+ * Small writes are appended to the last segment while the consumer is busy, so they leave together
+ * in one bulk transfer. A write is never split between other writes, and it is never truncated:
+ * when it does not fit in the capacity of the queue, it is rejected as a whole and counted.
+ */
+public class SerialWriteQueue
+{
+    // A multiple of the max packet size of both full speed (64) and high speed (512) bulk endpoints
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024;
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    // How long take() waits for the producers which reserved room in a segment to copy their data into it
+    public static final long COMMIT_WAIT_NANOS = 10 * 1000 * 1000;
+
+    // Segment state: generation | taken | sealed | reserved bytes
+    private static final long RESERVED_MASK = 0xFFFFFFFFL;
+    private static final long SEALED = 1L << 32;
+    private static final long TAKEN = 1L << 33;
+    private static final long GENERATION_UNIT = 1L << 34;
+
+    public static class Segment
+    {
+        private final byte[] data;
+        private final AtomicLong state;
+        private final AtomicInteger committed;
+        private final AtomicBoolean inUse;
+        private volatile Segment next;
+        private int length;
+
+        private Segment(int size)
+        {
+            data = new byte[size];
+            state = new AtomicLong(SEALED);
+            committed = new AtomicInteger();
+            inUse = new AtomicBoolean();
+        }
+
+        public byte[] array()
+        {
+            return data;
+        }
+
+        public int length()
+        {
+            return length;
+        }
+    }
+
+    private final int segmentSize;
+    private final long capacity;
+    private final AtomicReference<Segment[]> segments;
+    private final AtomicInteger nextSegment;
+    private final AtomicReference<Segment> tail; // Written by producers
+    private Segment head; // Consumer only. The last taken segment, still owned by the consumer
+    private final AtomicLong pendingBytes;
+    private final AtomicLong rejectedCount;
+    private final AtomicBoolean consumerWaiting;
+    private volatile Thread consumer;
+
+    public SerialWriteQueue()
+    {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_CAPACITY);
+    }
+
+    public SerialWriteQueue(int segmentSize, long capacity)
+    {
+        this.segmentSize = segmentSize;
+        this.capacity = capacity;
+        this.segments = new AtomicReference<>(new Segment[0]);
+        this.nextSegment = new AtomicInteger();
+        this.pendingBytes = new AtomicLong();
+        this.rejectedCount = new AtomicLong();
+        this.consumerWaiting = new AtomicBoolean();
+
+        // The queue always keeps one taken segment at its head, so producers never see an empty list
+        Segment stub = acquire();
+        stub.state.set(stub.state.get() | TAKEN);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    public long pendingBytes()
+    {
+        return pendingBytes.get();
+    }
+
+    // Writes rejected because the queue was full
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    /*
+     * Producer side. Copies the data, and returns false without queueing any of it when it does not fit.
+     */
+    public boolean put(byte[] src, int offset, int length)
+    {
+        if(length <= 0)
+            return true;
+
+        long pending;
+        do
+        {
+            pending = pendingBytes.get();
+            if(pending + length > capacity)
+            {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+        }while(!pendingBytes.compareAndSet(pending, pending + length));
+
+        if(length > segmentSize || !append(src, offset, length))
+            push(src, offset, length);
+
+        if(consumerWaiting.get())
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /*
+     * Consumer side. Waits up to timeoutNanos for data, and returns the next segment or null.
+     * The segment belongs to the consumer until the next call, so it can be transferred without a copy.
+     * A producer preempted between reserving room in the segment and copying its data holds the segment up.
+     * After COMMIT_WAIT_NANOS this returns null, and the segment stays at the head of the queue for the next call.
+     */
+    public Segment take(long timeoutNanos)
+    {
+        Segment next = head.next;
+        if(next == null && timeoutNanos > 0)
+        {
+            consumer = Thread.currentThread();
+            consumerWaiting.set(true);
+            next = head.next;
+            if(next == null)
+                LockSupport.parkNanos(this, timeoutNanos);
+            consumerWaiting.set(false);
+            next = head.next;
+        }
+        if(next == null)
+            return null;
+
+        // Close the segment for appends, unless an earlier call closed it already and gave up waiting for it
+        long state;
+        do
+        {
+            state = next.state.get();
+        }while((state & TAKEN) == 0 && !next.state.compareAndSet(state, state | SEALED | TAKEN));
+
+        // Wait for the producers which already reserved room in it
+        int length = (int) (state & RESERVED_MASK);
+        long waitStart = System.nanoTime();
+        while(next.committed.get() < length)
+        {
+            if(System.nanoTime() - waitStart >= COMMIT_WAIT_NANOS)
+                return null;
+            Thread.yield();
+        }
+
+        next.length = length;
+        pendingBytes.addAndGet(-length);
+
+        recycle(head);
+        head = next;
+        return next;
+    }
+
+    /*
+     * Consumer side, or once the consumer has stopped. Discards everything queued, up to a segment held up
+     * by a stalled producer.
+     */
+    public void clear()
+    {
+        while(take(0) != null)
+        {
+            // Just drop it
+        }
+    }
+
+    // Appends to the last segment if it is still open and has room
+    private boolean append(byte[] src, int offset, int length)
+    {
+        Segment segment = tail.get();
+        long state = segment.state.get();
+        while(true)
+        {
+            int reserved = (int) (state & RESERVED_MASK);
+            if((state & SEALED) != 0 || reserved + length > segmentSize)
+                return false;
+
+            // The generation in the state makes this fail if the segment was recycled in the meantime
+            if(segment.state.compareAndSet(state, state + length))
+            {
+                System.arraycopy(src, offset, segment.data, reserved, length);
+                segment.committed.addAndGet(length);
+                return true;
+            }
+            state = segment.state.get();
+        }
+    }
+
+    // Queues the data in new segments, linked before they become visible so the write stays in one piece
+    private void push(byte[] src, int offset, int length)
+    {
+        Segment first = null;
+        Segment last = null;
+        int p = 0;
+        while(p < length)
+        {
+            Segment segment = acquire();
+            int count = Math.min(segmentSize, length - p);
+            System.arraycopy(src, offset + p, segment.data, 0, count);
+            segment.committed.set(count);
+            segment.state.set(segment.state.get() + count);
+
+            if(first == null)
+                first = segment;
+            else
+                last.next = segment;
+            last = segment;
+            p += count;
+        }
+
+        long sealed = last.state.get();
+        Segment previous = tail.getAndSet(last);
+        previous.next = first;
+
+        // Open the last segment for appends, unless the consumer took it already
+        last.state.compareAndSet(sealed, sealed & ~SEALED);
+    }
+
+    // Returns a sealed and empty segment of a new generation
+    private Segment acquire()
+    {
+        Segment[] pool = segments.get();
+        int start = pool.length > 0 ? (nextSegment.getAndIncrement() & Integer.MAX_VALUE) % pool.length : 0;
+        for(int i=0;i<=pool.length-1;i++)
+        {
+            Segment segment = pool[(start + i) % pool.length];
+            if(segment.inUse.compareAndSet(false, true))
+            {
+                reset(segment);
+                return segment;
+            }
+        }
+
+        // Grow the pool. It stays bounded as every queued segment holds pending bytes
+        Segment segment = new Segment(segmentSize);
+        segment.inUse.set(true);
+        Segment[] grown;
+        do
+        {
+            pool = segments.get();
+            grown = Arrays.copyOf(pool, pool.length + 1);
+            grown[pool.length] = segment;
+        }while(!segments.compareAndSet(pool, grown));
+        return segment;
+    }
+
+    private void reset(Segment segment)
+    {
+        long generation = (segment.state.get() & ~(GENERATION_UNIT - 1)) + GENERATION_UNIT;
+        segment.state.set(generation | SEALED);
+        segment.committed.set(0);
+        segment.next = null;
+        segment.length = 0;
+    }
+
+    private void recycle(Segment segment)
+    {
+        segment.inUse.set(false);
+    }
+}
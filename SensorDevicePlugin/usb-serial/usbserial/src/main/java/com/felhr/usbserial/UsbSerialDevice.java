@@ -1,11 +1,9 @@
 package com.felhr.usbserial;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.felhr.deviceids.CH34xIds;
-import com.felhr.deviceids.CP210xIds;
-import com.felhr.deviceids.FTDISioIds;
-import com.felhr.deviceids.PL2303Ids;
+import com.felhr.deviceids.DeviceIds;
 
 import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
@@ -13,6 +11,7 @@ import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbRequest;
+import android.util.Log;
 
 public abstract class UsbSerialDevice implements UsbSerialInterface
 {
@@ -23,12 +22,16 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
     protected final UsbDeviceConnection connection;
 
     protected static final int USB_TIMEOUT = 5000;
+    // How long the write thread waits for data before checking whether it has been stopped
+    protected static final long WRITE_WAIT_NANOS = 100 * 1000 * 1000;
 
     protected SerialBuffer serialBuffer;
 
     protected WorkerThread workerThread;
     protected WriteThread writeThread;
     protected ReadThread readThread;
+    private StreamingReadThread streamingThread;
+    private volatile UsbTransferListener transferListener;
 
     // Endpoints for synchronous read and write operations
     private UsbEndpoint inEndpoint;
@@ -68,37 +71,32 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         int vid = device.getVendorId();
         int pid = device.getProductId();
 
-        if(FTDISioIds.isDeviceSupported(vid, pid))
-            return new FTDISerialDevice(device, connection, iface);
-        else if(CP210xIds.isDeviceSupported(vid, pid))
-            return new CP2102SerialDevice(device, connection, iface);
-        else if(PL2303Ids.isDeviceSupported(vid, pid))
-            return new PL2303SerialDevice(device, connection, iface);
-        else if(CH34xIds.isDeviceSupported(vid, pid))
-            return new CH34xSerialDevice(device, connection, iface);
-        else if(isCdcDevice(device))
-            return new CDCSerialDevice(device, connection, iface);
-        else
-            return null;
+        switch(DeviceIds.getFamily(vid, pid))
+        {
+            case DeviceIds.FTDI:
+                return new FTDISerialDevice(device, connection, iface);
+            case DeviceIds.CP210X:
+                return new CP2102SerialDevice(device, connection, iface);
+            case DeviceIds.PL2303:
+                return new PL2303SerialDevice(device, connection, iface);
+            case DeviceIds.CH34X:
+                return new CH34xSerialDevice(device, connection, iface);
+            case DeviceIds.CDC:
+                return new CDCSerialDevice(device, connection, iface);
+            default:
+                if(isCdcDevice(device))
+                    return new CDCSerialDevice(device, connection, iface);
+                else
+                    return null;
+        }
     }
 
     public static boolean isSupported(UsbDevice device)
     {
-        int vid = device.getVendorId();
-        int pid = device.getProductId();
-
-        if(FTDISioIds.isDeviceSupported(vid, pid))
-            return true;
-        else if(CP210xIds.isDeviceSupported(vid, pid))
-            return true;
-        else if(PL2303Ids.isDeviceSupported(vid, pid))
-            return true;
-        else if(CH34xIds.isDeviceSupported(vid, pid))
-            return true;
-        else if(isCdcDevice(device))
+        if(DeviceIds.isDeviceSupported(device.getVendorId(), device.getProductId()))
             return true;
         else
-            return false;
+            return isCdcDevice(device);
     }
 
     // Common Usb Serial Operations (I/O Asynchronous)
@@ -108,8 +106,24 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
     @Override
     public void write(byte[] buffer)
     {
-        if(asyncMode)
-            serialBuffer.putWriteBuffer(buffer);
+        offerWrite(buffer);
+    }
+
+    /*
+     * Same as write(), but returns false when the data is rejected as the write queue is full.
+     * Rejected writes are counted in getRejectedWriteCount().
+     */
+    public boolean offerWrite(byte[] buffer)
+    {
+        if(!asyncMode)
+            return false;
+
+        return serialBuffer.putWriteBuffer(buffer);
+    }
+
+    public long getRejectedWriteCount()
+    {
+        return serialBuffer.getRejectedWriteCount();
     }
 
     @Override
@@ -132,6 +146,29 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         return 0;
     }
 
+    /*
+     * Same as read(UsbReadCallback), but the received data is handed over as a view of a recycled buffer
+     * instead of a new array per transfer. The view is only valid until the callback returns.
+     */
+    @Override
+    public int read(UsbReadBufferCallback mCallback)
+    {
+        if(!asyncMode)
+            return -1;
+
+        if(mr1Version)
+        {
+            if (workerThread != null) {
+                workerThread.setBufferCallback(mCallback);
+                workerThread.getUsbRequest().queue(serialBuffer.getReadBuffer(), SerialBuffer.DEFAULT_READ_BUFFER_SIZE);
+            }
+        }else
+        {
+            readThread.setBufferCallback(mCallback);
+        }
+        return 0;
+    }
+
 
     @Override
     public abstract void close();
@@ -172,6 +209,51 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         return connection.bulkTransfer(inEndpoint, buffer, offset, buffer.length - offset, timeout);
     }
 
+    // Streaming read (I/O Synchronous mode)
+    // Several requests stay queued against the IN endpoint and are handed to the callback
+    // on a dedicated thread as soon as they complete.
+    public boolean startStreamingRead(int requestCount, int requestSize, UsbReadBufferCallback callback)
+    {
+        if(asyncMode || inEndpoint == null || streamingThread != null)
+            return false;
+
+        StreamingReadThread thread = new StreamingReadThread(requestCount, requestSize, callback);
+        if(!thread.queueRequests())
+        {
+            thread.closeRequests();
+            return false;
+        }
+
+        streamingThread = thread;
+        streamingThread.start();
+        return true;
+    }
+
+    public void stopStreamingRead()
+    {
+        if(streamingThread != null)
+        {
+            streamingThread.stopStreamingThread();
+            streamingThread = null;
+        }
+    }
+
+    // Takes effect on the next completed transfer. Called on the streaming thread.
+    public void setTransferListener(UsbTransferListener listener)
+    {
+        transferListener = listener;
+    }
+
+    /*
+     * Hands the data of a completed IN transfer (streaming or asynchronous read) to the callback.
+     * Devices which prefix each packet with status bytes override this.
+     */
+    protected void onStreamingDataReceived(ByteBuffer buffer, int length, UsbReadBufferCallback callback)
+    {
+        if(length > 0)
+            callback.onReceivedData(buffer, 0, length);
+    }
+
     // Serial port configuration
     @Override
     public abstract void setBaudRate(int baudRate);
@@ -217,6 +299,7 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         private UsbSerialDevice usbSerialDevice;
 
         private UsbReadCallback callback;
+        private UsbReadBufferCallback bufferCallback;
         private UsbRequest requestIN;
         private AtomicBoolean working;
 
@@ -235,6 +318,17 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
                 if(request != null && request.getEndpoint().getType() == UsbConstants.USB_ENDPOINT_XFER_BULK
                         && request.getEndpoint().getDirection() == UsbConstants.USB_DIR_IN)
                 {
+                    UsbReadBufferCallback bufferCallback = this.bufferCallback;
+                    if(bufferCallback != null)
+                    {
+                        // Queue the next buffer of the pool first, and hand over the completed one without copying it
+                        ByteBuffer buffer = serialBuffer.getReadBuffer();
+                        int length = buffer.position();
+                        requestIN.queue(serialBuffer.nextReadBuffer(), SerialBuffer.DEFAULT_READ_BUFFER_SIZE);
+                        usbSerialDevice.onStreamingDataReceived(buffer, length, bufferCallback);
+                        continue;
+                    }
+
                     byte[] data = serialBuffer.getDataReceived();
 
                     // FTDI devices reserves two first bytes of an IN endpoint with info about
@@ -264,6 +358,13 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         public void setCallback(UsbReadCallback callback)
         {
             this.callback = callback;
+            this.bufferCallback = null;
+        }
+
+        public void setBufferCallback(UsbReadBufferCallback bufferCallback)
+        {
+            this.bufferCallback = bufferCallback;
+            this.callback = null;
         }
 
         public void setUsbRequest(UsbRequest request)
@@ -303,9 +404,9 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         {
             while(working.get())
             {
-                byte[] data = serialBuffer.getWriteBuffer();
-                if(data.length > 0)
-                    connection.bulkTransfer(outEndpoint, data, data.length, USB_TIMEOUT);
+                SerialWriteQueue.Segment segment = serialBuffer.getWriteSegment(WRITE_WAIT_NANOS);
+                if(segment != null)
+                    connection.bulkTransfer(outEndpoint, segment.array(), segment.length(), USB_TIMEOUT);
             }
         }
 
@@ -317,6 +418,14 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         public void stopWriteThread()
         {
             working.set(false);
+            try
+            {
+                join(USB_TIMEOUT);
+            } catch (InterruptedException e)
+            {
+                Log.w(CLASS_ID, "Interrupted while waiting for the write thread to stop", e);
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -325,6 +434,7 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         private UsbSerialDevice usbSerialDevice;
 
         private UsbReadCallback callback;
+        private UsbReadBufferCallback bufferCallback;
         private UsbEndpoint inEndpoint;
         private AtomicBoolean working;
 
@@ -337,6 +447,13 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         public void setCallback(UsbReadCallback callback)
         {
             this.callback = callback;
+            this.bufferCallback = null;
+        }
+
+        public void setBufferCallback(UsbReadBufferCallback bufferCallback)
+        {
+            this.bufferCallback = bufferCallback;
+            this.callback = null;
         }
 
         @Override
@@ -353,7 +470,11 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
                 else
                     numberBytes = 0;
 
-                if(numberBytes > 0)
+                UsbReadBufferCallback bufferCallback = this.bufferCallback;
+                if(numberBytes > 0 && bufferCallback != null)
+                {
+                    usbSerialDevice.onStreamingDataReceived(serialBuffer.getBufferCompatibleView(), numberBytes, bufferCallback);
+                }else if(numberBytes > 0)
                 {
                     dataReceived = serialBuffer.getDataReceivedCompatible(numberBytes);
 
@@ -393,6 +514,124 @@ public abstract class UsbSerialDevice implements UsbSerialInterface
         }
     }
 
+    private class StreamingReadThread extends Thread
+    {
+        private UsbReadBufferCallback callback;
+        private UsbRequest[] requests;
+        private long[] queueTimes; // System.nanoTime() when each request was queued last
+        private AtomicBoolean working;
+
+        public StreamingReadThread(int requestCount, int requestSize, UsbReadBufferCallback callback)
+        {
+            this.callback = callback;
+            this.requests = new UsbRequest[requestCount];
+            this.queueTimes = new long[requestCount];
+            this.working = new AtomicBoolean(true);
+
+            for(int i=0;i<=requestCount-1;i++)
+            {
+                UsbRequest request = new UsbRequest();
+                if(request.initialize(connection, inEndpoint))
+                {
+                    request.setClientData(ByteBuffer.allocateDirect(requestSize));
+                    requests[i] = request;
+                }
+            }
+        }
+
+        public boolean queueRequests()
+        {
+            for(int i=0;i<=requests.length-1;i++)
+            {
+                if(requests[i] == null)
+                    return false;
+
+                if(!queueRequest(i))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean queueRequest(int index)
+        {
+            ByteBuffer buffer = (ByteBuffer) requests[index].getClientData();
+            queueTimes[index] = System.nanoTime();
+            return requests[index].queue(buffer, buffer.capacity());
+        }
+
+        private int indexOf(UsbRequest request)
+        {
+            for(int i=0;i<=requests.length-1;i++)
+            {
+                if(requests[i] == request)
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public void run()
+        {
+            int cancelled = 0;
+            while(cancelled < requests.length)
+            {
+                UsbRequest request = connection.requestWait();
+                if(request == null) // Device detached or connection closed
+                    break;
+
+                int index = indexOf(request);
+                if(index < 0)
+                    continue;
+
+                if(!working.get())
+                {
+                    cancelled++;
+                    continue;
+                }
+
+                ByteBuffer buffer = (ByteBuffer) request.getClientData();
+                int length = buffer.position();
+                UsbTransferListener listener = transferListener;
+                if(listener != null)
+                    listener.onTransferCompleted(length, System.nanoTime() - queueTimes[index]);
+                onStreamingDataReceived(buffer, length, callback);
+
+                buffer.clear();
+                if(!queueRequest(index))
+                    cancelled++;
+            }
+        }
+
+        public void stopStreamingThread()
+        {
+            working.set(false);
+            for(UsbRequest request : requests)
+            {
+                if(request != null)
+                    request.cancel();
+            }
+
+            try
+            {
+                join(USB_TIMEOUT);
+            } catch (InterruptedException e)
+            {
+                Log.w(CLASS_ID, "Interrupted while waiting for the streaming thread to stop", e);
+                Thread.currentThread().interrupt();
+            }
+            closeRequests();
+        }
+
+        public void closeRequests()
+        {
+            for(UsbRequest request : requests)
+            {
+                if(request != null)
+                    request.close();
+            }
+        }
+    }
+
     protected void setSyncParams(UsbEndpoint inEndpoint, UsbEndpoint outEndpoint)
     {
         this.inEndpoint = inEndpoint;
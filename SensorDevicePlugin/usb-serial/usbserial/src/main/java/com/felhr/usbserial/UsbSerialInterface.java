@@ -1,5 +1,7 @@
 package com.felhr.usbserial;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface to handle a serial port
  * @author felhr (felhr85@gmail.com)
@@ -32,6 +34,7 @@ public interface UsbSerialInterface
     boolean open();
     void write(byte[] buffer);
     int read(UsbReadCallback mCallback);
+    int read(UsbReadBufferCallback mCallback);
     void close();
 
     // Common Usb Serial Operations (I/O Synchronous)
@@ -96,4 +99,17 @@ public interface UsbSerialInterface
         void onReceivedData(byte[] data);
     }
 
+    // Usb Read Callback without copies. The buffer is only valid during the call
+    // and the callback may change its position.
+    interface UsbReadBufferCallback
+    {
+        void onReceivedData(ByteBuffer buffer, int offset, int length);
+    }
+
+    // Completion of every bulk IN transfer of a streaming read, with the time it spent queued
+    interface UsbTransferListener
+    {
+        void onTransferCompleted(int length, long latencyNanos);
+    }
+
 }
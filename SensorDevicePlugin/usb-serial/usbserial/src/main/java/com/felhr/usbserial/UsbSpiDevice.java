@@ -3,6 +3,7 @@ package com.felhr.usbserial;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
+import android.util.Log;
 
 import com.felhr.deviceids.CP2130Ids;
 
@@ -13,6 +14,8 @@ public abstract class UsbSpiDevice implements UsbSpiInterface
     private static final String CLASS_ID = UsbSerialDevice.class.getSimpleName();
 
     protected static final int USB_TIMEOUT = 5000;
+    // How long the write thread waits for data before checking whether it has been stopped
+    protected static final long WRITE_WAIT_NANOS = 100 * 1000 * 1000;
 
     protected final UsbDevice device;
     protected final UsbDeviceConnection connection;
@@ -98,9 +101,9 @@ public abstract class UsbSpiDevice implements UsbSpiInterface
         {
             while(working.get())
             {
-                byte[] data = serialBuffer.getWriteBuffer();
-                if(data.length > 0)
-                    connection.bulkTransfer(outEndpoint, data, data.length, USB_TIMEOUT);
+                SerialWriteQueue.Segment segment = serialBuffer.getWriteSegment(WRITE_WAIT_NANOS);
+                if(segment != null)
+                    connection.bulkTransfer(outEndpoint, segment.array(), segment.length(), USB_TIMEOUT);
             }
         }
 
@@ -112,6 +115,14 @@ public abstract class UsbSpiDevice implements UsbSpiInterface
         public void stopWriteThread()
         {
             working.set(false);
+            try
+            {
+                join(USB_TIMEOUT);
+            } catch (InterruptedException e)
+            {
+                Log.w(CLASS_ID, "Interrupted while waiting for the write thread to stop", e);
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -0,0 +1,174 @@
+package com.felhr.usbserial;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SerialWriteQueueTest
+{
+    private static final int PRODUCERS = 4;
+    private static final int RECORDS = 20000;
+    private static final int HEADER_SIZE = 9; // producer, sequence number, payload length
+
+    // A record of the producer: its header, then a payload of its sequence number.
+    // Every tenth record is larger than a segment.
+    private static byte[] record(int producer, int sequence)
+    {
+        int length = sequence % 10 == 0 ? SerialWriteQueue.DEFAULT_SEGMENT_SIZE + 100 : (sequence * 31) % 600;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.put((byte) producer).putInt(sequence).putInt(length);
+        while(record.hasRemaining())
+            record.put((byte) (producer + sequence));
+        return record.array();
+    }
+
+    @Test
+    public void keepsTheWritesOfEachProducerWholeAndInOrder() throws InterruptedException
+    {
+        final SerialWriteQueue queue = new SerialWriteQueue();
+        Thread[] producers = new Thread[PRODUCERS];
+        for(int i=0;i<=PRODUCERS-1;i++)
+        {
+            final int producer = i;
+            producers[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for(int sequence=0;sequence<=RECORDS-1;sequence++)
+                    {
+                        byte[] record = record(producer, sequence);
+                        // A full queue rejects the write as a whole, so it can be written again
+                        while(!queue.put(record, 0, record.length))
+                            Thread.yield();
+                    }
+                }
+            };
+            producers[i].start();
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        boolean producing = true;
+        while(producing || queue.pendingBytes() > 0)
+        {
+            producing = false;
+            for(Thread producer : producers)
+                producing |= producer.isAlive();
+
+            SerialWriteQueue.Segment segment = queue.take(1000 * 1000);
+            if(segment != null)
+                stream.write(segment.array(), 0, segment.length());
+        }
+
+        // A write split by another would break the records which follow it
+        ByteBuffer records = ByteBuffer.wrap(stream.toByteArray());
+        int[] nextSequence = new int[PRODUCERS];
+        while(records.hasRemaining())
+        {
+            int producer = records.get();
+            int sequence = records.getInt();
+            int length = records.getInt();
+            assertEquals(nextSequence[producer], sequence);
+            byte[] payload = new byte[length];
+            records.get(payload);
+            byte[] expected = record(producer, sequence);
+            assertEquals(expected.length, HEADER_SIZE + length);
+            for(byte b : payload)
+                assertEquals((byte) (producer + sequence), b);
+            nextSequence[producer]++;
+        }
+        for(int i=0;i<=PRODUCERS-1;i++)
+            assertEquals(RECORDS, nextSequence[i]);
+    }
+
+    @Test
+    public void rejectsWritesWhichDoNotFitWhole()
+    {
+        SerialWriteQueue queue = new SerialWriteQueue(64, 256);
+        byte[] data = new byte[300];
+        for(int i=0;i<=data.length-1;i++)
+            data[i] = (byte) i;
+
+        assertFalse(queue.put(data, 0, 300));
+        assertEquals(1, queue.getRejectedCount());
+        assertEquals(0, queue.pendingBytes());
+
+        assertTrue(queue.put(data, 0, 200));
+        assertFalse(queue.put(data, 200, 100));
+        assertEquals(2, queue.getRejectedCount());
+        assertTrue(queue.put(data, 200, 56));
+        assertEquals(256, queue.pendingBytes());
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        SerialWriteQueue.Segment segment;
+        while((segment = queue.take(0)) != null)
+            stream.write(segment.array(), 0, segment.length());
+        byte[] expected = new byte[256];
+        System.arraycopy(data, 0, expected, 0, 256);
+        assertArrayEquals(expected, stream.toByteArray());
+        assertEquals(0, queue.pendingBytes());
+    }
+
+    @Test
+    public void holdsTheSegmentOfAStalledProducer() throws Exception
+    {
+        SerialWriteQueue queue = new SerialWriteQueue();
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+        assertTrue(queue.put(data, 0, 4));
+
+        // A producer reserves room in the open segment, and is preempted before it copies its data
+        AtomicLong pendingBytes = field(SerialWriteQueue.class, "pendingBytes", queue);
+        pendingBytes.addAndGet(2);
+        SerialWriteQueue.Segment stalled = tail(queue);
+        AtomicLong state = field(SerialWriteQueue.Segment.class, "state", stalled);
+        state.addAndGet(2);
+
+        long start = System.nanoTime();
+        assertNull(queue.take(0));
+        assertTrue(System.nanoTime() - start >= SerialWriteQueue.COMMIT_WAIT_NANOS);
+
+        // The writes after it wait for it
+        assertTrue(queue.put(data, 6, 2));
+        assertNull(queue.take(0));
+
+        // The producer resumes
+        stalled.array()[4] = data[4];
+        stalled.array()[5] = data[5];
+        AtomicInteger committed = field(SerialWriteQueue.Segment.class, "committed", stalled);
+        committed.addAndGet(2);
+
+        SerialWriteQueue.Segment segment = queue.take(0);
+        assertEquals(6, segment.length());
+        for(int i=0;i<=5;i++)
+            assertEquals(data[i], segment.array()[i]);
+        segment = queue.take(0);
+        assertEquals(2, segment.length());
+        assertEquals(data[6], segment.array()[0]);
+        assertEquals(0, queue.pendingBytes());
+    }
+
+    private static SerialWriteQueue.Segment tail(SerialWriteQueue queue) throws Exception
+    {
+        AtomicReference<SerialWriteQueue.Segment> tail = field(SerialWriteQueue.class, "tail", queue);
+        return tail.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T field(Class<?> type, String name, Object object) throws Exception
+    {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return (T) field.get(object);
+    }
+}